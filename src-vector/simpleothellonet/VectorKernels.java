@@ -0,0 +1,241 @@
+package simpleothellonet;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels using the SIMD instructions of the processor, through the
+ * incubating Vector API of Java 16 and later. This class is only loaded by
+ * Kernels when the jdk.incubator.vector module is available. It lives in its
+ * own source root, src-vector, so that the rest of the project compiles
+ * without the module; it must be compiled with
+ * --add-modules jdk.incubator.vector (see the README).
+ *
+ * Each loop processes as many values at once as the widest vectors of the
+ * processor hold, and finishes with scalar code. The dot products are summed
+ * lane by lane, so they are not rounded as the scalar ones.
+ */
+public class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private static final int LANES = SPECIES.length();
+
+    /**
+     * Number of rows computed together by dotRows.
+     */
+    private static final int ROW_BLOCK = 4;
+
+    /**
+     * Number of vectors computed together by dotRowsBatch.
+     */
+    private static final int BATCH_BLOCK = 4;
+
+    @Override
+    public String getName() {
+        return "vector" + LANES;
+    }
+
+    @Override
+    public double dot(double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += LANES) {
+            DoubleVector xv = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector yv = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            sum = xv.fma(yv, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; ++i) {
+            result += x[xOffset + i] * y[yOffset + i];
+        }
+        return result;
+    }
+
+    /**
+     * Computes the dot products by blocks of rows, so that each vector of
+     * values is loaded once for several rows.
+     */
+    @Override
+    public void dotRows(double[] x, int xOffset, double[] matrix, int matrixOffset,
+            int rowLength, int rows, int length, double[] result, int resultOffset) {
+        int upper = SPECIES.loopBound(length);
+        int r = 0;
+        for (; r + ROW_BLOCK <= rows; r += ROW_BLOCK) {
+            int offset0 = matrixOffset + r * rowLength;
+            int offset1 = offset0 + rowLength;
+            int offset2 = offset1 + rowLength;
+            int offset3 = offset2 + rowLength;
+            DoubleVector sum0 = DoubleVector.zero(SPECIES);
+            DoubleVector sum1 = DoubleVector.zero(SPECIES);
+            DoubleVector sum2 = DoubleVector.zero(SPECIES);
+            DoubleVector sum3 = DoubleVector.zero(SPECIES);
+            int i = 0;
+            for (; i < upper; i += LANES) {
+                DoubleVector values = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+                sum0 = values.fma(DoubleVector.fromArray(SPECIES, matrix, offset0 + i), sum0);
+                sum1 = values.fma(DoubleVector.fromArray(SPECIES, matrix, offset1 + i), sum1);
+                sum2 = values.fma(DoubleVector.fromArray(SPECIES, matrix, offset2 + i), sum2);
+                sum3 = values.fma(DoubleVector.fromArray(SPECIES, matrix, offset3 + i), sum3);
+            }
+            double result0 = sum0.reduceLanes(VectorOperators.ADD);
+            double result1 = sum1.reduceLanes(VectorOperators.ADD);
+            double result2 = sum2.reduceLanes(VectorOperators.ADD);
+            double result3 = sum3.reduceLanes(VectorOperators.ADD);
+            for (; i < length; ++i) {
+                double value = x[xOffset + i];
+                result0 += value * matrix[offset0 + i];
+                result1 += value * matrix[offset1 + i];
+                result2 += value * matrix[offset2 + i];
+                result3 += value * matrix[offset3 + i];
+            }
+            result[resultOffset + r] = result0;
+            result[resultOffset + r + 1] = result1;
+            result[resultOffset + r + 2] = result2;
+            result[resultOffset + r + 3] = result3;
+        }
+        for (; r < rows; ++r) {
+            result[resultOffset + r] = dot(x, xOffset, matrix, matrixOffset + r * rowLength, length);
+        }
+    }
+
+    /**
+     * Computes the dot products by blocks of four vectors and two rows, so
+     * that each vector of weights is loaded once for four vectors, and each
+     * vector of values once for two rows. The products are rounded as the ones
+     * of dotRows.
+     */
+    @Override
+    public void dotRowsBatch(double[] x, int xOffset, int xStride, int count,
+            double[] matrix, int matrixOffset, int rowLength, int rows, int length,
+            double[] result, int resultOffset, int resultStride) {
+        int upper = SPECIES.loopBound(length);
+        int b = 0;
+        for (; b + BATCH_BLOCK <= count; b += BATCH_BLOCK) {
+            int x0 = xOffset + b * xStride;
+            int x1 = x0 + xStride;
+            int x2 = x1 + xStride;
+            int x3 = x2 + xStride;
+            int result0 = resultOffset + b * resultStride;
+            int result1 = result0 + resultStride;
+            int result2 = result1 + resultStride;
+            int result3 = result2 + resultStride;
+            int r = 0;
+            for (; r + 2 <= rows; r += 2) {
+                int offset0 = matrixOffset + r * rowLength;
+                int offset1 = offset0 + rowLength;
+                DoubleVector sum00 = DoubleVector.zero(SPECIES);
+                DoubleVector sum10 = DoubleVector.zero(SPECIES);
+                DoubleVector sum20 = DoubleVector.zero(SPECIES);
+                DoubleVector sum30 = DoubleVector.zero(SPECIES);
+                DoubleVector sum01 = DoubleVector.zero(SPECIES);
+                DoubleVector sum11 = DoubleVector.zero(SPECIES);
+                DoubleVector sum21 = DoubleVector.zero(SPECIES);
+                DoubleVector sum31 = DoubleVector.zero(SPECIES);
+                int i = 0;
+                for (; i < upper; i += LANES) {
+                    DoubleVector weights0 = DoubleVector.fromArray(SPECIES, matrix, offset0 + i);
+                    DoubleVector weights1 = DoubleVector.fromArray(SPECIES, matrix, offset1 + i);
+                    DoubleVector values0 = DoubleVector.fromArray(SPECIES, x, x0 + i);
+                    DoubleVector values1 = DoubleVector.fromArray(SPECIES, x, x1 + i);
+                    DoubleVector values2 = DoubleVector.fromArray(SPECIES, x, x2 + i);
+                    DoubleVector values3 = DoubleVector.fromArray(SPECIES, x, x3 + i);
+                    sum00 = values0.fma(weights0, sum00);
+                    sum10 = values1.fma(weights0, sum10);
+                    sum20 = values2.fma(weights0, sum20);
+                    sum30 = values3.fma(weights0, sum30);
+                    sum01 = values0.fma(weights1, sum01);
+                    sum11 = values1.fma(weights1, sum11);
+                    sum21 = values2.fma(weights1, sum21);
+                    sum31 = values3.fma(weights1, sum31);
+                }
+                double product00 = sum00.reduceLanes(VectorOperators.ADD);
+                double product10 = sum10.reduceLanes(VectorOperators.ADD);
+                double product20 = sum20.reduceLanes(VectorOperators.ADD);
+                double product30 = sum30.reduceLanes(VectorOperators.ADD);
+                double product01 = sum01.reduceLanes(VectorOperators.ADD);
+                double product11 = sum11.reduceLanes(VectorOperators.ADD);
+                double product21 = sum21.reduceLanes(VectorOperators.ADD);
+                double product31 = sum31.reduceLanes(VectorOperators.ADD);
+                for (; i < length; ++i) {
+                    double weight0 = matrix[offset0 + i];
+                    double weight1 = matrix[offset1 + i];
+                    product00 += x[x0 + i] * weight0;
+                    product10 += x[x1 + i] * weight0;
+                    product20 += x[x2 + i] * weight0;
+                    product30 += x[x3 + i] * weight0;
+                    product01 += x[x0 + i] * weight1;
+                    product11 += x[x1 + i] * weight1;
+                    product21 += x[x2 + i] * weight1;
+                    product31 += x[x3 + i] * weight1;
+                }
+                result[result0 + r] = product00;
+                result[result1 + r] = product10;
+                result[result2 + r] = product20;
+                result[result3 + r] = product30;
+                result[result0 + r + 1] = product01;
+                result[result1 + r + 1] = product11;
+                result[result2 + r + 1] = product21;
+                result[result3 + r + 1] = product31;
+            }
+            for (; r < rows; ++r) {
+                int offset = matrixOffset + r * rowLength;
+                result[result0 + r] = dot(x, x0, matrix, offset, length);
+                result[result1 + r] = dot(x, x1, matrix, offset, length);
+                result[result2 + r] = dot(x, x2, matrix, offset, length);
+                result[result3 + r] = dot(x, x3, matrix, offset, length);
+            }
+        }
+        for (; b < count; ++b) {
+            dotRows(x, xOffset + b * xStride, matrix, matrixOffset, rowLength, rows, length,
+                    result, resultOffset + b * resultStride);
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector factor = DoubleVector.broadcast(SPECIES, alpha);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += LANES) {
+            DoubleVector xv = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector yv = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            xv.fma(factor, yv).intoArray(y, yOffset + i);
+        }
+        for (; i < length; ++i) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    /**
+     * Applies the formula of Neuroph on whole vectors, with the same clamping
+     * of large sums.
+     */
+    @Override
+    public void tanh(double[] values, int offset, int length, double slope) {
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += LANES) {
+            DoubleVector net = DoubleVector.fromArray(SPECIES, values, offset + i);
+            DoubleVector exp = net.mul(slope).lanewise(VectorOperators.EXP);
+            DoubleVector output = exp.sub(1).div(exp.add(1));
+            VectorMask<Double> high = net.compare(VectorOperators.GT, 100);
+            VectorMask<Double> low = net.compare(VectorOperators.LT, -100);
+            output.blend(1.0, high).blend(-1.0, low).intoArray(values, offset + i);
+        }
+        for (; i < length; ++i) {
+            double net = values[offset + i];
+            if (net > 100) {
+                values[offset + i] = 1.0;
+            } else if (net < -100) {
+                values[offset + i] = -1.0;
+            } else {
+                double exp = Math.exp(slope * net);
+                values[offset + i] = (exp - 1d) / (exp + 1d);
+            }
+        }
+    }
+}
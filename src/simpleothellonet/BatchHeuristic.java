@@ -0,0 +1,36 @@
+package simpleothellonet;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Heuristic that can evaluate several boards at once, more efficiently than
+ * one by one. When the in-place search of Minimax is given such a heuristic,
+ * it evaluates all the children of the boards just above the leaves in a
+ * single batch. The search result is unchanged, but leaves that a cutoff
+ * would have skipped are evaluated as well, so batching only pays off when
+ * a batch is much cheaper than separate evaluations.
+ */
+public interface BatchHeuristic extends ToDoubleFunction<Node> {
+
+    /**
+     * Maximum number of boards in a batch. No board has more legal moves.
+     */
+    public static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * Records a board in the current batch. The board may be modified after
+     * this call, so its content must be copied.
+     *
+     * @param board The board to evaluate.
+     * @param index The position of the board in the batch.
+     */
+    public void addToBatch(ReversiBoard board, int index);
+
+    /**
+     * Evaluates the boards of the current batch, which is then emptied.
+     *
+     * @param count The number of boards in the batch.
+     * @param values Receives the value of each board.
+     */
+    public void evaluateBatch(int count, double[] values);
+}
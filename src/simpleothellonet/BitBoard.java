@@ -0,0 +1,247 @@
+package simpleothellonet;
+
+/**
+ * Bit manipulation routines for boards stored as two 64-bit masks, one per
+ * color. The cell at (col, row) is represented by the bit row * 8 + col, so
+ * that bit 0 is the top-left corner and bit 63 the bottom-right corner.
+ */
+public final class BitBoard {
+
+    /**
+     * Mask of all cells except the ones in the leftmost column.
+     */
+    static final long NOT_A_FILE = 0xfefefefefefefefeL;
+
+    /**
+     * Mask of all cells except the ones in the rightmost column.
+     */
+    static final long NOT_H_FILE = 0x7f7f7f7f7f7f7f7fL;
+
+    /**
+     * Shift amounts of the eight directions, positive values shifting towards
+     * higher bits. The order is the same as the steps used by the original
+     * grid implementation: E, SE, S, SW, W, NW, N, NE.
+     */
+    private static final int[] SHIFTS = {1, 9, 8, 7, -1, -9, -8, -7};
+
+    /**
+     * Masks applied after each shift of SHIFTS, removing the bits that wrapped
+     * around the board edge.
+     */
+    private static final long[] SHIFT_MASKS = {
+        NOT_A_FILE, NOT_A_FILE, -1L, NOT_H_FILE,
+        NOT_H_FILE, NOT_H_FILE, -1L, NOT_A_FILE
+    };
+
+    private BitBoard() {
+    }
+
+    /**
+     * Shifts all bits of the mask one cell in the given direction.
+     *
+     * @param bits The mask to shift.
+     * @param direction The index of the direction in SHIFTS.
+     * @return The shifted mask, without the bits that left the board.
+     */
+    static long shift(long bits, int direction) {
+        int amount = SHIFTS[direction];
+        if (amount > 0) {
+            return (bits << amount) & SHIFT_MASKS[direction];
+        } else {
+            return (bits >>> -amount) & SHIFT_MASKS[direction];
+        }
+    }
+
+    /**
+     * Computes all legal moves of a player, with a flood fill in each of the
+     * eight directions.
+     *
+     * @param player The tokens of the player to move.
+     * @param opponent The tokens of the opponent.
+     * @return The mask of all cells where the player can place a token.
+     */
+    public static long legalMoves(long player, long opponent) {
+        long empty = ~(player | opponent);
+        long moves = 0;
+        for (int direction = 0; direction < SHIFTS.length; ++direction) {
+            // A line has at most six opponent tokens between the move and
+            // our token closing it
+            long line = shift(player, direction) & opponent;
+            line |= shift(line, direction) & opponent;
+            line |= shift(line, direction) & opponent;
+            line |= shift(line, direction) & opponent;
+            line |= shift(line, direction) & opponent;
+            line |= shift(line, direction) & opponent;
+            moves |= shift(line, direction) & empty;
+        }
+        return moves;
+    }
+
+    /**
+     * Computes the cells adjacent to a set of cells, in any of the eight
+     * directions.
+     *
+     * @param bits The cells.
+     * @return The mask of their neighbours, which may include some of the
+     * cells themselves.
+     */
+    static long neighbours(long bits) {
+        long horizontal = bits | ((bits << 1) & NOT_A_FILE) | ((bits >>> 1) & NOT_H_FILE);
+        return horizontal | (horizontal << 8) | (horizontal >>> 8);
+    }
+
+    /**
+     * Computes the tokens flipped by a move. The move is not required to be
+     * legal, an illegal move simply flips nothing.
+     *
+     * @param square The cell where the player places a token.
+     * @param player The tokens of the player to move.
+     * @param opponent The tokens of the opponent.
+     * @return The mask of opponent tokens that are flipped by the move.
+     */
+    public static long flips(int square, long player, long opponent) {
+        long move = 1L << square;
+        long flipped = 0;
+        for (int direction = 0; direction < SHIFTS.length; ++direction) {
+            long line = 0;
+            long cursor = shift(move, direction);
+            while ((cursor & opponent) != 0) {
+                line |= cursor;
+                cursor = shift(cursor, direction);
+            }
+            // The line is only flipped if it is closed by one of our tokens
+            if ((cursor & player) != 0) {
+                flipped |= line;
+            }
+        }
+        return flipped;
+    }
+
+    /**
+     * Number of symmetries of the board: the identity, three rotations and
+     * four reflections.
+     */
+    public static final int SYMMETRY_COUNT = 8;
+
+    /**
+     * Mirrors a mask left to right, reversing the bits of each row.
+     *
+     * @param bits The mask.
+     * @return The mirrored mask.
+     */
+    static long mirrorHorizontal(long bits) {
+        bits = ((bits >>> 1) & 0x5555555555555555L) | ((bits & 0x5555555555555555L) << 1);
+        bits = ((bits >>> 2) & 0x3333333333333333L) | ((bits & 0x3333333333333333L) << 2);
+        return ((bits >>> 4) & 0x0f0f0f0f0f0f0f0fL) | ((bits & 0x0f0f0f0f0f0f0f0fL) << 4);
+    }
+
+    /**
+     * Flips a mask upside down. Each row being a byte, this reverses the
+     * bytes.
+     *
+     * @param bits The mask.
+     * @return The flipped mask.
+     */
+    static long flipVertical(long bits) {
+        return Long.reverseBytes(bits);
+    }
+
+    /**
+     * Flips a mask along the diagonal from the top-left to the bottom-right
+     * corner, exchanging rows and columns, with three delta swaps.
+     *
+     * @param bits The mask.
+     * @return The transposed mask.
+     */
+    static long flipDiagonal(long bits) {
+        long swapped = 0x0f0f0f0f00000000L & (bits ^ (bits << 28));
+        bits ^= swapped ^ (swapped >>> 28);
+        swapped = 0x3333000033330000L & (bits ^ (bits << 14));
+        bits ^= swapped ^ (swapped >>> 14);
+        swapped = 0x5500550055005500L & (bits ^ (bits << 7));
+        return bits ^ swapped ^ (swapped >>> 7);
+    }
+
+    /**
+     * Applies one of the symmetries of the board to a mask. Each bit of the
+     * symmetry selects one of the elementary reflections, applied in the
+     * order: horizontal mirror, vertical flip, transposition.
+     *
+     * @param bits The mask.
+     * @param symmetry The symmetry, from 0 (the identity) to SYMMETRY_COUNT - 1.
+     * @return The transformed mask.
+     */
+    public static long transform(long bits, int symmetry) {
+        if ((symmetry & 1) != 0) {
+            bits = mirrorHorizontal(bits);
+        }
+        if ((symmetry & 2) != 0) {
+            bits = flipVertical(bits);
+        }
+        if ((symmetry & 4) != 0) {
+            bits = flipDiagonal(bits);
+        }
+        return bits;
+    }
+
+    /**
+     * Undoes transform, applying the same reflections in the reverse order.
+     *
+     * @param bits The transformed mask.
+     * @param symmetry The symmetry given to transform.
+     * @return The original mask.
+     */
+    public static long inverseTransform(long bits, int symmetry) {
+        if ((symmetry & 4) != 0) {
+            bits = flipDiagonal(bits);
+        }
+        if ((symmetry & 2) != 0) {
+            bits = flipVertical(bits);
+        }
+        if ((symmetry & 1) != 0) {
+            bits = mirrorHorizontal(bits);
+        }
+        return bits;
+    }
+
+    /**
+     * Finds the symmetry giving the canonical form of a board, the smallest
+     * of its eight transforms when comparing the player masks, then the
+     * opponent masks, as unsigned numbers. All symmetric boards have the same
+     * canonical form.
+     *
+     * @param player The tokens of the player to move.
+     * @param opponent The tokens of the opponent.
+     * @return The symmetry to give to transform to get the canonical form.
+     */
+    public static int canonicalSymmetry(long player, long opponent) {
+        int best = 0;
+        long bestPlayer = player;
+        long bestOpponent = opponent;
+        for (int symmetry = 1; symmetry < SYMMETRY_COUNT; ++symmetry) {
+            long transformedPlayer = transform(player, symmetry);
+            int comparison = Long.compareUnsigned(transformedPlayer, bestPlayer);
+            if (comparison > 0) {
+                continue;
+            }
+            long transformedOpponent = transform(opponent, symmetry);
+            if (comparison < 0 || Long.compareUnsigned(transformedOpponent, bestOpponent) < 0) {
+                best = symmetry;
+                bestPlayer = transformedPlayer;
+                bestOpponent = transformedOpponent;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the index of the cell at the given coordinates.
+     *
+     * @param col The column of the cell.
+     * @param row The row of the cell.
+     * @return The bit index of the cell.
+     */
+    public static int square(int col, int row) {
+        return row * ReversiBoard.getGridSize() + col;
+    }
+}
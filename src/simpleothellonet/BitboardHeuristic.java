@@ -0,0 +1,271 @@
+package simpleothellonet;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Heuristic made of a weighted sum of board features, all computed from the
+ * bit masks of the board with population counts and precomputed tables,
+ * instead of walking the grid. The features are evaluated from the point of
+ * view of the player whose turn it is, like the heuristics of MinimaxPlayer:
+ * <ul>
+ * <li>the positional weights of Kevin J. Binkley;</li>
+ * <li>the disc difference;</li>
+ * <li>the mobility, the difference of the numbers of legal moves;</li>
+ * <li>the potential mobility, the difference of the numbers of empty cells
+ * next to the opponent tokens;</li>
+ * <li>the frontier, the difference of the numbers of opponent and player
+ * tokens next to an empty cell, a large frontier being a weakness;</li>
+ * <li>the stability of the corners and edges, the difference of the numbers
+ * of tokens that can no longer be flipped along them.</li>
+ * </ul>
+ * An optional gaussian noise is drawn from the generator of the calling
+ * thread. Once configured, an instance can be used by several threads.
+ */
+public class BitboardHeuristic implements ToDoubleFunction<Node> {
+
+    /**
+     * The positional weights of Kevin J. Binkley, by row and column.
+     */
+    private static final int[][] POSITIONAL_WEIGHTS = {
+        {100, -25, 10, 5, 5, 10, -25, 100},
+        {-25, -25, 2, 2, 2, 2, -25, -25},
+        {10, 2, 5, 1, 1, 5, 2, 10},
+        {5, 2, 1, 2, 2, 1, 2, 5},
+        {5, 2, 1, 2, 2, 1, 2, 5},
+        {10, 2, 5, 1, 1, 5, 2, 10},
+        {-25, -25, 2, 2, 2, 2, -25, -25},
+        {100, -25, 10, 5, 5, 10, -25, 100}
+    };
+
+    /**
+     * Sum of the positional weights of the tokens of a row, for each row and
+     * each of the 256 contents of the row.
+     */
+    private static final int[][] ROW_WEIGHTS = rowWeights();
+
+    private static final long CORNERS = 0x8100000000000081L;
+    private static final long TOP_EDGE = 0x00000000000000ffL;
+    private static final long BOTTOM_EDGE = 0xff00000000000000L;
+    private static final long LEFT_EDGE = 0x0101010101010101L;
+    private static final long RIGHT_EDGE = 0x8080808080808080L;
+
+    private double positionalWeight = 0;
+    private double discWeight = 0;
+    private double mobilityWeight = 0;
+    private double potentialMobilityWeight = 0;
+    private double frontierWeight = 0;
+    private double stabilityWeight = 0;
+    private double noiseStd = 0;
+
+    /**
+     * Creates a heuristic whose features all have a null weight.
+     */
+    public BitboardHeuristic() {
+    }
+
+    /**
+     * Returns the heuristic of Kevin J. Binkley, with the same values as
+     * MinimaxPlayer.positionalHeuristic.
+     *
+     * @return The heuristic.
+     */
+    public static BitboardHeuristic positional() {
+        BitboardHeuristic heuristic = new BitboardHeuristic();
+        heuristic.setPositionalWeight(1);
+        return heuristic;
+    }
+
+    /**
+     * Returns a heuristic combining all features, in the usual order of
+     * importance for the middle game. The weights are chosen by hand, relative
+     * to the positional weights where a corner is worth 100.
+     *
+     * @return The heuristic.
+     */
+    public static BitboardHeuristic standard() {
+        BitboardHeuristic heuristic = new BitboardHeuristic();
+        heuristic.setPositionalWeight(1);
+        heuristic.setMobilityWeight(8);
+        heuristic.setPotentialMobilityWeight(3);
+        heuristic.setFrontierWeight(3);
+        heuristic.setStabilityWeight(12);
+        return heuristic;
+    }
+
+    @Override
+    public double applyAsDouble(Node node) {
+        ReversiBoard board = (ReversiBoard) node;
+        return evaluate(board.getPlayerBits(), board.getOpponentBits());
+    }
+
+    /**
+     * Evaluates a board for a player.
+     *
+     * @param player The tokens of the player.
+     * @param opponent The tokens of the opponent.
+     * @return The weighted sum of the features, plus the noise.
+     */
+    public double evaluate(long player, long opponent) {
+        double value = 0;
+        if (positionalWeight != 0) {
+            value += positionalWeight * positional(player, opponent);
+        }
+        if (discWeight != 0) {
+            value += discWeight * discDifference(player, opponent);
+        }
+        if (mobilityWeight != 0) {
+            value += mobilityWeight * mobility(player, opponent);
+        }
+        if (potentialMobilityWeight != 0) {
+            value += potentialMobilityWeight * potentialMobility(player, opponent);
+        }
+        if (frontierWeight != 0) {
+            value += frontierWeight * frontier(player, opponent);
+        }
+        if (stabilityWeight != 0) {
+            value += stabilityWeight * stability(player, opponent);
+        }
+        if (noiseStd != 0) {
+            value += ThreadLocalRandom.current().nextGaussian() * noiseStd;
+        }
+        return value;
+    }
+
+    /**
+     * Computes the positional value of a board, row by row with ROW_WEIGHTS.
+     *
+     * @param player The tokens of the player.
+     * @param opponent The tokens of the opponent.
+     * @return The sum of the weights of the player cells minus the ones of the
+     * opponent cells.
+     */
+    public static int positional(long player, long opponent) {
+        int result = 0;
+        for (int row = 0; row < 8; ++row) {
+            int[] weights = ROW_WEIGHTS[row];
+            int shift = row * 8;
+            result += weights[(int) (player >>> shift) & 0xff]
+                    - weights[(int) (opponent >>> shift) & 0xff];
+        }
+        return result;
+    }
+
+    public static int discDifference(long player, long opponent) {
+        return Long.bitCount(player) - Long.bitCount(opponent);
+    }
+
+    public static int mobility(long player, long opponent) {
+        return Long.bitCount(BitBoard.legalMoves(player, opponent))
+                - Long.bitCount(BitBoard.legalMoves(opponent, player));
+    }
+
+    public static int potentialMobility(long player, long opponent) {
+        long empty = ~(player | opponent);
+        return Long.bitCount(BitBoard.neighbours(opponent) & empty)
+                - Long.bitCount(BitBoard.neighbours(player) & empty);
+    }
+
+    public static int frontier(long player, long opponent) {
+        long emptyNeighbours = BitBoard.neighbours(~(player | opponent));
+        return Long.bitCount(opponent & emptyNeighbours) - Long.bitCount(player & emptyNeighbours);
+    }
+
+    public static int stability(long player, long opponent) {
+        long occupied = player | opponent;
+        return Long.bitCount(stableEdges(player, occupied))
+                - Long.bitCount(stableEdges(opponent, occupied));
+    }
+
+    /**
+     * Computes the tokens of a player on the edges that cannot be flipped
+     * anymore. A token on an edge can only be flipped along the edge, so it
+     * is stable if the edge is full, or if it is connected to a corner of the
+     * player by tokens of the player.
+     *
+     * @param player The tokens of the player.
+     * @param occupied The occupied cells.
+     * @return The stable tokens of the player on the edges.
+     */
+    static long stableEdges(long player, long occupied) {
+        long stable = player & CORNERS;
+        if ((occupied & TOP_EDGE) == TOP_EDGE) {
+            stable |= player & TOP_EDGE;
+        }
+        if ((occupied & BOTTOM_EDGE) == BOTTOM_EDGE) {
+            stable |= player & BOTTOM_EDGE;
+        }
+        if ((occupied & LEFT_EDGE) == LEFT_EDGE) {
+            stable |= player & LEFT_EDGE;
+        }
+        if ((occupied & RIGHT_EDGE) == RIGHT_EDGE) {
+            stable |= player & RIGHT_EDGE;
+        }
+        if (stable == 0) {
+            return 0;
+        }
+        long horizontalEdges = player & (TOP_EDGE | BOTTOM_EDGE);
+        long verticalEdges = player & (LEFT_EDGE | RIGHT_EDGE);
+        long previous;
+        do {
+            previous = stable;
+            stable |= horizontalEdges & (((stable << 1) & BitBoard.NOT_A_FILE)
+                    | ((stable >>> 1) & BitBoard.NOT_H_FILE));
+            stable |= verticalEdges & ((stable << 8) | (stable >>> 8));
+        } while (stable != previous);
+        return stable;
+    }
+
+    public void setPositionalWeight(double positionalWeight) {
+        this.positionalWeight = positionalWeight;
+    }
+
+    public void setDiscWeight(double discWeight) {
+        this.discWeight = discWeight;
+    }
+
+    public void setMobilityWeight(double mobilityWeight) {
+        this.mobilityWeight = mobilityWeight;
+    }
+
+    public void setPotentialMobilityWeight(double potentialMobilityWeight) {
+        this.potentialMobilityWeight = potentialMobilityWeight;
+    }
+
+    public void setFrontierWeight(double frontierWeight) {
+        this.frontierWeight = frontierWeight;
+    }
+
+    public void setStabilityWeight(double stabilityWeight) {
+        this.stabilityWeight = stabilityWeight;
+    }
+
+    /**
+     * Sets the standard deviation of the gaussian noise added to each
+     * evaluation, for instance to vary the games of deterministic players.
+     *
+     * @param noiseStd The standard deviation, or 0 for no noise.
+     */
+    public void setNoiseStd(double noiseStd) {
+        this.noiseStd = noiseStd;
+    }
+
+    /**
+     * Computes ROW_WEIGHTS from POSITIONAL_WEIGHTS.
+     *
+     * @return The table.
+     */
+    private static int[][] rowWeights() {
+        int[][] table = new int[8][256];
+        for (int row = 0; row < 8; ++row) {
+            for (int content = 0; content < 256; ++content) {
+                for (int col = 0; col < 8; ++col) {
+                    if ((content >>> col & 1) != 0) {
+                        table[row][content] += POSITIONAL_WEIGHTS[row][col];
+                    }
+                }
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,378 @@
+package simpleothellonet;
+
+/**
+ * Exact solver of the end of the game. When few cells remain empty, the game
+ * tree can be searched to its end, and the final disc difference replaces the
+ * heuristic. Unlike Minimax, the solver follows the actual rules of the game:
+ * players alternate, and a player without legal move passes.
+ *
+ * The search is a negamax alpha-beta on the bit masks of the player to move
+ * and of its opponent. Moves are sorted by increasing mobility of the opponent
+ * (fastest-first) when many cells are empty, and by quadrant parity otherwise.
+ * The last three empty cells are handled by specialised routines that do not
+ * generate moves.
+ *
+ * The scores follow the usual convention: the empty cells left at the end of
+ * the game are counted for the winner.
+ */
+public class EndgameSolver {
+
+    /**
+     * The four quadrants of the board, used for the parity ordering.
+     */
+    private static final long[] QUADRANTS = {
+        0x000000000f0f0f0fL, 0x00000000f0f0f0f0L,
+        0x0f0f0f0f00000000L, 0xf0f0f0f000000000L
+    };
+
+    /**
+     * Mask of the four corners.
+     */
+    private static final long CORNERS = 0x8100000000000081L;
+
+    /**
+     * Number of empty cells above which moves are sorted fastest-first. Below
+     * it, sorting costs more than it saves.
+     */
+    private static final int FASTEST_FIRST_EMPTIES = 7;
+
+    /**
+     * Score bound larger than any disc difference.
+     */
+    private static final int INFINITY = 65;
+
+    /**
+     * Maximum number of empty cells for which the solver is used.
+     */
+    private final int maxEmpties;
+
+    /**
+     * Moves and their sorting keys, indexed by the number of empty cells of
+     * the searched board. A board has at most as many moves as empty cells.
+     */
+    private final int[][] moveBuffers = emptiesBuffers();
+    private final int[][] scoreBuffers = emptiesBuffers();
+
+    private long nodeCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param maxEmpties The number of empty cells at or below which the
+     * solver should be used instead of a heuristic search.
+     */
+    public EndgameSolver(int maxEmpties) {
+        this.maxEmpties = maxEmpties;
+    }
+
+    /**
+     * Tells whether the solver should be used on this board.
+     *
+     * @param board The board.
+     * @return True if the board has few enough empty cells.
+     */
+    public boolean canSolve(ReversiBoard board) {
+        return board.getEmptyCount() <= maxEmpties;
+    }
+
+    public int getMaxEmpties() {
+        return maxEmpties;
+    }
+
+    /**
+     * Creates buffers for the moves of the boards with 0 to 64 empty cells.
+     *
+     * @return The buffers, each as long as its number of empty cells.
+     */
+    private static int[][] emptiesBuffers() {
+        int[][] buffers = new int[65][];
+        for (int empties = 0; empties < buffers.length; ++empties) {
+            buffers[empties] = new int[empties];
+        }
+        return buffers;
+    }
+
+    /**
+     * Finds the best move and the exact final disc difference.
+     *
+     * @param board The board, the player to move being its turn color.
+     * @return The best child of the board (null if the player must pass), and
+     * the final disc difference for the player to move with perfect play.
+     */
+    public Minimax.Result solve(ReversiBoard board) {
+        return solve(board, -INFINITY, INFINITY);
+    }
+
+    /**
+     * Finds a move that wins, or else draws, if there is one. This is faster
+     * than an exact solve, thanks to the null window.
+     *
+     * @param board The board, the player to move being its turn color.
+     * @return The best child of the board (null if the player must pass), and
+     * a value that is positive if the player to move wins, negative if it
+     * loses, and 0 for a draw.
+     */
+    public Minimax.Result solveWinLossDraw(ReversiBoard board) {
+        Minimax.Result result = solve(board, -1, 1);
+        result.heuristicValue = Math.signum(result.heuristicValue);
+        return result;
+    }
+
+    /**
+     * Returns the number of boards searched since the last reset.
+     *
+     * @return The node count.
+     */
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public void resetNodeCount() {
+        nodeCount = 0;
+    }
+
+    private Minimax.Result solve(ReversiBoard board, int alpha, int beta) {
+        long player = board.getPlayerBits();
+        long opponent = board.getOpponentBits();
+        long moves = BitBoard.legalMoves(player, opponent);
+        nodeCount++;
+        if (moves == 0) {
+            return new Minimax.Result(null, -search(opponent, player, -beta, -alpha));
+        }
+
+        int empties = board.getEmptyCount();
+        int moveCount = sortMoves(player, opponent, moves, empties);
+        int[] moveBuffer = moveBuffers[empties];
+        int bestMove = moveBuffer[0];
+        int bestScore = -INFINITY;
+        for (int i = 0; i < moveCount; ++i) {
+            int move = moveBuffer[i];
+            long flipped = BitBoard.flips(move, player, opponent);
+            int score = -search(opponent & ~flipped, player | flipped | (1L << move),
+                    -beta, -alpha);
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+                alpha = Math.max(alpha, score);
+                if (alpha >= beta) {
+                    break;
+                }
+            }
+        }
+
+        ReversiBoard child = new ReversiBoard(board);
+        child.makeMove(bestMove);
+        return new Minimax.Result(child, bestScore);
+    }
+
+    /**
+     * Negamax alpha-beta search to the end of the game.
+     *
+     * @param player The tokens of the player to move.
+     * @param opponent The tokens of the opponent.
+     * @param alpha The lower bound of the search window.
+     * @param beta The upper bound of the search window.
+     * @return The final disc difference for the player to move, or a bound of
+     * it if outside of the window.
+     */
+    private int search(long player, long opponent, int alpha, int beta) {
+        long emptyBits = ~(player | opponent);
+        int empties = Long.bitCount(emptyBits);
+        if (empties <= 3) {
+            if (empties == 0) {
+                nodeCount++;
+                return finalScore(player, opponent);
+            } else if (empties == 1) {
+                return solveLastEmpty(player, opponent, Long.numberOfTrailingZeros(emptyBits));
+            }
+            return solveLastEmpties(player, opponent, emptyBits, alpha, beta, false);
+        }
+
+        nodeCount++;
+        long moves = BitBoard.legalMoves(player, opponent);
+        if (moves == 0) {
+            if (BitBoard.legalMoves(opponent, player) == 0) {
+                return finalScore(player, opponent);
+            }
+            // Pass
+            return -search(opponent, player, -beta, -alpha);
+        }
+
+        int moveCount = sortMoves(player, opponent, moves, empties);
+        int[] moveBuffer = moveBuffers[empties];
+        int bestScore = -INFINITY;
+        for (int i = 0; i < moveCount; ++i) {
+            int move = moveBuffer[i];
+            long flipped = BitBoard.flips(move, player, opponent);
+            int score = -search(opponent & ~flipped, player | flipped | (1L << move),
+                    -beta, -alpha);
+            if (score > bestScore) {
+                bestScore = score;
+                alpha = Math.max(alpha, score);
+                if (alpha >= beta) {
+                    break;
+                }
+            }
+        }
+        return bestScore;
+    }
+
+    /**
+     * Search of the boards with two or three empty cells. The empty cells are
+     * tried directly instead of generating moves, the ones alone in their
+     * quadrant first.
+     *
+     * @param player The tokens of the player to move.
+     * @param opponent The tokens of the opponent.
+     * @param emptyBits The empty cells.
+     * @param alpha The lower bound of the search window.
+     * @param beta The upper bound of the search window.
+     * @param passed True if the opponent just passed.
+     * @return The final disc difference for the player to move, or a bound.
+     */
+    private int solveLastEmpties(long player, long opponent, long emptyBits,
+            int alpha, int beta, boolean passed) {
+        nodeCount++;
+        int bestScore = -INFINITY;
+        long oddEmpties = oddQuadrants(emptyBits);
+        // First the cells of odd quadrants, then the others
+        for (int pass = 0; pass < 2; ++pass) {
+            long candidates = pass == 0 ? oddEmpties : emptyBits & ~oddEmpties;
+            for (; candidates != 0; candidates &= candidates - 1) {
+                int move = Long.numberOfTrailingZeros(candidates);
+                long flipped = BitBoard.flips(move, player, opponent);
+                if (flipped == 0) {
+                    continue;
+                }
+                long newPlayer = player | flipped | (1L << move);
+                long newOpponent = opponent & ~flipped;
+                long newEmpties = emptyBits & ~(1L << move);
+                int score;
+                if (Long.bitCount(newEmpties) == 1) {
+                    score = -solveLastEmpty(newOpponent, newPlayer,
+                            Long.numberOfTrailingZeros(newEmpties));
+                } else {
+                    score = -solveLastEmpties(newOpponent, newPlayer, newEmpties,
+                            -beta, -alpha, false);
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    alpha = Math.max(alpha, score);
+                    if (alpha >= beta) {
+                        return bestScore;
+                    }
+                }
+            }
+        }
+
+        if (bestScore == -INFINITY) {
+            // No legal move: pass, or end the game if the opponent passed too
+            if (passed) {
+                return finalScore(player, opponent);
+            }
+            return -solveLastEmpties(opponent, player, emptyBits, -beta, -alpha, true);
+        }
+        return bestScore;
+    }
+
+    /**
+     * Solves a board with a single empty cell, without any search.
+     *
+     * @param player The tokens of the player to move.
+     * @param opponent The tokens of the opponent.
+     * @param square The empty cell.
+     * @return The final disc difference for the player to move.
+     */
+    private int solveLastEmpty(long player, long opponent, int square) {
+        nodeCount++;
+        int playerCount = Long.bitCount(player);
+        int opponentCount = Long.bitCount(opponent);
+        int flipCount = Long.bitCount(BitBoard.flips(square, player, opponent));
+        if (flipCount > 0) {
+            return playerCount + flipCount + 1 - (opponentCount - flipCount);
+        }
+        // The player passes, and the opponent may play the last cell
+        flipCount = Long.bitCount(BitBoard.flips(square, opponent, player));
+        if (flipCount > 0) {
+            return playerCount - flipCount - (opponentCount + flipCount + 1);
+        }
+        return finalScore(player, opponent);
+    }
+
+    /**
+     * Writes the moves of a board in the buffer of its number of empty cells,
+     * best first.
+     *
+     * @param player The tokens of the player to move.
+     * @param opponent The tokens of the opponent.
+     * @param moves The legal moves.
+     * @param empties The number of empty cells.
+     * @return The number of moves.
+     */
+    private int sortMoves(long player, long opponent, long moves, int empties) {
+        int[] moveBuffer = moveBuffers[empties];
+        int[] scores = scoreBuffers[empties];
+        long oddEmpties = oddQuadrants(~(player | opponent));
+        int moveCount = 0;
+        for (; moves != 0; moves &= moves - 1) {
+            int move = Long.numberOfTrailingZeros(moves);
+            long bit = 1L << move;
+            // Lower scores are searched first
+            int score = (oddEmpties & bit) != 0 ? 0 : 1;
+            if (empties > FASTEST_FIRST_EMPTIES) {
+                long flipped = BitBoard.flips(move, player, opponent);
+                long opponentMoves = BitBoard.legalMoves(opponent & ~flipped,
+                        player | flipped | bit);
+                score += 4 * (Long.bitCount(opponentMoves) + Long.bitCount(opponentMoves & CORNERS));
+            }
+            // Insertion sort
+            int j = moveCount - 1;
+            while (j >= 0 && scores[j] > score) {
+                moveBuffer[j + 1] = moveBuffer[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moveBuffer[j + 1] = move;
+            scores[j + 1] = score;
+            moveCount++;
+        }
+        return moveCount;
+    }
+
+    /**
+     * Returns the empty cells lying in a quadrant with an odd number of empty
+     * cells. Playing there tends to give us the last move of the quadrant.
+     *
+     * @param emptyBits The empty cells.
+     * @return The empty cells of odd quadrants.
+     */
+    private static long oddQuadrants(long emptyBits) {
+        long result = 0;
+        for (long quadrant : QUADRANTS) {
+            if ((Long.bitCount(emptyBits & quadrant) & 1) != 0) {
+                result |= emptyBits & quadrant;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes the final disc difference, the empty cells going to the winner.
+     *
+     * @param player The tokens of the player.
+     * @param opponent The tokens of the opponent.
+     * @return The score of the player.
+     */
+    private static int finalScore(long player, long opponent) {
+        int playerCount = Long.bitCount(player);
+        int opponentCount = Long.bitCount(opponent);
+        int empties = 64 - playerCount - opponentCount;
+        int difference = playerCount - opponentCount;
+        if (difference > 0) {
+            return difference + empties;
+        } else if (difference < 0) {
+            return difference - empties;
+        }
+        return 0;
+    }
+}
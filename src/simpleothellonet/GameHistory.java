@@ -0,0 +1,224 @@
+package simpleothellonet;
+
+import java.util.Arrays;
+import simpleothellonet.ReversiBoard.Color;
+
+/**
+ * Sequence of the positions of a game, with the moves between them. Boards
+ * and positions do not know the positions before them, so that they do not
+ * keep a whole game in memory; this class is used instead where the previous
+ * positions are needed.
+ *
+ * The positions are stored as pairs of masks in a single array, and the
+ * moves as bytes, so a game of 60 moves takes about one kilobyte.
+ */
+public class GameHistory {
+
+    /**
+     * Move recorded when the player to move passes.
+     */
+    public static final int PASS = -1;
+
+    /**
+     * Black and white tokens of each position, one after the other.
+     */
+    private long[] tokens;
+
+    /**
+     * Move played from each position, the cell (see BitBoard) or PASS.
+     */
+    private byte[] moves;
+
+    /**
+     * Color of the player to move in the first position. Each move and pass
+     * gives the turn to the other color.
+     */
+    private final Color startColor;
+
+    /**
+     * Number of moves recorded.
+     */
+    private int size = 0;
+
+    /**
+     * Creates a history starting from the initial position.
+     */
+    public GameHistory() {
+        this(Position.initialPosition());
+    }
+
+    /**
+     * Creates a history starting from the given position.
+     *
+     * @param start The first position.
+     */
+    public GameHistory(Position start) {
+        moves = new byte[64];
+        tokens = new long[2 * (moves.length + 1)];
+        tokens[0] = start.getBits(Color.Black);
+        tokens[1] = start.getBits(Color.White);
+        startColor = start.getTurnColor();
+    }
+
+    /**
+     * Plays a game between two players from the initial position, and records
+     * it. The players see the boards as with ReversiGame.playGame: a board
+     * whose turn color is theirs, and a pass when they cannot move.
+     *
+     * @param black The player with the black tokens, who moves first.
+     * @param white The player with the white tokens.
+     * @return The game, whose last position is the end of the game.
+     * @throws IllegalStateException If a player returns no board although it
+     * has a legal move.
+     */
+    public static GameHistory playGame(ReversiPlayer black, ReversiPlayer white) {
+        GameHistory game = new GameHistory();
+        ReversiBoard board = ReversiBoard.initialBoard();
+        while (!game.getLast().isGameOver()) {
+            if (board.getMoves() == 0) {
+                game.pass();
+                board.swapTurn();
+                continue;
+            }
+            ReversiPlayer player = board.getTurnColor() == Color.Black ? black : white;
+            ReversiBoard next = player.playTurn(board);
+            if (next == null) {
+                throw new IllegalStateException(player.getClass().getSimpleName()
+                        + " playing " + board.getTurnColor() + " returned no move");
+            }
+            board = next;
+            game.record(board);
+            board.swapTurn();
+        }
+        black.onGameOver(board, Color.Black);
+        white.onGameOver(board, Color.White);
+        return game;
+    }
+
+    /**
+     * Plays a move from the last position.
+     *
+     * @param square The cell where the token is placed (see BitBoard).
+     * @throws IllegalArgumentException If the move is not legal.
+     */
+    public void play(int square) {
+        Position last = getLast();
+        if (square < 0 || square >= 64 || (last.getMoves() & (1L << square)) == 0) {
+            throw new IllegalArgumentException("Illegal move: " + square);
+        }
+        append(square, last.play(square));
+    }
+
+    /**
+     * Records that the player to move in the last position passes.
+     *
+     * @throws IllegalStateException If the player has a legal move.
+     */
+    public void pass() {
+        Position last = getLast();
+        if (last.getMoves() != 0) {
+            throw new IllegalStateException("The player to move cannot pass");
+        }
+        append(PASS, last.pass());
+    }
+
+    /**
+     * Records the move leading from the last position to the given board, as
+     * returned by ReversiPlayer.playTurn. Only the tokens are compared, since
+     * the turn of the children of a board is not swapped.
+     *
+     * @param board The board after the move.
+     * @return The move, or PASS if the tokens did not change.
+     * @throws IllegalArgumentException If no legal move leads to the board.
+     */
+    public int record(ReversiBoard board) {
+        Position last = getLast();
+        long occupied = last.getPlayerBits() | last.getOpponentBits();
+        long added = (board.getBits(Color.Black) | board.getBits(Color.White)) & ~occupied;
+        if (added == 0 && board.getBits(Color.Black) == last.getBits(Color.Black)
+                && board.getBits(Color.White) == last.getBits(Color.White)) {
+            pass();
+            return PASS;
+        }
+        int square = Long.numberOfTrailingZeros(added);
+        if (Long.bitCount(added) != 1 || (last.getMoves() & added) == 0) {
+            throw new IllegalArgumentException("No legal move leads to the board");
+        }
+        Position next = last.play(square);
+        if (next.getBits(Color.Black) != board.getBits(Color.Black)
+                || next.getBits(Color.White) != board.getBits(Color.White)) {
+            throw new IllegalArgumentException("No legal move leads to the board");
+        }
+        append(square, next);
+        return square;
+    }
+
+    /**
+     * Takes back the last move.
+     *
+     * @throws IllegalStateException If no move was recorded.
+     */
+    public void undo() {
+        if (size == 0) {
+            throw new IllegalStateException("No move to take back");
+        }
+        size--;
+    }
+
+    /**
+     * Returns the number of moves recorded, including the passes.
+     *
+     * @return The number of moves.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a position of the game.
+     *
+     * @param ply The number of moves played before the position, from 0 for
+     * the first position to size() for the last one.
+     * @return The position.
+     */
+    public Position getPosition(int ply) {
+        if (ply < 0 || ply > size) {
+            throw new IndexOutOfBoundsException("Ply " + ply + " of " + size);
+        }
+        Color turnColor = ply % 2 == 0 ? startColor : startColor.getOpposite();
+        return new Position(tokens[2 * ply], tokens[2 * ply + 1], turnColor);
+    }
+
+    /**
+     * Returns the move played from a position.
+     *
+     * @param ply The number of moves played before the position, from 0 to
+     * size() - 1.
+     * @return The cell (see BitBoard), or PASS.
+     */
+    public int getMove(int ply) {
+        if (ply < 0 || ply >= size) {
+            throw new IndexOutOfBoundsException("Ply " + ply + " of " + size);
+        }
+        return moves[ply];
+    }
+
+    public Position getStart() {
+        return getPosition(0);
+    }
+
+    public Position getLast() {
+        return getPosition(size);
+    }
+
+    private void append(int move, Position next) {
+        if (size == moves.length) {
+            moves = Arrays.copyOf(moves, 2 * moves.length);
+            tokens = Arrays.copyOf(tokens, 2 * (moves.length + 1));
+        }
+        moves[size] = (byte) move;
+        size++;
+        tokens[2 * size] = next.getBits(Color.Black);
+        tokens[2 * size + 1] = next.getBits(Color.White);
+    }
+}
@@ -0,0 +1,489 @@
+package simpleothellonet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import simpleothellonet.ReversiBoard.Color;
+
+/**
+ * Append-only file of game records, written by a background thread so that
+ * the players never wait for the disk. The games are encoded by the calling
+ * thread, and queued; the writer thread gathers them in a buffer and writes it
+ * to the file channel when it is full or when the queue is empty.
+ *
+ * The file starts with a magic number and a version. Each game then takes
+ * about one byte per move:
+ * <ul>
+ * <li>the number of moves, passes included, on one byte;</li>
+ * <li>the identifiers of the black and white players, on one byte each;</li>
+ * <li>the result, the number of black tokens minus the number of white ones
+ * at the end of the game, on one byte;</li>
+ * <li>the moves, the cell of each one (see BitBoard), or 64 for a pass.</li>
+ * </ul>
+ * A game of 60 moves thus takes 64 bytes, and a hundred million games about
+ * 6.4 GB. The games start from the initial position.
+ *
+ * The file is read back with read, which returns the games one at a time
+ * without loading the whole file.
+ */
+public class GameLog implements Closeable {
+
+    private static final int MAGIC = 0x474c4f47;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * Size of the fixed part of a record, before the moves.
+     */
+    private static final int RECORD_HEADER_SIZE = 4;
+
+    /**
+     * Move byte of a pass.
+     */
+    private static final int PASS = 64;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Queued when the log is closed, to stop the writer thread once the games
+     * before it are written.
+     */
+    private static final byte[] END = new byte[0];
+
+    private final FileChannel channel;
+    private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    /**
+     * First error of the writer thread, or null.
+     */
+    private volatile IOException error = null;
+
+    private final AtomicLong loggedGames = new AtomicLong();
+    private volatile long writtenGames = 0;
+
+    /**
+     * A game read from a log.
+     */
+    public static class Record {
+
+        /**
+         * The identifier of the player with the black tokens.
+         */
+        public final int blackId;
+
+        /**
+         * The identifier of the player with the white tokens.
+         */
+        public final int whiteId;
+
+        /**
+         * The number of black tokens minus the number of white tokens at the
+         * end of the game.
+         */
+        public final int result;
+
+        private final byte[] moves;
+
+        Record(int blackId, int whiteId, int result, byte[] moves) {
+            this.blackId = blackId;
+            this.whiteId = whiteId;
+            this.result = result;
+            this.moves = moves;
+        }
+
+        /**
+         * Returns the number of moves of the game, including the passes.
+         *
+         * @return The number of moves.
+         */
+        public int getMoveCount() {
+            return moves.length;
+        }
+
+        /**
+         * Returns a move of the game.
+         *
+         * @param ply The index of the move, from 0.
+         * @return The cell (see BitBoard), or GameHistory.PASS.
+         */
+        public int getMove(int ply) {
+            return moves[ply] == PASS ? GameHistory.PASS : moves[ply];
+        }
+
+        /**
+         * Replays the game.
+         *
+         * @return The positions and moves of the game.
+         * @throws IllegalArgumentException If a move is not legal, the log
+         * being corrupted.
+         */
+        public GameHistory toHistory() {
+            GameHistory game = new GameHistory();
+            for (byte move : moves) {
+                if (move == PASS) {
+                    game.pass();
+                } else {
+                    game.play(move);
+                }
+            }
+            return game;
+        }
+
+        public Color getWinner() {
+            return result > 0 ? Color.Black : result < 0 ? Color.White : null;
+        }
+    }
+
+    /**
+     * Opens a log, creating the file if it does not exist, and starts its
+     * writer thread. The games are appended to the ones already in the file,
+     * after dropping a last game only partly written.
+     *
+     * @param path The file.
+     * @throws IOException If the file cannot be opened, or is not a game log.
+     */
+    public GameLog(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() == 0) {
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                writeFully(channel, header);
+            } else {
+                readHeader(channel, path);
+                // Drop a last game only partly written by a log that was not
+                // closed, otherwise the games appended after it are lost
+                channel.truncate(completeSize(channel));
+            }
+            channel.position(channel.size());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        thread = new Thread(this::run, "game-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a game to be written. Its positions are not kept, so it can be
+     * reused afterwards.
+     *
+     * @param game The game, from the initial position.
+     * @param blackId The identifier of the player with the black tokens, from
+     * 0 to 255.
+     * @param whiteId The identifier of the player with the white tokens, from
+     * 0 to 255.
+     * @throws IllegalArgumentException If the game does not start from the
+     * initial position, or an identifier is out of range.
+     * @throws IllegalStateException If the log is closed, or could not be
+     * written.
+     */
+    public void log(GameHistory game, int blackId, int whiteId) {
+        if (!game.getStart().equals(Position.initialPosition())) {
+            throw new IllegalArgumentException("The game does not start from the initial position");
+        }
+        if (blackId < 0 || blackId > 255 || whiteId < 0 || whiteId > 255) {
+            throw new IllegalArgumentException("Invalid player identifiers: " + blackId + ", " + whiteId);
+        }
+        if (error != null) {
+            throw new IllegalStateException("The game log could not be written", error);
+        }
+        Position last = game.getLast();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + game.size());
+        record.put((byte) game.size()).put((byte) blackId).put((byte) whiteId);
+        record.put((byte) (Long.bitCount(last.getBits(Color.Black))
+                - Long.bitCount(last.getBits(Color.White))));
+        for (int ply = 0; ply < game.size(); ++ply) {
+            int move = game.getMove(ply);
+            record.put((byte) (move == GameHistory.PASS ? PASS : move));
+        }
+        // Checked under the lock of close, so that no game is queued after END
+        synchronized (queue) {
+            if (closed) {
+                throw new IllegalStateException("The game log is closed");
+            }
+            queue.add(record.array());
+        }
+        loggedGames.incrementAndGet();
+    }
+
+    /**
+     * Writes the games still queued, and closes the file.
+     *
+     * @throws IOException If some games could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        boolean closing;
+        synchronized (queue) {
+            closing = !closed;
+            if (closing) {
+                closed = true;
+                queue.add(END);
+            }
+        }
+        if (closing) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Loop of the writer thread.
+     */
+    private void run() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long buffered = 0;
+        try {
+            while (true) {
+                byte[] record = queue.poll();
+                if (record == null) {
+                    // Nothing else to write for now
+                    writtenGames += flush(buffer, buffered);
+                    buffered = 0;
+                    record = queue.take();
+                }
+                if (record == END) {
+                    break;
+                }
+                if (buffer.remaining() < record.length) {
+                    writtenGames += flush(buffer, buffered);
+                    buffered = 0;
+                }
+                buffer.put(record);
+                buffered++;
+            }
+            writtenGames += flush(buffer, buffered);
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            // Not expected, the thread is stopped with END
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the content of the buffer to the file, and clears it.
+     *
+     * @param buffer The buffer, in write mode.
+     * @param games The number of games in the buffer.
+     * @return The number of games written.
+     * @throws IOException If the file cannot be written.
+     */
+    private long flush(ByteBuffer buffer, long games) throws IOException {
+        if (buffer.position() > 0) {
+            buffer.flip();
+            writeFully(channel, buffer);
+            buffer.clear();
+        }
+        return games;
+    }
+
+    /**
+     * Returns the number of games given to log.
+     *
+     * @return The number of games.
+     */
+    public long getLoggedGames() {
+        return loggedGames.get();
+    }
+
+    /**
+     * Returns the number of games written to the file.
+     *
+     * @return The number of games.
+     */
+    public long getWrittenGames() {
+        return writtenGames;
+    }
+
+    /**
+     * Returns the number of games waiting to be written.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Opens a log for reading. The games are read one at a time, through a
+     * buffer of BUFFER_SIZE bytes. A last game only partly written, by a log
+     * that was not closed, is ignored.
+     *
+     * @param path The file.
+     * @return The reader, to close once done.
+     * @throws IOException If the file cannot be opened, or is not a game log.
+     */
+    public static Reader read(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            readHeader(channel, path);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new Reader(channel);
+    }
+
+    /**
+     * Iterator over the games of a log file. Its methods throw an
+     * UncheckedIOException if the file cannot be read.
+     */
+    public static class Reader implements Iterator<Record>, Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private boolean endOfFile = false;
+        private Record next = null;
+
+        Reader(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = readRecord();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Record record = next;
+            next = null;
+            return record;
+        }
+
+        /**
+         * Decodes the next game.
+         *
+         * @return The game, or null at the end of the file.
+         */
+        private Record readRecord() {
+            if (!ensure(RECORD_HEADER_SIZE)) {
+                return null;
+            }
+            int start = buffer.position();
+            int moveCount = buffer.get(start) & 0xff;
+            int blackId = buffer.get(start + 1) & 0xff;
+            int whiteId = buffer.get(start + 2) & 0xff;
+            int result = buffer.get(start + 3);
+            if (!ensure(RECORD_HEADER_SIZE + moveCount)) {
+                return null;
+            }
+            // The record may have moved to the start of the buffer
+            byte[] moves = new byte[moveCount];
+            buffer.position(buffer.position() + RECORD_HEADER_SIZE);
+            buffer.get(moves);
+            return new Record(blackId, whiteId, result, moves);
+        }
+
+        /**
+         * Reads the file until the buffer holds at least the given number of
+         * bytes, or the whole rest of the file.
+         *
+         * @param size The number of bytes needed.
+         * @return True if they are in the buffer.
+         */
+        private boolean ensure(int size) {
+            if (buffer.remaining() >= size) {
+                return true;
+            }
+            if (endOfFile) {
+                return false;
+            }
+            try {
+                buffer.compact();
+                while (buffer.position() < size) {
+                    if (channel.read(buffer) < 0) {
+                        endOfFile = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return buffer.remaining() >= size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static void readHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Read until the header is complete or the file ends
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+                || header.getInt() != VERSION) {
+            throw new IOException("Not a game log file: " + path);
+        }
+        channel.position(HEADER_SIZE);
+    }
+
+    /**
+     * Returns the size of a log without its last game, if this one is only
+     * partly written.
+     *
+     * @param channel The file, positioned after the header.
+     * @return The end of the last complete game.
+     * @throws IOException If the file cannot be read.
+     */
+    private static long completeSize(FileChannel channel) throws IOException {
+        long size = HEADER_SIZE;
+        Reader reader = new Reader(channel);
+        try {
+            while (reader.hasNext()) {
+                size += RECORD_HEADER_SIZE + reader.next().getMoveCount();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return size;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package simpleothellonet;
+
+import java.util.Arrays;
+import simpleothellonet.ReversiBoard.Color;
+
+/**
+ * Network heuristic updating the first layer incrementally, in the manner of
+ * the "NNUE" evaluators of chess programs. A move only changes the placed
+ * cell and the flipped ones, so instead of computing the products of the 64
+ * cells with the first layer weights for every evaluation, the weighted sums
+ * of the first hidden layer are kept in an accumulator, and updated by adding
+ * the weight columns of the cells that changed.
+ *
+ * The network input depends on the color of the player, so one accumulator is
+ * kept for each color, and both are updated by each move. A stack of
+ * accumulators, one per ply, lets undoMove restore the previous ones for free.
+ *
+ * The accumulated sums are computed in another order than the one of
+ * MlpEvaluator, so the values may differ from it by rounding errors.
+ */
+public class IncrementalEvaluator implements IncrementalHeuristic {
+
+    /**
+     * Index of the states of a cell, from the point of view of a player.
+     */
+    private static final int OWN = 0;
+    private static final int OPPONENT = 1;
+    private static final int EMPTY = 2;
+
+    /**
+     * The network, used for the layers after the first one.
+     */
+    private final MlpEvaluator evaluator;
+
+    /**
+     * The kernels of the evaluator, used to update the accumulators.
+     */
+    private final Kernels kernels;
+
+    private final int inputPerCell;
+
+    private final int hiddenSize;
+
+    /**
+     * Weights of the first layer, transposed: the weights of input i are
+     * stored contiguously from i * hiddenSize.
+     */
+    private final double[] columns;
+
+    /**
+     * Input values of each cell state, for each of the inputPerCell inputs of
+     * the cell, as encoded by NeuralNetworkPlayer.
+     */
+    private final double[][] stateInputs;
+
+    /**
+     * Accumulators of each ply. The first hiddenSize values are the sums from
+     * the point of view of black, the next ones from the point of view of
+     * white.
+     */
+    private double[][] accumulators = new double[0][];
+
+    /**
+     * Zobrist hash of the board matching each accumulator, used to detect an
+     * evaluation of a board that is not the tracked one.
+     */
+    private long[] hashes = new long[0];
+
+    /**
+     * Index of the current accumulator.
+     */
+    private int top = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param evaluator The network, which must have at least one hidden
+     * layer. It is used by this heuristic only.
+     * @param inputPerCell The board encoding of the network, see
+     * NeuralNetworkPlayer.
+     */
+    public IncrementalEvaluator(MlpEvaluator evaluator, int inputPerCell) {
+        this.evaluator = evaluator;
+        kernels = evaluator.getKernels();
+        this.inputPerCell = inputPerCell;
+        int inputSize = evaluator.layerSizes[0];
+        hiddenSize = evaluator.layerSizes[1];
+        columns = new double[inputSize * hiddenSize];
+        double[] firstWeights = evaluator.weights[0];
+        for (int j = 0; j < hiddenSize; ++j) {
+            for (int i = 0; i < inputSize; ++i) {
+                columns[i * hiddenSize + j] = firstWeights[j * (inputSize + 1) + i];
+            }
+        }
+        stateInputs = encodings(inputPerCell);
+        ensureCapacity(1);
+    }
+
+    @Override
+    public void reset(ReversiBoard board) {
+        top = 0;
+        double[] accumulator = accumulators[0];
+        int inputSize = evaluator.layerSizes[0];
+        double[] firstWeights = evaluator.weights[0];
+        // Start from the biases
+        for (int j = 0; j < hiddenSize; ++j) {
+            double bias = firstWeights[j * (inputSize + 1) + inputSize];
+            accumulator[j] = bias;
+            accumulator[hiddenSize + j] = bias;
+        }
+        long black = board.getBits(Color.Black);
+        long white = board.getBits(Color.White);
+        for (int square = 0; square < NeuralNetworkPlayer.NUMBER_CELLS; ++square) {
+            long bit = 1L << square;
+            int blackState = (black & bit) != 0 ? OWN : (white & bit) != 0 ? OPPONENT : EMPTY;
+            int whiteState = blackState == EMPTY ? EMPTY : OWN + OPPONENT - blackState;
+            addCell(accumulator, 0, square, stateInputs[blackState], 1);
+            addCell(accumulator, hiddenSize, square, stateInputs[whiteState], 1);
+        }
+        hashes[0] = board.getHash();
+    }
+
+    @Override
+    public void makeMove(int square, long flipped, Color color) {
+        ensureCapacity(top + 2);
+        double[] accumulator = accumulators[top + 1];
+        System.arraycopy(accumulators[top], 0, accumulator, 0, 2 * hiddenSize);
+        int moverOffset = color == Color.Black ? 0 : hiddenSize;
+        int otherOffset = hiddenSize - moverOffset;
+
+        // The placed cell goes from empty to the mover
+        updateCell(accumulator, moverOffset, square, EMPTY, OWN);
+        updateCell(accumulator, otherOffset, square, EMPTY, OPPONENT);
+        // The flipped cells go from the other player to the mover
+        for (long bits = flipped; bits != 0; bits &= bits - 1) {
+            int flippedSquare = Long.numberOfTrailingZeros(bits);
+            updateCell(accumulator, moverOffset, flippedSquare, OPPONENT, OWN);
+            updateCell(accumulator, otherOffset, flippedSquare, OWN, OPPONENT);
+        }
+        hashes[top + 1] = hashes[top] ^ Zobrist.moveDelta(square, flipped, color);
+        top++;
+    }
+
+    @Override
+    public void undoMove() {
+        top--;
+    }
+
+    /**
+     * Evaluates the board for the player whose turn it is, from the current
+     * accumulator. If the board is not the one tracked by the accumulators,
+     * they are computed again from this board.
+     *
+     * @param node The board to evaluate.
+     * @return The value given by the network.
+     */
+    @Override
+    public double applyAsDouble(Node node) {
+        ReversiBoard board = (ReversiBoard) node;
+        if (board.getHash() != hashes[top]) {
+            reset(board);
+        }
+        int offset = board.getTurnColor() == Color.Black ? 0 : hiddenSize;
+        return evaluator.evaluateFromFirstLayer(accumulators[top], offset);
+    }
+
+    /**
+     * Applies the change of state of a cell to an accumulator.
+     *
+     * @param accumulator The accumulators of the ply.
+     * @param offset The offset of the accumulator of one color.
+     * @param square The cell.
+     * @param oldState The state of the cell before the move.
+     * @param newState The state of the cell after the move.
+     */
+    private void updateCell(double[] accumulator, int offset, int square, int oldState, int newState) {
+        addCell(accumulator, offset, square, stateInputs[newState], 1);
+        addCell(accumulator, offset, square, stateInputs[oldState], -1);
+    }
+
+    /**
+     * Adds the contribution of a cell to an accumulator.
+     *
+     * @param accumulator The accumulators of the ply.
+     * @param offset The offset of the accumulator of one color.
+     * @param square The cell.
+     * @param inputs The input values of the cell.
+     * @param sign 1 to add the contribution, -1 to remove it.
+     */
+    private void addCell(double[] accumulator, int offset, int square, double[] inputs, double sign) {
+        for (int u = 0; u < inputPerCell; ++u) {
+            double input = sign * inputs[u];
+            if (input == 0) {
+                continue;
+            }
+            kernels.axpy(input, columns, (square * inputPerCell + u) * hiddenSize,
+                    accumulator, offset, hiddenSize);
+        }
+    }
+
+    private void ensureCapacity(int plies) {
+        if (accumulators.length < plies) {
+            int oldLength = accumulators.length;
+            int newLength = Math.max(plies, 2 * oldLength);
+            accumulators = Arrays.copyOf(accumulators, newLength);
+            hashes = Arrays.copyOf(hashes, newLength);
+            for (int ply = oldLength; ply < newLength; ++ply) {
+                accumulators[ply] = new double[2 * hiddenSize];
+            }
+        }
+    }
+
+    /**
+     * Returns the input values of each cell state for a board encoding. They
+     * must match NeuralNetworkPlayer.writeInput.
+     *
+     * @param inputPerCell The board encoding.
+     * @return The input values, indexed by state then by input of the cell.
+     */
+    private static double[][] encodings(int inputPerCell) {
+        switch (inputPerCell) {
+            case 1:
+                return new double[][]{{1}, {-1}, {0}};
+            case 2:
+                return new double[][]{{1, -1}, {-1, 1}, {-1, -1}};
+            case 3:
+                return new double[][]{{1, -1, -1}, {-1, 1, -1}, {-1, -1, 1}};
+            default:
+                throw new IllegalArgumentException("Invalid encoding: " + inputPerCell);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package simpleothellonet;
+
+import java.util.function.ToDoubleFunction;
+import simpleothellonet.ReversiBoard.Color;
+
+/**
+ * Heuristic that keeps an internal state in sync with the searched board, so
+ * that each evaluation only needs to account for the moves played since the
+ * previous one. The in-place search of Minimax calls reset on the root, then
+ * makeMove and undoMove along with the moves it plays and takes back.
+ */
+public interface IncrementalHeuristic extends ToDoubleFunction<Node> {
+
+    /**
+     * Computes the state of the heuristic from scratch.
+     *
+     * @param board The board at the root of the search.
+     */
+    public void reset(ReversiBoard board);
+
+    /**
+     * Updates the state after a move.
+     *
+     * @param square The cell where the token was placed.
+     * @param flipped The tokens flipped by the move.
+     * @param color The color of the player who made the move.
+     */
+    public void makeMove(int square, long flipped, Color color);
+
+    /**
+     * Restores the state as it was before the last move.
+     */
+    public void undoMove();
+}
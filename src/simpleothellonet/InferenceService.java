@@ -0,0 +1,384 @@
+package simpleothellonet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Evaluates boards for many threads with a single network. The threads submit
+ * network inputs, which a dedicated thread gathers into batches and evaluates
+ * with MlpEvaluator.evaluateBatch, loading each row of weights once for the
+ * whole batch instead of once per board. The callers get the values through
+ * futures.
+ *
+ * A batch is evaluated as soon as it reaches the maximum batch size, or when
+ * the maximum wait has elapsed since its first input was taken. A longer wait
+ * gives larger batches, but delays the callers.
+ *
+ * The service keeps statistics of its queue, of the sizes of the batches and
+ * of the latency of the evaluations, from submission to completion.
+ */
+public class InferenceService {
+
+    /**
+     * Number of buckets of the latency histogram per power of two, so that
+     * percentiles are given within 1 / LATENCY_SUB_BUCKETS.
+     */
+    private static final int LATENCY_SUB_BUCKETS = 8;
+    private static final int LATENCY_SUB_BUCKET_BITS = 3;
+
+    private final MlpEvaluator evaluator;
+    private final int inputSize;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean stopped = false;
+
+    /**
+     * Buffers of the batches, used by the service thread only.
+     */
+    private final Request[] batch;
+    private final double[] batchInputs;
+    private final double[] batchValues;
+
+    /**
+     * Number of batches of each size, indexed by size.
+     */
+    private final AtomicLongArray batchSizes;
+
+    /**
+     * Number of evaluations whose latency falls in each bucket, see
+     * latencyBucket.
+     */
+    private final AtomicLongArray latencies = new AtomicLongArray(64 * LATENCY_SUB_BUCKETS);
+
+    private volatile int maxQueueDepth = 0;
+
+    /**
+     * A network input waiting to be evaluated.
+     */
+    private static class Request {
+
+        final double[] input;
+        final int offset;
+        final CompletableFuture<Double> future = new CompletableFuture<>();
+        final long submitTime = System.nanoTime();
+
+        Request(double[] input, int offset) {
+            this.input = input;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Creates the service and starts its thread.
+     *
+     * @param evaluator The network, used by the service thread only.
+     * @param maxBatchSize The maximum number of inputs of a batch.
+     * @param maxWaitMicros The maximum time to wait for more inputs once the
+     * first input of a batch is taken, in microseconds. With 0, a batch is
+     * made of the inputs already waiting.
+     */
+    public InferenceService(MlpEvaluator evaluator, int maxBatchSize, long maxWaitMicros) {
+        this.evaluator = evaluator;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWaitMicros * 1000;
+        inputSize = evaluator.getInputSize();
+        batch = new Request[maxBatchSize];
+        batchInputs = new double[maxBatchSize * inputSize];
+        batchValues = new double[maxBatchSize];
+        batchSizes = new AtomicLongArray(maxBatchSize + 1);
+        thread = new Thread(this::run, "inference");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Submits an input for evaluation.
+     *
+     * @param input The network input. It is read by the service thread, so
+     * it must not be modified until the future is completed.
+     * @return The future value of the network.
+     */
+    public CompletableFuture<Double> submit(double[] input) {
+        return submit(input, 0);
+    }
+
+    /**
+     * Submits an input stored in a larger array, such as the inputs of a
+     * BatchHeuristic.
+     *
+     * @param inputs The array holding the input, which must not be modified
+     * until the future is completed.
+     * @param offset The index of the input in the array.
+     * @return The future value of the network.
+     */
+    public CompletableFuture<Double> submit(double[] inputs, int offset) {
+        if (stopped) {
+            throw new IllegalStateException("The inference service is shut down");
+        }
+        Request request = new Request(inputs, offset);
+        queue.add(request);
+        if (stopped) {
+            // The service thread may have drained the queue between the
+            // check above and the add, and would then never see the request
+            request.future.completeExceptionally(
+                    new IllegalStateException("The inference service is shut down"));
+        }
+        return request.future;
+    }
+
+    /**
+     * Evaluates an input, waiting for the result.
+     *
+     * @param input The network input.
+     * @return The value of the network.
+     */
+    public double evaluate(double[] input) {
+        return submit(input).join();
+    }
+
+    /**
+     * Evaluates several inputs, waiting for all results. They are submitted
+     * together, so that they are usually evaluated in the same batch.
+     *
+     * @param inputs The inputs, one after the other.
+     * @param count The number of inputs.
+     * @param values Receives the value of each input.
+     */
+    public void evaluateAll(double[] inputs, int count, double[] values) {
+        List<CompletableFuture<Double>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            futures.add(submit(inputs, i * inputSize));
+        }
+        for (int i = 0; i < count; ++i) {
+            values[i] = futures.get(i).join();
+        }
+    }
+
+    /**
+     * Stops the service thread. The inputs still waiting are completed with
+     * an exception.
+     */
+    public void shutdown() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    /**
+     * Loop of the service thread.
+     */
+    private void run() {
+        try {
+            while (!stopped) {
+                batch[0] = queue.take();
+                int count = 1;
+                maxQueueDepth = Math.max(maxQueueDepth, queue.size() + 1);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (count < maxBatchSize) {
+                    Request request = queue.poll();
+                    if (request == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        request = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (request == null) {
+                            break;
+                        }
+                    }
+                    batch[count++] = request;
+                }
+                evaluateBatch(count);
+            }
+        } catch (InterruptedException ex) {
+            // Shut down, possibly in the middle of a batch
+            for (int i = 0; i < batch.length; ++i) {
+                if (batch[i] != null) {
+                    batch[i].future.completeExceptionally(
+                            new IllegalStateException("The inference service is shut down"));
+                    batch[i] = null;
+                }
+            }
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(
+                    new IllegalStateException("The inference service is shut down"));
+        }
+    }
+
+    /**
+     * Evaluates the first requests of batch, and completes their futures.
+     *
+     * @param count The number of requests.
+     */
+    private void evaluateBatch(int count) {
+        for (int i = 0; i < count; ++i) {
+            System.arraycopy(batch[i].input, batch[i].offset, batchInputs, i * inputSize,
+                    inputSize);
+        }
+        try {
+            evaluator.evaluateBatch(batchInputs, count, batchValues);
+        } catch (RuntimeException ex) {
+            for (int i = 0; i < count; ++i) {
+                batch[i].future.completeExceptionally(ex);
+                batch[i] = null;
+            }
+            return;
+        }
+        batchSizes.incrementAndGet(count);
+        long now = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+            latencies.incrementAndGet(latencyBucket(now - batch[i].submitTime));
+            batch[i].future.complete(batchValues[i]);
+            batch[i] = null;
+        }
+    }
+
+    /**
+     * Returns the bucket of the latency histogram of a duration. The buckets
+     * split each power of two in LATENCY_SUB_BUCKETS equal parts.
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The index of the bucket.
+     */
+    private static int latencyBucket(long nanos) {
+        if (nanos < LATENCY_SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - LATENCY_SUB_BUCKET_BITS))
+                & (LATENCY_SUB_BUCKETS - 1);
+        return (exponent - LATENCY_SUB_BUCKET_BITS + 1) * LATENCY_SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest duration of a bucket of the latency histogram.
+     *
+     * @param bucket The index of the bucket.
+     * @return The duration in nanoseconds.
+     */
+    private static long latencyBucketEnd(int bucket) {
+        if (bucket < LATENCY_SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / LATENCY_SUB_BUCKETS + LATENCY_SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % LATENCY_SUB_BUCKETS;
+        return ((LATENCY_SUB_BUCKETS + subBucket + 1) << (exponent - LATENCY_SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Returns a percentile of the latency of the evaluations, from their
+     * submission to their completion.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The latency in microseconds, or 0 if nothing was evaluated.
+     */
+    public double getLatencyPercentile(double percentile) {
+        long total = getEvaluationCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < latencies.length(); ++bucket) {
+            seen += latencies.get(bucket);
+            if (seen >= Math.max(1, rank)) {
+                return latencyBucketEnd(bucket) / 1e3;
+            }
+        }
+        return latencyBucketEnd(latencies.length() - 1) / 1e3;
+    }
+
+    /**
+     * Returns the number of batches of each size.
+     *
+     * @return The numbers, indexed by batch size, from 0 to the maximum batch
+     * size.
+     */
+    public long[] getBatchSizeHistogram() {
+        long[] histogram = new long[batchSizes.length()];
+        for (int size = 0; size < histogram.length; ++size) {
+            histogram[size] = batchSizes.get(size);
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the number of inputs evaluated since the last reset.
+     *
+     * @return The number of evaluations.
+     */
+    public long getEvaluationCount() {
+        long count = 0;
+        for (int size = 1; size < batchSizes.length(); ++size) {
+            count += size * batchSizes.get(size);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the mean size of the batches since the last reset.
+     *
+     * @return The mean batch size, or 0 if nothing was evaluated.
+     */
+    public double getMeanBatchSize() {
+        long batches = 0;
+        for (int size = 1; size < batchSizes.length(); ++size) {
+            batches += batchSizes.get(size);
+        }
+        return batches == 0 ? 0 : (double) getEvaluationCount() / batches;
+    }
+
+    /**
+     * Returns the number of inputs waiting to be evaluated.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the largest number of inputs seen waiting at the start of a
+     * batch since the last reset.
+     *
+     * @return The maximum queue depth.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Clears the statistics, for instance after a warm up.
+     */
+    public void resetStatistics() {
+        for (int size = 0; size < batchSizes.length(); ++size) {
+            batchSizes.set(size, 0);
+        }
+        for (int bucket = 0; bucket < latencies.length(); ++bucket) {
+            latencies.set(bucket, 0);
+        }
+        maxQueueDepth = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "evaluations %d, mean batch %.1f, max queue %d,"
+                + " latency p50 %.0fus p90 %.0fus p99 %.0fus", getEvaluationCount(),
+                getMeanBatchSize(), getMaxQueueDepth(), getLatencyPercentile(50),
+                getLatencyPercentile(90), getLatencyPercentile(99));
+    }
+}
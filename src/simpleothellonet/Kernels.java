@@ -0,0 +1,150 @@
+package simpleothellonet;
+
+/**
+ * Numerical kernels of the network computations: dot products of weight
+ * rows, weight updates and the tanh transfer function. Two implementations
+ * exist: ScalarKernels, plain Java loops computing exactly what Neuroph
+ * computes, and VectorKernels, using the SIMD instructions of the processor
+ * through the jdk.incubator.vector module.
+ *
+ * The vector kernels are in the optional source root src-vector. They are
+ * used by default when they were compiled and the module is available, that
+ * is when the program runs on Java 16 or later with
+ * --add-modules jdk.incubator.vector. They sum in another order and compute
+ * the exponential with another algorithm, so their results differ from the
+ * ones of Neuroph by rounding errors. Setting the system property
+ * simpleothellonet.scalarKernels to true forces the scalar kernels.
+ */
+public abstract class Kernels {
+
+    private static final Kernels SCALAR = new ScalarKernels();
+
+    private static final Kernels DEFAULT = select();
+
+    /**
+     * Returns the kernels used by the network computations.
+     *
+     * @return The vector kernels if they are available and not disabled, or
+     * else the scalar ones.
+     */
+    public static Kernels getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the scalar kernels, which give the same results as Neuroph.
+     *
+     * @return The scalar kernels.
+     */
+    public static Kernels scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * Returns the vector kernels, if the jdk.incubator.vector module is
+     * available.
+     *
+     * @return The vector kernels, or null.
+     */
+    public static Kernels vector() {
+        try {
+            // Loaded by name, so that this class does not depend on the module
+            return (Kernels) Class.forName("simpleothellonet.VectorKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static Kernels select() {
+        if (Boolean.getBoolean("simpleothellonet.scalarKernels")) {
+            return SCALAR;
+        }
+        Kernels vector = vector();
+        return vector != null ? vector : SCALAR;
+    }
+
+    /**
+     * Returns the name of the implementation, for benchmarks.
+     *
+     * @return The name.
+     */
+    public abstract String getName();
+
+    /**
+     * Computes a dot product.
+     *
+     * @param x The first vector.
+     * @param xOffset The index of the first value of x.
+     * @param y The second vector.
+     * @param yOffset The index of the first value of y.
+     * @param length The number of values.
+     * @return The dot product.
+     */
+    public abstract double dot(double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    /**
+     * Computes the dot products of a vector with consecutive rows of a
+     * matrix, as a dense layer does.
+     *
+     * @param x The vector.
+     * @param xOffset The index of the first value of x.
+     * @param matrix The matrix, stored row by row.
+     * @param matrixOffset The index of the first value of the first row.
+     * @param rowLength The distance between two rows in matrix.
+     * @param rows The number of rows.
+     * @param length The number of values of each product.
+     * @param result Receives the dot products.
+     * @param resultOffset The index of the first dot product in result.
+     */
+    public abstract void dotRows(double[] x, int xOffset, double[] matrix, int matrixOffset,
+            int rowLength, int rows, int length, double[] result, int resultOffset);
+
+    /**
+     * Computes the dot products of several vectors with consecutive rows of a
+     * matrix, as a dense layer does for a batch of inputs. Each product is
+     * rounded as the one computed by dotRows.
+     *
+     * @param x The vectors, one after the other.
+     * @param xOffset The index of the first value of the first vector.
+     * @param xStride The distance between two vectors in x.
+     * @param count The number of vectors.
+     * @param matrix The matrix, stored row by row.
+     * @param matrixOffset The index of the first value of the first row.
+     * @param rowLength The distance between two rows in matrix.
+     * @param rows The number of rows.
+     * @param length The number of values of each product.
+     * @param result Receives the dot products, the ones of each vector being
+     * consecutive.
+     * @param resultOffset The index of the first dot product in result.
+     * @param resultStride The distance between the products of two vectors in
+     * result.
+     */
+    public abstract void dotRowsBatch(double[] x, int xOffset, int xStride, int count,
+            double[] matrix, int matrixOffset, int rowLength, int rows, int length,
+            double[] result, int resultOffset, int resultStride);
+
+    /**
+     * Adds a multiple of a vector to another one, as a weight update does.
+     *
+     * @param alpha The factor of x.
+     * @param x The vector to add.
+     * @param xOffset The index of the first value of x.
+     * @param y The vector receiving the sum.
+     * @param yOffset The index of the first value of y.
+     * @param length The number of values.
+     */
+    public abstract void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset,
+            int length);
+
+    /**
+     * Applies the tanh transfer function of Neuroph in place, to weighted sums
+     * of neurons.
+     *
+     * @param values The weighted sums, replaced by the outputs.
+     * @param offset The index of the first value.
+     * @param length The number of values.
+     * @param slope The slope parameter of the transfer function.
+     */
+    public abstract void tanh(double[] values, int offset, int length, double slope);
+}
@@ -0,0 +1,31 @@
+package simpleothellonet;
+
+/**
+ * Interface for the players learning from the games they play, which can be
+ * trained by NetworkTrainer.
+ */
+public interface LearningPlayer extends ReversiPlayer {
+
+    /**
+     * Starts a new learning session, along which the exploration decreases.
+     *
+     * @param numberLearningGames The number of games of the session.
+     */
+    public void startLearningSession(int numberLearningGames);
+
+    /**
+     * Enables or disables learning and exploration in the next games.
+     *
+     * @param learnFromGame True if the player should learn.
+     */
+    public void setLearnFromGame(boolean learnFromGame);
+
+    /**
+     * Creates a player playing like this one, without learning nor
+     * exploration. It can be used by another thread than this player, as
+     * long as this player does not learn meanwhile.
+     *
+     * @return The copy.
+     */
+    public ReversiPlayer copyForPlay();
+}
@@ -38,9 +38,23 @@ public class Main {
         NeuralNetworkPlayer network1 = new NeuralNetworkPlayer(transferFunction, inputPerCell, hiddenLayerSizes, learningRate);
         NeuralNetworkPlayer network2 = new NeuralNetworkPlayer(transferFunction, inputPerCell, hiddenLayerSizes, learningRate);
        
+        // Uncomment to train on flat arrays rather than with Neuroph
+        //network1.setFastTraining(true);
+        //network2.setFastTraining(true);
+        // and to learn by mini-batches of boards
+        //network1.setMiniBatchSize(32);
+        //network2.setMiniBatchSize(32);
+
+        // Uncomment to learn again from past moves, drawn from a replay buffer
+        //network1.setReplayBuffer(new ReplayBuffer(1 << 20), 4, true);
+
         // If the networks are already trained and saved to a file, reload them with
         //NeuralNetworkPlayer network1 = new NeuralNetworkPlayer(networkFilename1);
         //NeuralNetworkPlayer network2 = new NeuralNetworkPlayer(networkFilename1);
+        // Or train n-tuple players, faster to evaluate, with
+        //NTuplePlayer network1 = new NTuplePlayer(0.5);
+        //NTuplePlayer network2 = new NTuplePlayer(0.5);
+        // and save them with network1.getEvaluator().save(Paths.get("othello_1.ntuple"))
         
         NetworkTrainer trainer = new NetworkTrainer(
                 numberEpoch,
@@ -50,16 +64,39 @@ public class Main {
                 network1,
                 network2);
         
+        // Uncomment to play the testing games on all cores
+        //trainer.setMatchRunner(new MatchRunner(Runtime.getRuntime().availableProcessors()),
+        //        () -> new MinimaxPlayer(3, MinimaxPlayer::binkleyHeuristic));
+
+        // Uncomment to record the games in a binary log, read back with GameLog.read
+        //GameLog gameLog = new GameLog(Paths.get("othello_games.log"));
+        //trainer.setGameLog(gameLog);
+        // and call gameLog.close() once the training is over
+
         System.out.println("Start training...");
         trainer.train();
+        // Or play the learning games on several threads with
+        //trainer.trainParallel(Runtime.getRuntime().availableProcessors() - 1);
         
         // Save them to a file for later reuse
         network1.saveNetworkToFile(networkFilename1);
         network2.saveNetworkToFile(networkFilename2);
-        
+        // Also export them on 8 or 16 bits integers, to play faster (see
+        // "NetworkBenchmark quantized" for the loss of accuracy)
+        //network1.quantize(8).save(Paths.get("othello_1.q8"));
+        //NeuralNetworkPlayer quantized1 = new NeuralNetworkPlayer(QuantizedEvaluator.load(Paths.get("othello_1.q8")));
+
         // Test the performance against different opponents
         //trainer.test();
         
+        // Or search with the network as value function of a Monte Carlo Tree Search
+        //MctsPlayer mcts = new MctsPlayer(network1::createHeuristic, 2000);
+        //mcts.setSearchThreads(Runtime.getRuntime().availableProcessors());
+
+        // Play the first moves from an opening book, built with OpeningBook.Builder
+        // (see SearchBenchmark.openingBook) and loaded with
+        //network1.setOpeningBook(OpeningBook.open(Paths.get("othello.book")));
+
         // Play against the user
         //ReversiGame.playGame(network1, new UserPlayer());
         
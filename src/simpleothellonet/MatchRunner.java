@@ -0,0 +1,233 @@
+package simpleothellonet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import simpleothellonet.ReversiBoard.Color;
+
+/**
+ * Plays matches of games without learning on several threads. Players are not
+ * thread-safe, so each worker creates its own pair of players, and plays its
+ * share of the games with them. As in NetworkTrainer.runGames, the first
+ * player plays black in the even games and white in the odd ones, and draws
+ * count as lost games in the winning rate.
+ */
+public class MatchRunner {
+
+    /**
+     * Quantile of the normal distribution for 95% confidence intervals.
+     */
+    private static final double Z_95 = 1.96;
+
+    private final int threadCount;
+
+    private final ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param threadCount The number of worker threads.
+     */
+    public MatchRunner(int threadCount) {
+        this.threadCount = threadCount;
+        executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "match-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Plays a match between two players.
+     *
+     * @param firstPlayer Creates the instances of the first player, one per
+     * worker. It is called from the worker threads.
+     * @param secondPlayer Creates the instances of the second player.
+     * @param games The number of games to play.
+     * @return The results of the first player.
+     * @throws IllegalArgumentException If the number of games is not
+     * positive.
+     */
+    public Result play(Supplier<? extends ReversiPlayer> firstPlayer,
+            Supplier<? extends ReversiPlayer> secondPlayer, int games) {
+        return play(firstPlayer, secondPlayer, games, null, 0, 0);
+    }
+
+    /**
+     * Plays a match between two players, and records its games in a log.
+     *
+     * @param firstPlayer Creates the instances of the first player, one per
+     * worker. It is called from the worker threads.
+     * @param secondPlayer Creates the instances of the second player.
+     * @param games The number of games to play.
+     * @param gameLog The log of the games, or null to log nothing.
+     * @param firstId The identifier of the first player in the log.
+     * @param secondId The identifier of the second player in the log.
+     * @return The results of the first player.
+     * @throws IllegalArgumentException If the number of games is not
+     * positive.
+     */
+    public Result play(Supplier<? extends ReversiPlayer> firstPlayer,
+            Supplier<? extends ReversiPlayer> secondPlayer, int games, GameLog gameLog,
+            int firstId, int secondId) {
+        if (games <= 0) {
+            throw new IllegalArgumentException("Invalid number of games: " + games);
+        }
+        int workerCount = Math.min(threadCount, games);
+        List<Future<Result>> futures = new ArrayList<>(workerCount);
+        for (int worker = 0; worker < workerCount; ++worker) {
+            int firstGame = worker;
+            futures.add(executor.submit(() -> playGames(firstPlayer.get(),
+                    secondPlayer.get(), firstGame, workerCount, games, gameLog,
+                    firstId, secondId)));
+        }
+
+        int wins = 0;
+        int draws = 0;
+        int losses = 0;
+        try {
+            for (Future<Result> future : futures) {
+                Result result = future.get();
+                wins += result.wins;
+                draws += result.draws;
+                losses += result.losses;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted match", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Match worker failed", e.getCause());
+        }
+        return new Result(wins, draws, losses);
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Plays the games of a worker: the ones from firstGame, every step games.
+     *
+     * @param firstPlayer The first player.
+     * @param secondPlayer The second player.
+     * @param firstGame The index of the first game of the worker.
+     * @param step The number of workers.
+     * @param games The total number of games.
+     * @param gameLog The log of the games, or null.
+     * @param firstId The identifier of the first player in the log.
+     * @param secondId The identifier of the second player in the log.
+     * @return The results of the first player in these games.
+     */
+    private static Result playGames(ReversiPlayer firstPlayer, ReversiPlayer secondPlayer,
+            int firstGame, int step, int games, GameLog gameLog, int firstId, int secondId) {
+        ReversiPlayer[] players = {firstPlayer, secondPlayer};
+        int[] ids = {firstId, secondId};
+        int wins = 0;
+        int draws = 0;
+        int losses = 0;
+        for (int count = firstGame; count < games; count += step) {
+            GameHistory game = GameHistory.playGame(players[count % 2], players[(count + 1) % 2]);
+            if (gameLog != null) {
+                gameLog.log(game, ids[count % 2], ids[(count + 1) % 2]);
+            }
+            ReversiBoard lastBoard = game.getLast().toBoard();
+            Color firstColor = count % 2 == 0 ? Color.Black : Color.White;
+            Color winner = lastBoard.getWinner();
+            if (winner == firstColor) {
+                wins++;
+            } else if (winner == null) {
+                draws++;
+            } else {
+                losses++;
+            }
+        }
+        return new Result(wins, draws, losses);
+    }
+
+    /**
+     * Results of a match, for the first player.
+     */
+    public static class Result {
+
+        public final int wins;
+        public final int draws;
+        public final int losses;
+
+        public Result(int wins, int draws, int losses) {
+            this.wins = wins;
+            this.draws = draws;
+            this.losses = losses;
+        }
+
+        public int getGames() {
+            return wins + draws + losses;
+        }
+
+        /**
+         * Returns the winning rate, draws counting as lost games as in
+         * NetworkTrainer.runGames.
+         *
+         * @return The winning rate.
+         */
+        public double getWinRate() {
+            return (double) wins / getGames();
+        }
+
+        /**
+         * Returns the lower bound of the 95% Wilson score interval of the
+         * winning rate.
+         *
+         * @return The lower bound.
+         */
+        public double getLowerBound() {
+            return wilsonCenter() - wilsonHalfWidth();
+        }
+
+        /**
+         * Returns the upper bound of the 95% Wilson score interval of the
+         * winning rate.
+         *
+         * @return The upper bound.
+         */
+        public double getUpperBound() {
+            return wilsonCenter() + wilsonHalfWidth();
+        }
+
+        private double wilsonCenter() {
+            double n = getGames();
+            return (getWinRate() + Z_95 * Z_95 / (2 * n)) / (1 + Z_95 * Z_95 / n);
+        }
+
+        private double wilsonHalfWidth() {
+            double n = getGames();
+            double p = getWinRate();
+            return Z_95 * Math.sqrt(p * (1 - p) / n + Z_95 * Z_95 / (4 * n * n))
+                    / (1 + Z_95 * Z_95 / n);
+        }
+
+        /**
+         * Formats the winning rate followed by the bounds of its confidence
+         * interval, separated by spaces like the other columns printed by
+         * NetworkTrainer.
+         *
+         * @return The formatted results.
+         */
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%.3f %.3f %.3f", getWinRate(), getLowerBound(),
+                    getUpperBound());
+        }
+    }
+}
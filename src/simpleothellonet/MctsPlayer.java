@@ -0,0 +1,846 @@
+package simpleothellonet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import simpleothellonet.ReversiBoard.Color;
+
+/**
+ * Implementation of ReversiPlayer, using Monte Carlo Tree Search guided by a
+ * value function, typically the heuristic of a trained network given by
+ * NeuralNetworkPlayer.createHeuristic.
+ *
+ * Each playout descends the tree from the root, choosing at each node the
+ * child maximising the PUCT score: its mean value plus an exploration bonus
+ * proportional to its prior, and decreasing with its number of visits. The
+ * reached leaf is expanded: all its children are evaluated with the value
+ * function, which gives their prior (the softmax of the values) and their
+ * initial value. The value of the leaf, from the point of view of the player
+ * who moved to it, is the opposite of the value of its best child, optionally
+ * mixed with the outcome of a fast rollout to the end of the game. It is then
+ * backed up along the path, its sign changing at each ply.
+ *
+ * The nodes are stored in parallel arrays rather than one object each. The
+ * search runs on several threads sharing the tree, each with its own instance
+ * of the value function. A thread descending through a node adds a virtual
+ * loss to it until the playout is backed up, so that the other threads
+ * explore other paths meanwhile. After each move, the part of the tree below
+ * the new position is kept for the next search.
+ */
+public class MctsPlayer implements ReversiPlayer {
+
+    /**
+     * Move of the nodes reached by a pass.
+     */
+    private static final int PASS = 64;
+
+    /**
+     * Fixed point unit of the sums of values, which are updated atomically as
+     * longs.
+     */
+    private static final double VALUE_ONE = 1 << 24;
+
+    /**
+     * States of the nodes. A node is expanded by a single thread, which marks
+     * it as expanding meanwhile.
+     */
+    private static final int UNEXPANDED = 0;
+    private static final int EXPANDING = 1;
+    private static final int EXPANDED = 2;
+
+    /**
+     * Longest path of a playout: 60 moves, and a pass at most before each.
+     */
+    private static final int MAX_PLIES = 128;
+
+    private static final int DEFAULT_MAX_NODES = 1 << 20;
+
+    /**
+     * Smallest capacity of the tree: the root and its children, so that the
+     * root can always be expanded.
+     */
+    private static final int MIN_NODES = 1 + BatchHeuristic.MAX_BATCH_SIZE;
+
+    /**
+     * Nodes reserved per playout of the budget. A playout expands at most one
+     * leaf, which has about ten children in the middle game; the margin
+     * leaves room for the subtree kept from the previous move.
+     */
+    private static final int NODES_PER_PLAYOUT = 32;
+
+    private static final long CORNERS = 0x8100000000000081L;
+
+    /**
+     * Cells next to the corners, avoided by the rollouts.
+     */
+    private static final long X_AND_C_SQUARES = 0x42c300000000c342L;
+
+    /**
+     * Creates the value function of each search thread. A value function
+     * evaluates a board for the player whose turn it is, as the heuristics of
+     * MinimaxPlayer do.
+     */
+    private final Supplier<? extends ToDoubleFunction<Node>> heuristicFactory;
+
+    /**
+     * Number of playouts of each move. When a move time is set, this is the
+     * maximum number of playouts.
+     */
+    private final int playouts;
+
+    /**
+     * Time budget of each move in milliseconds, or 0 to always run all
+     * playouts.
+     */
+    private long moveTimeMillis = 0;
+
+    private double explorationConstant = 1.5;
+    private double priorTemperature = 0.25;
+    private double valueScale = 0;
+    private double rolloutWeight = 0;
+    private boolean reuseTree = true;
+    private int maxNodes = DEFAULT_MAX_NODES;
+
+    /**
+     * Tree of the current search, and the arrays into which the kept part of
+     * the tree is copied after a move.
+     */
+    private Arena arena = null;
+    private Arena spareArena = null;
+
+    /**
+     * Old index of each node copied by keepSubtree.
+     */
+    private int[] copiedNodes = null;
+
+    /**
+     * Color of the player to move at the root.
+     */
+    private Color rootColor;
+
+    /**
+     * One worker per search thread. The first one runs on the thread calling
+     * playTurn, and the other ones on the executor.
+     */
+    private Worker[] workers;
+    private ExecutorService executor = null;
+
+    /**
+     * Number of playouts started by the current search.
+     */
+    private final AtomicInteger startedPlayouts = new AtomicInteger();
+
+    /**
+     * Time, as given by System.nanoTime, at which the current search must
+     * stop, or 0 if there is no time limit.
+     */
+    private long deadline = 0;
+
+    private int lastPlayouts = 0;
+    private int lastReusedPlayouts = 0;
+    private double lastPlayoutsPerSecond = 0;
+
+    /**
+     * Creates a player searching on a single thread.
+     *
+     * @param heuristicFactory Creates the value function of each search
+     * thread, for instance network::createHeuristic. It is called again when
+     * the number of threads changes.
+     * @param playouts The number of playouts of each move.
+     */
+    public MctsPlayer(Supplier<? extends ToDoubleFunction<Node>> heuristicFactory,
+            int playouts) {
+        this.heuristicFactory = heuristicFactory;
+        this.playouts = playouts;
+        setSearchThreads(1);
+    }
+
+    @Override
+    public ReversiBoard playTurn(ReversiBoard board) {
+        long start = System.nanoTime();
+        if (board.getMoves() == 0) {
+            return null;
+        }
+        if (arena == null) {
+            int capacity = (int) Math.min(maxNodes,
+                    Math.max(MIN_NODES, 1 + (long) playouts * NODES_PER_PLAYOUT));
+            arena = new Arena(capacity);
+            spareArena = new Arena(capacity);
+            copiedNodes = new int[capacity];
+        }
+        rootColor = board.getTurnColor();
+        setRoot(board.getPlayerBits(), board.getOpponentBits());
+        lastReusedPlayouts = arena.visits.get(0);
+
+        startedPlayouts.set(0);
+        deadline = moveTimeMillis > 0 ? start + moveTimeMillis * 1000000 : 0;
+        search();
+        deadline = 0;
+        // The first playouts expand the root, so that there is always a move
+        // to play
+        while (arena.state.get(0) != EXPANDED) {
+            workers[0].playout();
+            workers[0].playoutCount++;
+        }
+
+        int move = bestMove();
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        lastPlayouts = 0;
+        for (Worker worker : workers) {
+            lastPlayouts += worker.playoutCount;
+        }
+        lastPlayoutsPerSecond = lastPlayouts * 1e9 / elapsed;
+
+        ReversiBoard result = new ReversiBoard(board);
+        result.makeMove(move);
+        return result;
+    }
+
+    @Override
+    public void onGameOver(ReversiBoard board, Color ourColor) {
+        if (arena != null) {
+            arena.clear();
+        }
+    }
+
+    /**
+     * Runs the playouts on all threads, until the budget is spent.
+     */
+    private void search() {
+        List<Future<?>> futures = new ArrayList<>(workers.length - 1);
+        for (int i = 1; i < workers.length; ++i) {
+            futures.add(executor.submit(workers[i]));
+        }
+        workers[0].run();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * Makes the node of the given position the root of the tree, keeping its
+     * subtree if the position was reached by the previous search, or starting
+     * a new tree otherwise.
+     *
+     * @param player The tokens of the player to move.
+     * @param opponent The tokens of the opponent.
+     */
+    private void setRoot(long player, long opponent) {
+        int node = -1;
+        if (reuseTree && arena.size() > 0) {
+            // Our move and the answer of the opponent, with a pass of either
+            node = findNode(0, player, opponent, 3);
+        }
+        if (node < 0) {
+            arena.clear();
+            arena.allocate(1);
+            arena.init(0, player, opponent, PASS);
+            arena.prior[0] = 1;
+            arena.initialValue[0] = 0;
+        } else if (node > 0) {
+            keepSubtree(node);
+        }
+    }
+
+    /**
+     * Looks for the node of a position among the first plies of the tree.
+     *
+     * @param node The node where the search starts.
+     * @param player The tokens of the player to move in the position.
+     * @param opponent The tokens of the opponent.
+     * @param depth The number of plies to search below the node.
+     * @return The index of the node, or -1 if it is not found.
+     */
+    private int findNode(int node, long player, long opponent, int depth) {
+        if (arena.player[node] == player && arena.opponent[node] == opponent) {
+            return node;
+        }
+        if (depth == 0 || arena.state.get(node) != EXPANDED) {
+            return -1;
+        }
+        int first = arena.firstChild[node];
+        for (int child = first; child < first + arena.childCount[node]; ++child) {
+            int found = findNode(child, player, opponent, depth - 1);
+            if (found >= 0) {
+                return found;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the subtree of a node to the spare arena, with the node as root,
+     * and makes it the current tree. The nodes are copied in breadth-first
+     * order, so that the children of each node stay contiguous.
+     *
+     * @param root The index of the new root in the current arena.
+     */
+    private void keepSubtree(int root) {
+        Arena source = arena;
+        Arena target = spareArena;
+        target.clear();
+        target.allocate(1);
+        copiedNodes[0] = root;
+        for (int node = 0; node < target.size(); ++node) {
+            int old = copiedNodes[node];
+            target.init(node, source.player[old], source.opponent[old], source.move[old]);
+            target.prior[node] = source.prior[old];
+            target.initialValue[node] = source.initialValue[old];
+            target.visits.set(node, source.visits.get(old));
+            target.valueSums.set(node, source.valueSums.get(old));
+            if (source.state.get(old) == EXPANDED) {
+                int count = source.childCount[old];
+                int first = target.allocate(count);
+                for (int i = 0; i < count; ++i) {
+                    copiedNodes[first + i] = source.firstChild[old] + i;
+                }
+                target.firstChild[node] = first;
+                target.childCount[node] = (byte) count;
+                target.state.set(node, EXPANDED);
+            }
+        }
+        arena = target;
+        spareArena = source;
+    }
+
+    /**
+     * Chooses the move to play: the most visited child of the root, the one
+     * with the best mean value in case of equality.
+     *
+     * @return The cell of the move.
+     */
+    private int bestMove() {
+        int first = arena.firstChild[0];
+        int best = first;
+        for (int child = first + 1; child < first + arena.childCount[0]; ++child) {
+            int visits = arena.visits.get(child);
+            int bestVisits = arena.visits.get(best);
+            if (visits > bestVisits || (visits == bestVisits
+                    && arena.valueSums.get(child) > arena.valueSums.get(best))) {
+                best = child;
+            }
+        }
+        return arena.move[best];
+    }
+
+    /**
+     * Sets the number of threads of the search. Each thread gets its own
+     * value function from the factory.
+     *
+     * @param threadCount The number of threads, including the calling one.
+     */
+    public void setSearchThreads(int threadCount) {
+        shutdown();
+        workers = new Worker[Math.max(1, threadCount)];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = new Worker(heuristicFactory.get());
+        }
+        if (workers.length > 1) {
+            executor = Executors.newFixedThreadPool(workers.length - 1, runnable -> {
+                Thread thread = new Thread(runnable, "mcts-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Stops the search threads. The player can still be used, on the calling
+     * thread only, until setSearchThreads is called again.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            workers = new Worker[]{workers[0]};
+        }
+    }
+
+    /**
+     * Sets a time budget for each move. The player then plays the best move
+     * found in time, or after the maximum number of playouts.
+     *
+     * @param moveTimeMillis The time budget in milliseconds, or 0 to always
+     * run all playouts.
+     */
+    public void setMoveTime(long moveTimeMillis) {
+        this.moveTimeMillis = moveTimeMillis;
+    }
+
+    /**
+     * Sets the weight of the exploration bonus in the PUCT score.
+     *
+     * @param explorationConstant The weight, 1.5 by default.
+     */
+    public void setExplorationConstant(double explorationConstant) {
+        this.explorationConstant = explorationConstant;
+    }
+
+    /**
+     * Sets the temperature of the softmax giving the priors of the children
+     * from their values. A low temperature focuses the search on the children
+     * with the best values.
+     *
+     * @param priorTemperature The temperature, 0.25 by default.
+     */
+    public void setPriorTemperature(double priorTemperature) {
+        this.priorTemperature = priorTemperature;
+    }
+
+    /**
+     * Sets the scale of the values given by the value function. The search
+     * expects values between -1 and 1, like the ones of a network, so the
+     * values of other heuristics are divided by the scale and squashed by a
+     * tanh.
+     *
+     * @param valueScale The scale, or 0 to use the values as is, clipped to
+     * [-1, 1].
+     */
+    public void setValueScale(double valueScale) {
+        this.valueScale = valueScale;
+    }
+
+    /**
+     * Sets the weight of the rollouts in the values of the leaves. A rollout
+     * plays fast moves to the end of the game from the leaf: a corner when
+     * possible, otherwise a random move avoiding the cells next to the
+     * corners.
+     *
+     * @param rolloutWeight The weight of the outcome of the rollout, between
+     * 0 (no rollouts, the default) and 1 (no value function for the leaves).
+     */
+    public void setRolloutWeight(double rolloutWeight) {
+        this.rolloutWeight = rolloutWeight;
+    }
+
+    /**
+     * Enables or disables the reuse of the tree from one move to the next.
+     *
+     * @param reuseTree True to keep the subtree of the new position.
+     */
+    public void setReuseTree(boolean reuseTree) {
+        this.reuseTree = reuseTree;
+    }
+
+    /**
+     * Sets the maximum capacity of the tree. Once it is full, the playouts no
+     * longer expand their leaves. The tree is sized from the number of
+     * playouts, NODES_PER_PLAYOUT nodes each, within this maximum. Two arrays
+     * of this size are allocated, of about 50 bytes per node each.
+     *
+     * @param maxNodes The maximum number of nodes.
+     * @throws IllegalArgumentException If the root and its children might not
+     * fit in the tree.
+     */
+    public void setMaxNodes(int maxNodes) {
+        if (maxNodes < MIN_NODES) {
+            throw new IllegalArgumentException("At least " + MIN_NODES + " nodes are needed: "
+                    + maxNodes);
+        }
+        this.maxNodes = maxNodes;
+        arena = null;
+        spareArena = null;
+        copiedNodes = null;
+    }
+
+    /**
+     * Returns the number of playouts of the last move.
+     *
+     * @return The number of playouts.
+     */
+    public int getLastPlayouts() {
+        return lastPlayouts;
+    }
+
+    /**
+     * Returns the number of playouts of the previous searches that went
+     * through the root of the last move, and were kept with its subtree.
+     *
+     * @return The number of reused playouts.
+     */
+    public int getLastReusedPlayouts() {
+        return lastReusedPlayouts;
+    }
+
+    /**
+     * Returns the number of playouts per second during the last move.
+     *
+     * @return The search speed.
+     */
+    public double getLastPlayoutsPerSecond() {
+        return lastPlayoutsPerSecond;
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     *
+     * @return The number of nodes.
+     */
+    public int getNodeCount() {
+        return arena == null ? 0 : arena.size();
+    }
+
+    /**
+     * The nodes of the tree, in parallel arrays indexed by node. The children
+     * of a node are contiguous. The arrays written by the expansion are plain
+     * arrays, published to the other threads by the volatile write of the
+     * state of the node, and the statistics of the playouts are atomic.
+     */
+    private static final class Arena {
+
+        /**
+         * Tokens of the player to move at each node, and of its opponent.
+         */
+        final long[] player;
+        final long[] opponent;
+
+        /**
+         * Move leading to each node from its parent, or PASS.
+         */
+        final byte[] move;
+        final int[] firstChild;
+        final byte[] childCount;
+
+        /**
+         * Prior of each node and value given by the value function, from the
+         * point of view of the player who moved to the node.
+         */
+        final float[] prior;
+        final float[] initialValue;
+
+        final AtomicIntegerArray state;
+        final AtomicIntegerArray visits;
+        final AtomicIntegerArray virtualLosses;
+
+        /**
+         * Sum of the values backed up through each node, from the point of
+         * view of the player who moved to the node, in units of VALUE_ONE.
+         */
+        final AtomicLongArray valueSums;
+
+        private final AtomicInteger size = new AtomicInteger();
+
+        Arena(int capacity) {
+            player = new long[capacity];
+            opponent = new long[capacity];
+            move = new byte[capacity];
+            firstChild = new int[capacity];
+            childCount = new byte[capacity];
+            prior = new float[capacity];
+            initialValue = new float[capacity];
+            state = new AtomicIntegerArray(capacity);
+            visits = new AtomicIntegerArray(capacity);
+            virtualLosses = new AtomicIntegerArray(capacity);
+            valueSums = new AtomicLongArray(capacity);
+        }
+
+        int size() {
+            return size.get();
+        }
+
+        void clear() {
+            size.set(0);
+        }
+
+        /**
+         * Reserves consecutive nodes.
+         *
+         * @param count The number of nodes.
+         * @return The index of the first node, or -1 if the arena is full.
+         */
+        int allocate(int count) {
+            while (true) {
+                int first = size.get();
+                if (first + count > player.length) {
+                    return -1;
+                }
+                if (size.compareAndSet(first, first + count)) {
+                    return first;
+                }
+            }
+        }
+
+        /**
+         * Initialises an allocated node, without children nor visits.
+         */
+        void init(int node, long nodePlayer, long nodeOpponent, int nodeMove) {
+            player[node] = nodePlayer;
+            opponent[node] = nodeOpponent;
+            move[node] = (byte) nodeMove;
+            childCount[node] = 0;
+            visits.set(node, 0);
+            virtualLosses.set(node, 0);
+            valueSums.set(node, 0);
+            state.set(node, UNEXPANDED);
+        }
+    }
+
+    /**
+     * Playouts of one search thread, with its value function and buffers.
+     */
+    private final class Worker implements Runnable {
+
+        private final ToDoubleFunction<Node> heuristic;
+        private final int[] path = new int[MAX_PLIES + 1];
+        private final double[] values = new double[BatchHeuristic.MAX_BATCH_SIZE];
+        private final boolean[] terminal = new boolean[BatchHeuristic.MAX_BATCH_SIZE];
+        private final ReversiBoard board = ReversiBoard.initialBoard();
+        private int playoutCount;
+
+        Worker(ToDoubleFunction<Node> heuristic) {
+            this.heuristic = heuristic;
+        }
+
+        @Override
+        public void run() {
+            playoutCount = 0;
+            while (startedPlayouts.getAndIncrement() < playouts
+                    && (deadline == 0 || System.nanoTime() - deadline < 0)) {
+                playout();
+                playoutCount++;
+            }
+        }
+
+        private void playout() {
+            Arena tree = arena;
+            int node = 0;
+            int depth = 0;
+            path[depth++] = node;
+            while (tree.state.get(node) == EXPANDED && tree.childCount[node] > 0) {
+                node = selectChild(tree, node);
+                tree.virtualLosses.incrementAndGet(node);
+                path[depth++] = node;
+            }
+
+            double value;
+            if (tree.state.compareAndSet(node, UNEXPANDED, EXPANDING)) {
+                // The player to move at the leaf is the one of the root on
+                // even plies
+                Color color = (depth - 1) % 2 == 0 ? rootColor : rootColor.getOpposite();
+                value = expand(tree, node, color);
+            } else {
+                // Terminal, being expanded by another thread, or the tree is full
+                value = tree.initialValue[node];
+            }
+            if (rolloutWeight > 0) {
+                value = (1 - rolloutWeight) * value
+                        - rolloutWeight * rollout(tree.player[node], tree.opponent[node]);
+            }
+
+            for (int i = depth - 1; i >= 0; --i) {
+                int pathNode = path[i];
+                tree.valueSums.addAndGet(pathNode, Math.round(value * VALUE_ONE));
+                tree.visits.incrementAndGet(pathNode);
+                if (i > 0) {
+                    tree.virtualLosses.decrementAndGet(pathNode);
+                }
+                value = -value;
+            }
+        }
+
+        /**
+         * Chooses the child with the best PUCT score. The value function of
+         * a child counts as one visit, and each virtual loss as a visit lost.
+         *
+         * @param tree The tree.
+         * @param node The parent.
+         * @return The chosen child.
+         */
+        private int selectChild(Arena tree, int node) {
+            int first = tree.firstChild[node];
+            int end = first + tree.childCount[node];
+            double sqrtVisits = Math.sqrt(tree.visits.get(node) + tree.virtualLosses.get(node) + 1);
+            int best = first;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int child = first; child < end; ++child) {
+                int visits = tree.visits.get(child) + tree.virtualLosses.get(child);
+                double sum = tree.initialValue[child] + tree.valueSums.get(child) / VALUE_ONE
+                        - tree.virtualLosses.get(child);
+                double score = (sum + explorationConstant * tree.prior[child] * sqrtVisits)
+                        / (1 + visits);
+                if (score > bestScore) {
+                    best = child;
+                    bestScore = score;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Creates and evaluates the children of a leaf.
+         *
+         * @param tree The tree.
+         * @param node The leaf, marked as expanding by this thread.
+         * @param color The color of the player to move at the leaf.
+         * @return The value of the leaf from the point of view of the player
+         * who moved to it.
+         */
+        private double expand(Arena tree, int node, Color color) {
+            long player = tree.player[node];
+            long opponent = tree.opponent[node];
+            long moves = BitBoard.legalMoves(player, opponent);
+            if (moves == 0 && BitBoard.legalMoves(opponent, player) == 0) {
+                // End of the game, whose value was set exactly by the parent
+                tree.state.set(node, EXPANDED);
+                return tree.initialValue[node];
+            }
+            int count = moves == 0 ? 1 : Long.bitCount(moves);
+            int first = tree.allocate(count);
+            if (first < 0) {
+                tree.state.set(node, UNEXPANDED);
+                return tree.initialValue[node];
+            }
+
+            BatchHeuristic batch = heuristic instanceof BatchHeuristic
+                    ? (BatchHeuristic) heuristic : null;
+            if (moves == 0) {
+                tree.init(first, opponent, player, PASS);
+            } else {
+                for (int i = 0; moves != 0; ++i) {
+                    int square = Long.numberOfTrailingZeros(moves);
+                    moves &= moves - 1;
+                    long flipped = BitBoard.flips(square, player, opponent);
+                    tree.init(first + i, opponent & ~flipped, player | flipped | (1L << square),
+                            square);
+                }
+            }
+            for (int i = 0; i < count; ++i) {
+                // Evaluate the child for the player who moved to it
+                long mover = tree.opponent[first + i];
+                long other = tree.player[first + i];
+                terminal[i] = BitBoard.legalMoves(other, mover) == 0
+                        && BitBoard.legalMoves(mover, other) == 0;
+                if (terminal[i]) {
+                    values[i] = outcome(mover, other);
+                } else {
+                    setBoard(mover, other, color);
+                    if (batch != null) {
+                        batch.addToBatch(board, i);
+                    } else {
+                        values[i] = squash(heuristic.applyAsDouble(board));
+                    }
+                }
+            }
+            if (batch != null) {
+                batch.evaluateBatch(count, values);
+                for (int i = 0; i < count; ++i) {
+                    values[i] = terminal[i]
+                            ? outcome(tree.opponent[first + i], tree.player[first + i])
+                            : squash(values[i]);
+                }
+            }
+
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; ++i) {
+                bestValue = Math.max(bestValue, values[i]);
+            }
+            double priorSum = 0;
+            for (int i = 0; i < count; ++i) {
+                double prior = Math.exp((values[i] - bestValue) / priorTemperature);
+                tree.prior[first + i] = (float) prior;
+                tree.initialValue[first + i] = (float) values[i];
+                priorSum += prior;
+            }
+            for (int i = 0; i < count; ++i) {
+                tree.prior[first + i] /= priorSum;
+            }
+            tree.firstChild[node] = first;
+            tree.childCount[node] = (byte) count;
+            tree.state.set(node, EXPANDED);
+            // The opponent of the player who moved to the leaf plays its best
+            // child
+            return -bestValue;
+        }
+
+        /**
+         * Sets the board of the value function.
+         *
+         * @param mover The tokens of the player who just moved.
+         * @param other The tokens of the other player.
+         * @param color The color of the player who just moved, whose turn it
+         * is on the board as on the children of ReversiBoard.getChildren.
+         */
+        private void setBoard(long mover, long other, Color color) {
+            if (color == Color.Black) {
+                board.setPosition(mover, other, color);
+            } else {
+                board.setPosition(other, mover, color);
+            }
+        }
+
+        private double squash(double value) {
+            if (valueScale > 0) {
+                return Math.tanh(value / valueScale);
+            }
+            return Math.max(-1, Math.min(1, value));
+        }
+
+        /**
+         * Plays fast moves until the end of the game.
+         *
+         * @param player The tokens of the player to move.
+         * @param opponent The tokens of the opponent.
+         * @return The outcome for the player to move: 1 for a win, -1 for a
+         * loss and 0 for a draw.
+         */
+        private double rollout(long player, long opponent) {
+            Random random = ThreadLocalRandom.current();
+            boolean swapped = false;
+            while (true) {
+                long moves = BitBoard.legalMoves(player, opponent);
+                if (moves == 0) {
+                    if (BitBoard.legalMoves(opponent, player) == 0) {
+                        break;
+                    }
+                } else {
+                    long preferred = moves & CORNERS;
+                    if (preferred == 0) {
+                        preferred = moves & ~X_AND_C_SQUARES;
+                    }
+                    if (preferred == 0) {
+                        preferred = moves;
+                    }
+                    for (int skip = random.nextInt(Long.bitCount(preferred)); skip > 0; --skip) {
+                        preferred &= preferred - 1;
+                    }
+                    int square = Long.numberOfTrailingZeros(preferred);
+                    long flipped = BitBoard.flips(square, player, opponent);
+                    player |= flipped | (1L << square);
+                    opponent &= ~flipped;
+                }
+                long next = opponent;
+                opponent = player;
+                player = next;
+                swapped = !swapped;
+            }
+            return swapped ? -outcome(player, opponent) : outcome(player, opponent);
+        }
+
+        /**
+         * Computes the outcome of a finished game.
+         *
+         * @param player The tokens of a player.
+         * @param opponent The tokens of the other player.
+         * @return 1 if the player wins, -1 if it loses and 0 for a draw.
+         */
+        private double outcome(long player, long opponent) {
+            return Math.signum(Long.bitCount(player) - Long.bitCount(opponent));
+        }
+    }
+}
@@ -2,6 +2,8 @@ package simpleothellonet;
 
 import java.util.List;
 import java.util.function.ToDoubleFunction;
+import simpleothellonet.MoveOrdering.Feature;
+import simpleothellonet.TranspositionTable.Bound;
 
 /**
  * Implementation of the minimax and alpha-beta search. The implementation is an
@@ -9,6 +11,86 @@ import java.util.function.ToDoubleFunction;
  */
 public class Minimax {
 
+    /**
+     * Legal moves of each ply of the in-place search.
+     */
+    private int[][] moveBuffers = new int[0][];
+
+    /**
+     * Best move found at each ply of the in-place search.
+     */
+    private int[] bestMoves = new int[0];
+
+    /**
+     * Key combined with the hash of maximising nodes. The value of a board
+     * depends on whether the player is maximising or minimising, so both cases
+     * must be stored in different entries of the transposition table.
+     */
+    private static final long MAX_PLAYER_KEY = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Transposition table used by the in-place search, or null if disabled.
+     */
+    private TranspositionTable transpositionTable = null;
+
+    /**
+     * Move ordering of the in-place search, or null to search the moves in
+     * the order of the cells.
+     */
+    private MoveOrdering moveOrdering = null;
+
+    /**
+     * Maximum depth of the shallow searches sorting the root moves.
+     */
+    private static final int ROOT_PRESORT_DEPTH = 2;
+
+    /**
+     * Values of the root moves given by the shallow searches.
+     */
+    private final double[] rootValues = new double[64];
+
+    /**
+     * Values of the leaves evaluated by a BatchHeuristic.
+     */
+    private final double[] leafValues = new double[BatchHeuristic.MAX_BATCH_SIZE];
+
+    /**
+     * Number of boards visited by the in-place search since the last reset.
+     */
+    private long nodeCount = 0;
+
+    /**
+     * Time, as given by System.nanoTime, at which the in-place search must
+     * stop, or 0 if there is no time limit.
+     */
+    private long deadline = 0;
+
+    /**
+     * Number of nodes between two checks of the deadline. Must be a power of
+     * two.
+     */
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    /**
+     * True if the last in-place search was stopped by the deadline.
+     */
+    private boolean aborted = false;
+
+    /**
+     * Set by another thread to stop the in-place search, see stop.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Move searched first at the root of the current in-place search, or -1.
+     */
+    private int rootFirstMove = -1;
+
+    /**
+     * True if the in-place search is a principal variation search.
+     */
+    private boolean principalVariationSearch = false;
+
     /**
      * Plain minimax search, without pruning.
      *
@@ -85,6 +167,578 @@ public class Minimax {
         return new Result(bestNode, bestValue);
     }
 
+    /**
+     * Alpha-beta search on a single mutable board. Moves are played and taken
+     * back in place with ReversiBoard.makeMove and undoMove, and the legal
+     * moves of each ply are stored in preallocated buffers, so that the only
+     * allocations are at the root. It explores the same tree as alphaBeta, in
+     * the same order, and thus returns the same result. If a transposition
+     * table is set, it is used to order the moves and to cut off the search of
+     * boards already searched to a sufficient depth. If the heuristic is a
+     * BatchHeuristic, the leaves of each board are evaluated in one batch. If
+     * it is an IncrementalHeuristic, it is reset on the root and follows every
+     * move played and taken back by the search.
+     *
+     * @param board The root board. It is modified during the search, but
+     * restored before returning.
+     * @param depth The maximum depth to explore.
+     * @param alpha The current alpha value.
+     * @param beta The current beta value.
+     * @param maxPlayer Indicates whether the current layer is a maximising or
+     * minimsing player.
+     * @param heuristic The heuristic function. It is given the searched board
+     * itself, which must therefore not be kept.
+     * @return The result of the minimax search, containing the best child of
+     * the root and its heuristic value.
+     */
+    public Result alphaBetaInPlace(ReversiBoard board, int depth, double alpha,
+            double beta, boolean maxPlayer, ToDoubleFunction<Node> heuristic) {
+        return alphaBetaInPlace(board, depth, alpha, beta, maxPlayer, heuristic, -1);
+    }
+
+    /**
+     * In-place alpha-beta search, searching the given move of the root first.
+     * This is used by iterative deepening, which searches first the best move
+     * of the previous iteration.
+     *
+     * If a deadline is set and reached, the search stops as soon as possible,
+     * isAborted returns true, and the returned result must be discarded.
+     *
+     * @param board The root board, restored before returning.
+     * @param depth The maximum depth to explore.
+     * @param alpha The current alpha value.
+     * @param beta The current beta value.
+     * @param maxPlayer Indicates whether the current layer is a maximising or
+     * minimsing player.
+     * @param heuristic The heuristic function.
+     * @param firstMove The move to search first, or -1 to keep the default
+     * order.
+     * @return The result of the minimax search, containing the best child of
+     * the root and its heuristic value.
+     */
+    public Result alphaBetaInPlace(ReversiBoard board, int depth, double alpha,
+            double beta, boolean maxPlayer, ToDoubleFunction<Node> heuristic,
+            int firstMove) {
+        ensurePlyCapacity(depth + 1);
+        aborted = false;
+        rootFirstMove = firstMove;
+        if (heuristic instanceof IncrementalHeuristic) {
+            ((IncrementalHeuristic) heuristic).reset(board);
+        }
+        double value = alphaBetaInPlace(board, depth, 0, alpha, beta, maxPlayer, heuristic);
+        if (aborted) {
+            return new Result(null, value);
+        }
+        return new Result(childAfter(board, bestMoves[0]), value);
+    }
+
+    /**
+     * In-place search with an aspiration window: the root is searched with a
+     * narrow window around an estimate of its value, typically the value of
+     * the previous iteration of an iterative deepening. A narrow window
+     * prunes more of the tree, but if the value falls outside of it, the
+     * failing side of the window is widened and the root searched again.
+     *
+     * The returned move and value are the ones of a search with the full
+     * window, as long as the move ordering does not depend on the window.
+     *
+     * @param board The root board, restored before returning.
+     * @param depth The maximum depth to explore.
+     * @param guess The expected value of the root.
+     * @param halfWidth The initial distance between the guess and each bound
+     * of the window, doubled at each failure.
+     * @param maxPlayer Indicates whether the current layer is a maximising or
+     * minimsing player.
+     * @param heuristic The heuristic function.
+     * @param firstMove The move to search first, or -1 to keep the default
+     * order.
+     * @return The result of the minimax search, to discard if isAborted
+     * returns true.
+     */
+    public Result aspirationSearch(ReversiBoard board, int depth, double guess,
+            double halfWidth, boolean maxPlayer, ToDoubleFunction<Node> heuristic,
+            int firstMove) {
+        double alpha = Double.NEGATIVE_INFINITY;
+        double beta = Double.POSITIVE_INFINITY;
+        if (!Double.isInfinite(guess)) {
+            alpha = guess - halfWidth;
+            beta = guess + halfWidth;
+        }
+        while (true) {
+            Result result = alphaBetaInPlace(board, depth, alpha, beta, maxPlayer,
+                    heuristic, firstMove);
+            if (isAborted()) {
+                return result;
+            }
+            halfWidth *= 2;
+            // The search is fail-soft, so the value is a bound of the real
+            // value when it falls outside of the window
+            if (result.heuristicValue <= alpha && alpha != Double.NEGATIVE_INFINITY) {
+                alpha = result.heuristicValue - halfWidth;
+            } else if (result.heuristicValue >= beta && beta != Double.POSITIVE_INFINITY) {
+                beta = result.heuristicValue + halfWidth;
+            } else {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Recursive part of alphaBetaInPlace.
+     *
+     * @param board The board, modified in place.
+     * @param depth The remaining depth to explore.
+     * @param ply The distance to the root, used to index the buffers.
+     * @param alpha The current alpha value.
+     * @param beta The current beta value.
+     * @param maxPlayer Indicates whether the current layer is a maximising or
+     * minimsing player.
+     * @param heuristic The heuristic function.
+     * @return The heuristic value of the board. The best move is stored in
+     * bestMoves[ply], or -1 if there is none.
+     */
+    private double alphaBetaInPlace(ReversiBoard board, int depth, int ply,
+            double alpha, double beta, boolean maxPlayer,
+            ToDoubleFunction<Node> heuristic) {
+        bestMoves[ply] = -1;
+        nodeCount++;
+        if ((nodeCount & (DEADLINE_CHECK_INTERVAL - 1)) == 0
+                && (stopped || (deadline != 0 && System.nanoTime() - deadline > 0))) {
+            aborted = true;
+        }
+        if (aborted) {
+            return 0;
+        }
+        if (depth == 0) {
+            return heuristic.applyAsDouble(board);
+        }
+
+        TranspositionTable table = transpositionTable;
+        long hash = 0;
+        int hashMove = -1;
+        if (table != null) {
+            hash = board.getHash() ^ (maxPlayer ? MAX_PLAYER_KEY : 0);
+            long entry = table.probe(hash);
+            if (entry != TranspositionTable.NO_ENTRY) {
+                hashMove = TranspositionTable.getMove(entry);
+                // The root is always searched, since we need its best move
+                if (ply > 0 && TranspositionTable.getDepth(entry) >= depth) {
+                    double value = table.getValue(hash, entry);
+                    if (isCutoff(TranspositionTable.getBound(entry), value, alpha, beta)) {
+                        table.countCutoff();
+                        bestMoves[ply] = hashMove;
+                        return value;
+                    }
+                }
+            }
+        }
+
+        int moveCount = generateMoves(board, moveBuffers[ply]);
+        if (moveCount == 0) {
+            return heuristic.applyAsDouble(board);
+        }
+        if (moveOrdering != null) {
+            moveOrdering.order(moveBuffers[ply], moveCount, ply);
+            if (ply == 0 && depth > ROOT_PRESORT_DEPTH
+                    && moveOrdering.isEnabled(Feature.RootPresort)) {
+                presortRoot(board, moveCount, maxPlayer, heuristic);
+                if (aborted) {
+                    return 0;
+                }
+            }
+        }
+        if (hashMove >= 0) {
+            moveToFront(moveBuffers[ply], moveCount, hashMove);
+        }
+        if (ply == 0 && rootFirstMove >= 0) {
+            moveToFront(moveBuffers[ply], moveCount, rootFirstMove);
+        }
+
+        double alphaOrig = alpha;
+        double betaOrig = beta;
+        double turnFactor = (maxPlayer ? 1 : -1);
+        double bestValue = Double.NEGATIVE_INFINITY * turnFactor;
+        int[] moves = moveBuffers[ply];
+        boolean batchLeaves = depth == 1 && heuristic instanceof BatchHeuristic;
+        if (batchLeaves) {
+            evaluateLeaves(board, moves, moveCount, (BatchHeuristic) heuristic);
+        }
+
+        for (int i = 0; i < moveCount; ++i) {
+            int move = moves[i];
+            double value;
+            if (batchLeaves) {
+                value = leafValues[i];
+            } else {
+                long flipped = playMove(board, move, heuristic);
+                if (principalVariationSearch && i > 0 && depth > 1) {
+                    value = nullWindowSearch(board, depth, ply, alpha, beta,
+                            maxPlayer, heuristic);
+                } else {
+                    value = alphaBetaInPlace(board, depth - 1, ply + 1, alpha,
+                            beta, !maxPlayer, heuristic);
+                }
+                takeBackMove(board, move, flipped, heuristic);
+                if (aborted) {
+                    return 0;
+                }
+            }
+            if (value * turnFactor > bestValue * turnFactor) {
+                bestMoves[ply] = move;
+                bestValue = value;
+            }
+            if (maxPlayer) {
+                alpha = Math.max(alpha, bestValue);
+            } else {
+                beta = Math.min(beta, bestValue);
+            }
+            if (beta <= alpha) {
+                if (moveOrdering != null) {
+                    moveOrdering.onCutoff(move, ply, depth);
+                }
+                break;
+            }
+        }
+
+        if (table != null) {
+            Bound bound;
+            if (bestValue <= alphaOrig) {
+                bound = Bound.Upper;
+            } else if (bestValue >= betaOrig) {
+                bound = Bound.Lower;
+            } else {
+                bound = Bound.Exact;
+            }
+            table.store(hash, depth, bound, bestValue, bestMoves[ply]);
+        }
+        return bestValue;
+    }
+
+    /**
+     * Searches a child which is not the first of its parent, in a principal
+     * variation search. The child is expected to be worse than the first one,
+     * so it is first searched with a null window, just proving that it does
+     * not improve on the current bound. This is cheaper than a search with
+     * the full window, and only when it fails is the child searched again
+     * with the full window to get its value. Since the search is fail-soft,
+     * the value of a child that fails is still a valid bound.
+     *
+     * @param board The child board, on which the move was played.
+     * @param depth The remaining depth of the parent.
+     * @param ply The distance of the parent to the root.
+     * @param alpha The current alpha value of the parent.
+     * @param beta The current beta value of the parent.
+     * @param maxPlayer Whether the parent is maximising.
+     * @param heuristic The heuristic function.
+     * @return The value of the child, or a bound that does not change the
+     * result of the parent.
+     */
+    private double nullWindowSearch(ReversiBoard board, int depth, int ply,
+            double alpha, double beta, boolean maxPlayer,
+            ToDoubleFunction<Node> heuristic) {
+        double value;
+        if (maxPlayer) {
+            value = alphaBetaInPlace(board, depth - 1, ply + 1, alpha,
+                    Math.nextUp(alpha), false, heuristic);
+            if (value > alpha && value < beta && !aborted) {
+                value = alphaBetaInPlace(board, depth - 1, ply + 1, alpha,
+                        beta, false, heuristic);
+            }
+        } else {
+            value = alphaBetaInPlace(board, depth - 1, ply + 1,
+                    Math.nextDown(beta), beta, true, heuristic);
+            if (value < beta && value > alpha && !aborted) {
+                value = alphaBetaInPlace(board, depth - 1, ply + 1, alpha,
+                        beta, true, heuristic);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Plays a move on the searched board, and passes it on to the heuristic
+     * if it is incremental.
+     *
+     * @param board The board, modified in place.
+     * @param move The cell to play.
+     * @param heuristic The heuristic function.
+     * @return The flipped tokens, needed to take the move back.
+     */
+    private static long playMove(ReversiBoard board, int move,
+            ToDoubleFunction<Node> heuristic) {
+        ReversiBoard.Color color = board.getTurnColor();
+        long flipped = board.makeMove(move);
+        if (heuristic instanceof IncrementalHeuristic) {
+            ((IncrementalHeuristic) heuristic).makeMove(move, flipped, color);
+        }
+        return flipped;
+    }
+
+    /**
+     * Takes back a move played by playMove.
+     *
+     * @param board The board, modified in place.
+     * @param move The cell that was played.
+     * @param flipped The tokens flipped by the move.
+     * @param heuristic The heuristic function.
+     */
+    private static void takeBackMove(ReversiBoard board, int move, long flipped,
+            ToDoubleFunction<Node> heuristic) {
+        board.undoMove(move, flipped);
+        if (heuristic instanceof IncrementalHeuristic) {
+            ((IncrementalHeuristic) heuristic).undoMove();
+        }
+    }
+
+    /**
+     * Evaluates all children of a board in one batch, and stores their values
+     * in leafValues, in the order of the moves.
+     *
+     * @param board The board, whose children are leaves of the search.
+     * @param moves The moves of the board.
+     * @param moveCount The number of moves.
+     * @param heuristic The heuristic function.
+     */
+    private void evaluateLeaves(ReversiBoard board, int[] moves, int moveCount,
+            BatchHeuristic heuristic) {
+        for (int i = 0; i < moveCount; ++i) {
+            long flipped = playMove(board, moves[i], heuristic);
+            heuristic.addToBatch(board, i);
+            takeBackMove(board, moves[i], flipped, heuristic);
+        }
+        heuristic.evaluateBatch(moveCount, leafValues);
+        nodeCount += moveCount;
+    }
+
+    /**
+     * Sorts the root moves by the value of a shallow search of each of them,
+     * best first.
+     *
+     * @param board The root board.
+     * @param moveCount The number of root moves, in moveBuffers[0].
+     * @param maxPlayer Whether the root is maximising.
+     * @param heuristic The heuristic function.
+     */
+    private void presortRoot(ReversiBoard board, int moveCount, boolean maxPlayer,
+            ToDoubleFunction<Node> heuristic) {
+        int[] moves = moveBuffers[0];
+        double turnFactor = (maxPlayer ? 1 : -1);
+        for (int i = 0; i < moveCount; ++i) {
+            long flipped = playMove(board, moves[i], heuristic);
+            rootValues[i] = turnFactor * alphaBetaInPlace(board, ROOT_PRESORT_DEPTH - 1,
+                    1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    !maxPlayer, heuristic);
+            takeBackMove(board, moves[i], flipped, heuristic);
+            if (aborted) {
+                return;
+            }
+        }
+        // Stable insertion sort, so that equal moves keep their order
+        for (int i = 1; i < moveCount; ++i) {
+            int move = moves[i];
+            double value = rootValues[i];
+            int j = i - 1;
+            while (j >= 0 && rootValues[j] < value) {
+                moves[j + 1] = moves[j];
+                rootValues[j + 1] = rootValues[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            rootValues[j + 1] = value;
+        }
+    }
+
+    /**
+     * Tells whether a value stored in the transposition table is enough to
+     * skip the search of a board.
+     *
+     * @param bound The kind of the stored value.
+     * @param value The stored value, NaN if the entry was lost.
+     * @param alpha The current alpha value.
+     * @param beta The current beta value.
+     * @return True if the stored value can be returned as is.
+     */
+    private static boolean isCutoff(Bound bound, double value, double alpha, double beta) {
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        switch (bound) {
+            case Exact:
+                return true;
+            case Lower:
+                return value >= beta;
+            default:
+                return value <= alpha;
+        }
+    }
+
+    /**
+     * Moves the given move at the start of the buffer, keeping the order of
+     * the other moves. Nothing is done if the move is not in the buffer.
+     *
+     * @param moves The move buffer.
+     * @param moveCount The number of moves in the buffer.
+     * @param move The move to search first.
+     */
+    private static void moveToFront(int[] moves, int moveCount, int move) {
+        for (int i = 0; i < moveCount; ++i) {
+            if (moves[i] == move) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the legal moves of the board in the given buffer, in the same
+     * order as ReversiBoard.getChildren.
+     *
+     * @param board The board.
+     * @param moves The buffer, large enough for all cells of the grid.
+     * @return The number of moves written.
+     */
+    private static int generateMoves(ReversiBoard board, int[] moves) {
+        long moveBits = board.getMoves();
+        int count = 0;
+        while (moveBits != 0) {
+            moves[count++] = Long.numberOfTrailingZeros(moveBits);
+            moveBits &= moveBits - 1;
+        }
+        return count;
+    }
+
+    /**
+     * Creates the child board obtained by playing the given move.
+     *
+     * @param board The parent board.
+     * @param move The move, or -1 if there is none.
+     * @return The child board, or null if there is no move.
+     */
+    private static ReversiBoard childAfter(ReversiBoard board, int move) {
+        if (move < 0) {
+            return null;
+        }
+        ReversiBoard child = new ReversiBoard(board);
+        child.makeMove(move);
+        return child;
+    }
+
+    /**
+     * Grows the per-ply buffers so that they can hold the given number of
+     * plies. Buffers are only reallocated when a deeper search is requested.
+     *
+     * @param plies The number of plies.
+     */
+    private void ensurePlyCapacity(int plies) {
+        if (moveBuffers.length < plies) {
+            int gridSize = ReversiBoard.getGridSize();
+            moveBuffers = new int[plies][gridSize * gridSize];
+            bestMoves = new int[plies];
+        }
+    }
+
+    /**
+     * Returns the number of boards visited by the in-place search since the
+     * last call to resetNodeCount.
+     *
+     * @return The node count.
+     */
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public void resetNodeCount() {
+        nodeCount = 0;
+    }
+
+    /**
+     * Sets the time at which the in-place search must stop.
+     *
+     * @param deadline The time, as given by System.nanoTime, or 0 to search
+     * without time limit.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Requests the in-place search to stop as if its deadline was reached.
+     * This can be called from any thread, and applies to all following
+     * searches until resume is called.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Cancels a previous call to stop.
+     */
+    public void resume() {
+        stopped = false;
+    }
+
+    /**
+     * Tells whether the last in-place search was stopped by the deadline.
+     *
+     * @return True if the search was aborted.
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Returns the best root move found by the last in-place search.
+     *
+     * @return The move (see BitBoard), or -1 if there is none.
+     */
+    public int getBestMove() {
+        return bestMoves.length == 0 ? -1 : bestMoves[0];
+    }
+
+    public void setTranspositionTable(TranspositionTable transpositionTable) {
+        this.transpositionTable = transpositionTable;
+    }
+
+    /**
+     * Enables or disables the principal variation search. The first move of
+     * each board is then searched with the full window, and the other ones
+     * with a null window, searched again only if the move turns out to be
+     * better. With a good move ordering, most moves are refuted by the null
+     * window search, and fewer nodes are searched. The result is the same as
+     * the one of the alpha-beta search.
+     *
+     * @param principalVariationSearch True to use the principal variation
+     * search.
+     */
+    public void setPrincipalVariationSearch(boolean principalVariationSearch) {
+        this.principalVariationSearch = principalVariationSearch;
+    }
+
+    public boolean isPrincipalVariationSearch() {
+        return principalVariationSearch;
+    }
+
+    /**
+     * Sets the move ordering of the in-place search. It is kept from one
+     * search to the next, so its killers and history should be cleared when
+     * the searched game changes.
+     *
+     * @param moveOrdering The move ordering, or null to search the moves in
+     * the order of the cells.
+     */
+    public void setMoveOrdering(MoveOrdering moveOrdering) {
+        this.moveOrdering = moveOrdering;
+    }
+
+    public MoveOrdering getMoveOrdering() {
+        return moveOrdering;
+    }
+
+    public TranspositionTable getTranspositionTable() {
+        return transpositionTable;
+    }
+
     /**
      * Class containing the result of a minimax search.
      */
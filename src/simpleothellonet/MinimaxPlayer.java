@@ -1,7 +1,6 @@
 package simpleothellonet;
 
-import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.ToDoubleFunction;
 import simpleothellonet.ReversiBoard.Color;
 
@@ -13,32 +12,258 @@ public class MinimaxPlayer implements ReversiPlayer {
 
     /**
      * The depth to which the minimax algorith should explore the game tree.
+     * When a move time is set, this is the maximum depth of the iterative
+     * deepening.
      */
     private final int plyDepth;
     private final ToDoubleFunction<Node> heuristic;
 
-    private final Minimax minimax = new Minimax();
+    private Minimax minimax = new Minimax();
 
     /**
-     * Random number generator. It is used in the heuristic function for noise.
+     * Size of the transposition table created for the parallel search when
+     * none was set.
      */
-    private static final Random RANDOM = new Random();
+    private static final int DEFAULT_TABLE_SIZE_MB = 64;
+
+    /**
+     * Solver used instead of the search near the end of the game, or null.
+     */
+    private EndgameSolver endgameSolver = null;
+
+    /**
+     * Book of the moves played without searching at the start of the game,
+     * or null.
+     */
+    private OpeningBook openingBook = null;
+
+    /**
+     * Time budget of each move in milliseconds, or 0 to always search to
+     * plyDepth.
+     */
+    private long moveTimeMillis = 0;
+
+    /**
+     * Initial half width of the aspiration windows of the iterative
+     * deepening, or 0 to search with the full window.
+     */
+    private double aspirationWindow = 0;
+
+    /**
+     * Depth reached by the last completed search.
+     */
+    private int lastDepth = 0;
+
+    /**
+     * Search speed during the last turn, in nodes per second.
+     */
+    private double lastNodesPerSecond = 0;
 
     public MinimaxPlayer(int plyDepth, ToDoubleFunction<Node> heuristic) {
         this.plyDepth = plyDepth;
         this.heuristic = heuristic;
     }
 
+    /**
+     * Enables or disables the transposition table of the search. The table is
+     * kept from one turn to the next, and can be read to monitor its hit rate.
+     *
+     * @param transpositionTable The table, or null to disable it.
+     */
+    public void setTranspositionTable(TranspositionTable transpositionTable) {
+        minimax.setTranspositionTable(transpositionTable);
+    }
+
+    /**
+     * Sets a solver to play perfectly once few cells are empty, instead of
+     * searching with the heuristic.
+     *
+     * @param endgameSolver The solver, or null to always use the heuristic.
+     */
+    public void setEndgameSolver(EndgameSolver endgameSolver) {
+        this.endgameSolver = endgameSolver;
+    }
+
+    /**
+     * Sets the move ordering of the search.
+     *
+     * @param moveOrdering The move ordering, or null to search the moves in
+     * the order of the cells.
+     */
+    public void setMoveOrdering(MoveOrdering moveOrdering) {
+        minimax.setMoveOrdering(moveOrdering);
+    }
+
+    /**
+     * Sets the number of threads used by the search. With more than one
+     * thread, the search is a ParallelMinimax, whose threads share a
+     * transposition table. A table is created if none was set.
+     *
+     * @param threadCount The number of threads.
+     */
+    public void setSearchThreads(int threadCount) {
+        TranspositionTable table = minimax.getTranspositionTable();
+        MoveOrdering moveOrdering = minimax.getMoveOrdering();
+        boolean principalVariationSearch = minimax.isPrincipalVariationSearch();
+        if (minimax instanceof ParallelMinimax) {
+            ((ParallelMinimax) minimax).shutdown();
+        }
+        if (threadCount > 1) {
+            minimax = new ParallelMinimax(threadCount);
+            if (table == null) {
+                table = new TranspositionTable(DEFAULT_TABLE_SIZE_MB);
+            }
+        } else {
+            minimax = new Minimax();
+        }
+        minimax.setTranspositionTable(table);
+        minimax.setMoveOrdering(moveOrdering);
+        minimax.setPrincipalVariationSearch(principalVariationSearch);
+    }
+
+    /**
+     * Enables or disables the principal variation search, see
+     * Minimax.setPrincipalVariationSearch.
+     *
+     * @param principalVariationSearch True to use the principal variation
+     * search.
+     */
+    public void setPrincipalVariationSearch(boolean principalVariationSearch) {
+        minimax.setPrincipalVariationSearch(principalVariationSearch);
+    }
+
+    /**
+     * Sets the aspiration window of the iterative deepening. Each iteration
+     * after the first one searches a window of the given half width around
+     * the value of the previous iteration, and widens it when the value falls
+     * outside. The width is in the unit of the heuristic, and should be close
+     * to the usual change of value from one depth to the next.
+     *
+     * @param aspirationWindow The initial half width of the window, or 0 to
+     * search with the full window.
+     */
+    public void setAspirationWindow(double aspirationWindow) {
+        this.aspirationWindow = aspirationWindow;
+    }
+
+    /**
+     * Sets an opening book, whose moves are played instead of searching in
+     * the positions it contains.
+     *
+     * @param openingBook The book, or null to always search.
+     */
+    public void setOpeningBook(OpeningBook openingBook) {
+        this.openingBook = openingBook;
+    }
+
+    /**
+     * Sets a time budget for each move. The player then uses iterative
+     * deepening, and plays the best move of the deepest search completed in
+     * time.
+     *
+     * @param moveTimeMillis The time budget in milliseconds, or 0 to always
+     * search to the fixed depth.
+     */
+    public void setMoveTime(long moveTimeMillis) {
+        this.moveTimeMillis = moveTimeMillis;
+    }
+
     @Override
     public ReversiBoard playTurn(ReversiBoard board) {
         ReversiBoard result;
-        List<Node> children = board.getChildren();
-        Minimax.Result minimaxMove = minimax.alphaBeta(board, plyDepth,
-                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true, heuristic);
-        result = (ReversiBoard) minimaxMove.node;
+        if (openingBook != null && (result = openingBook.play(board)) != null) {
+            lastDepth = 0;
+            lastNodesPerSecond = 0;
+            return result;
+        }
+        long start = System.nanoTime();
+        if (minimax.getTranspositionTable() != null) {
+            minimax.getTranspositionTable().newSearch();
+        }
+        minimax.resetNodeCount();
+        if (endgameSolver != null && endgameSolver.canSolve(board)) {
+            endgameSolver.resetNodeCount();
+            result = (ReversiBoard) endgameSolver.solve(board).node;
+            lastDepth = board.getEmptyCount();
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            lastNodesPerSecond = endgameSolver.getNodeCount() * 1e9 / elapsed;
+            return result;
+        }
+        if (moveTimeMillis > 0) {
+            result = iterativeDeepening(board, start + moveTimeMillis * 1000000);
+        } else {
+            Minimax.Result minimaxMove = minimax.alphaBetaInPlace(board, plyDepth,
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true, heuristic);
+            result = (ReversiBoard) minimaxMove.node;
+            lastDepth = plyDepth;
+        }
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        lastNodesPerSecond = minimax.getNodeCount() * 1e9 / elapsed;
         return result;
     }
 
+    /**
+     * Searches at increasing depths until the deadline, starting each search
+     * with the best move of the previous one.
+     *
+     * @param board The board at the start of the turn.
+     * @param deadline The time at which to stop, as given by System.nanoTime.
+     * @return The best child found by the deepest completed search.
+     */
+    private ReversiBoard iterativeDeepening(ReversiBoard board, long deadline) {
+        ReversiBoard result = null;
+        int bestMove = -1;
+        double bestValue = 0;
+        // Each ply fills a cell, so there is no point in searching deeper than
+        // the number of empty cells
+        int maxDepth = Math.max(1, Math.min(plyDepth, board.getEmptyCount()));
+        for (int depth = 1; depth <= maxDepth; ++depth) {
+            // The first iteration is never interrupted, so that we always
+            // have a move to play
+            minimax.setDeadline(depth == 1 ? 0 : deadline);
+            Minimax.Result minimaxMove;
+            if (aspirationWindow > 0 && depth > 1) {
+                minimaxMove = minimax.aspirationSearch(board, depth, bestValue,
+                        aspirationWindow, true, heuristic, bestMove);
+            } else {
+                minimaxMove = minimax.alphaBetaInPlace(board, depth,
+                        Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true,
+                        heuristic, bestMove);
+            }
+            if (minimax.isAborted()) {
+                break;
+            }
+            result = (ReversiBoard) minimaxMove.node;
+            bestMove = minimax.getBestMove();
+            bestValue = minimaxMove.heuristicValue;
+            lastDepth = depth;
+            if (result == null || System.nanoTime() - deadline > 0) {
+                break;
+            }
+        }
+        minimax.setDeadline(0);
+        return result;
+    }
+
+    /**
+     * Returns the depth of the search that gave the last move.
+     *
+     * @return The depth reached.
+     */
+    public int getLastDepth() {
+        return lastDepth;
+    }
+
+    /**
+     * Returns the number of nodes searched per second during the last turn,
+     * including the nodes of interrupted searches.
+     *
+     * @return The search speed.
+     */
+    public double getLastNodesPerSecond() {
+        return lastNodesPerSecond;
+    }
+
     /**
      * Naive heuristic, which just counts the number player's pieces, and
      * substracts the number of opponent's pieces.
@@ -48,55 +273,34 @@ public class MinimaxPlayer implements ReversiPlayer {
      */
     static public double simpleHeuristic(Node node) {
         ReversiBoard board = (ReversiBoard) node;
-        int gridSize = ReversiBoard.getGridSize();
-        Color turnColor = board.getTurnColor();
-        double count = 0;
-        for (int row = 0; row < gridSize; ++row) {
-            for (int col = 0; col < gridSize; ++col) {
-                if (board.getValue(col, row) == turnColor) {
-                    count += 1;
-                } else if (board.getValue(col, row) == turnColor.getOpposite()) {
-                    count -= 1;
-                }
-            }
-        }
-        return count;
+        return BitboardHeuristic.discDifference(board.getPlayerBits(), board.getOpponentBits());
     }
 
     /**
      * Heuristic proposed by Kevin J. Binkley, which is a weighted versions of
      * the naive heuristic above, accounting for the board strategic positions.
-     * A gaussian noise is also added.
+     * A gaussian noise is also added, drawn from the generator of the calling
+     * thread so that players on several threads do not contend for one.
      *
      * @param node The game board to evaluate
      * @return The heuristic value.
      */
     static public double binkleyHeuristic(Node node) {
-        ReversiBoard board = (ReversiBoard) node;
-        int gridSize = ReversiBoard.getGridSize();
-        Color turnColor = board.getTurnColor();
-        double[][] weights = {
-            {100, -25, 10, 5, 5, 10, -25, 100},
-            {-25, -25, 2, 2, 2, 2, -25, -25},
-            {10, 2, 5, 1, 1, 5, 2, 10},
-            {5, 2, 1, 2, 2, 1, 2, 5},
-            {5, 2, 1, 2, 2, 1, 2, 5},
-            {10, 2, 5, 1, 1, 5, 2, 10},
-            {-25, -25, 2, 2, 2, 2, -25, -25},
-            {100, -25, 10, 5, 5, 10, -25, 100}
-        };
         double noiseStd = 10;
-        double result = 0;
-        for (int row = 0; row < gridSize; ++row) {
-            for (int col = 0; col < gridSize; ++col) {
-                if (board.getValue(col, row) == turnColor) {
-                    result += weights[row][col];
-                } else if (board.getValue(col, row) == turnColor.getOpposite()) {
-                    result -= weights[row][col];
-                }
-            }
-        }
-        return result + RANDOM.nextGaussian() * noiseStd;
+        return positionalHeuristic(node) + ThreadLocalRandom.current().nextGaussian() * noiseStd;
+    }
+
+    /**
+     * The heuristic of Kevin J. Binkley without its gaussian noise. Being
+     * deterministic, it is suited to compare searches. See BitboardHeuristic
+     * for more features.
+     *
+     * @param node The game board to evaluate
+     * @return The heuristic value.
+     */
+    static public double positionalHeuristic(Node node) {
+        ReversiBoard board = (ReversiBoard) node;
+        return BitboardHeuristic.positional(board.getPlayerBits(), board.getOpponentBits());
     }
 
     @Override
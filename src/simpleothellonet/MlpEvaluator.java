@@ -0,0 +1,425 @@
+package simpleothellonet;
+
+import org.neuroph.core.Connection;
+import org.neuroph.core.Layer;
+import org.neuroph.core.Neuron;
+import org.neuroph.core.transfer.Linear;
+import org.neuroph.core.transfer.Sigmoid;
+import org.neuroph.core.transfer.Tanh;
+import org.neuroph.core.transfer.TransferFunction;
+import org.neuroph.nnet.MultiLayerPerceptron;
+import org.neuroph.nnet.comp.neuron.BiasNeuron;
+
+/**
+ * Forward pass of a multilayer perceptron on flat arrays. The weights are
+ * copied from a Neuroph network, whose object per neuron and per connection
+ * makes each evaluation much slower than the underlying matrix products.
+ *
+ * The sums are computed in the same order as Neuroph, and the transfer
+ * functions use the same formulas, so that the outputs are the same as the
+ * ones of the network the weights were copied from. This holds with the
+ * scalar kernels; the vector ones, used when available, differ by rounding
+ * errors (see Kernels).
+ *
+ * An instance holds buffers for the activations, and must not be used by
+ * several threads at once.
+ */
+public class MlpEvaluator {
+
+    /**
+     * Transfer functions supported by the evaluator.
+     */
+    enum Activation {
+        Tanh,
+        Sigmoid,
+        Linear
+    }
+
+    /**
+     * Number of neurons of each layer, without the bias neurons. The first
+     * layer is the input layer.
+     */
+    final int[] layerSizes;
+
+    /**
+     * Weights of each layer after the input one. The weights of layer l + 1
+     * are stored row by row in weights[l], one row of layerSizes[l] + 1
+     * weights per neuron, the bias weight being the last one.
+     */
+    final double[][] weights;
+
+    /**
+     * Transfer function of each layer after the input one.
+     */
+    final Activation[] activations;
+
+    /**
+     * Slope parameter of the transfer function of each layer, as defined by
+     * Neuroph.
+     */
+    final double[] slopes;
+
+    /**
+     * Output of each layer after the input one, reused between evaluations.
+     */
+    private final double[][] outputs;
+
+    /**
+     * Outputs of each layer after the input one for a batch of inputs, one
+     * row per input. They are grown when a larger batch is evaluated.
+     */
+    private double[][] batchOutputs;
+
+    /**
+     * Number of inputs that fit in batchOutputs.
+     */
+    private int batchCapacity = 0;
+
+    /**
+     * The kernels computing the products and transfer functions.
+     */
+    private Kernels kernels = Kernels.getDefault();
+
+    /**
+     * Creates an evaluator with the structure and weights of a network.
+     *
+     * @param network The network to copy.
+     */
+    public MlpEvaluator(MultiLayerPerceptron network) {
+        int layerCount = network.getLayersCount();
+        layerSizes = new int[layerCount];
+        for (int l = 0; l < layerCount; ++l) {
+            layerSizes[l] = countNonBias(network.getLayerAt(l));
+        }
+        weights = new double[layerCount - 1][];
+        activations = new Activation[layerCount - 1];
+        slopes = new double[layerCount - 1];
+        outputs = new double[layerCount - 1][];
+        batchOutputs = new double[layerCount - 1][];
+        for (int l = 0; l < layerCount - 1; ++l) {
+            weights[l] = new double[layerSizes[l + 1] * (layerSizes[l] + 1)];
+            outputs[l] = new double[layerSizes[l + 1]];
+            setActivation(l, firstNonBias(network.getLayerAt(l + 1)).getTransferFunction());
+        }
+        loadWeights(network);
+    }
+
+    /**
+     * Creates an evaluator sharing the weights of another one, with its own
+     * buffers, so that the two can be used by different threads. The weights
+     * are not copied, so loadWeights must not be called on either of them.
+     *
+     * @param other The evaluator to copy.
+     */
+    private MlpEvaluator(MlpEvaluator other) {
+        layerSizes = other.layerSizes;
+        weights = other.weights;
+        activations = other.activations;
+        slopes = other.slopes;
+        kernels = other.kernels;
+        outputs = new double[weights.length][];
+        batchOutputs = new double[weights.length][];
+        for (int l = 0; l < weights.length; ++l) {
+            outputs[l] = new double[layerSizes[l + 1]];
+        }
+    }
+
+    /**
+     * Returns an evaluator sharing the weights of this one, for use by
+     * another thread. The weights of both must not be modified afterwards.
+     *
+     * @return The copy.
+     */
+    public MlpEvaluator copy() {
+        return new MlpEvaluator(this);
+    }
+
+    /**
+     * Copies again the weights of the network, after it has been trained. The
+     * network must have the structure of the one given to the constructor.
+     *
+     * @param network The network to copy.
+     */
+    public final void loadWeights(MultiLayerPerceptron network) {
+        for (int l = 0; l < weights.length; ++l) {
+            Layer previousLayer = network.getLayerAt(l);
+            int[] columns = columnIndices(previousLayer);
+            int rowLength = layerSizes[l] + 1;
+            int row = 0;
+            for (Neuron neuron : network.getLayerAt(l + 1).getNeurons()) {
+                if (neuron instanceof BiasNeuron) {
+                    continue;
+                }
+                for (Connection connection : neuron.getInputConnections()) {
+                    int column = columns[previousLayer.indexOf(connection.getFromNeuron())];
+                    weights[l][row * rowLength + column] = connection.getWeight().getValue();
+                }
+                row++;
+            }
+        }
+    }
+
+    /**
+     * Copies the weights of this evaluator to a network, after they have been
+     * trained by an MlpTrainer. The network must have the structure of the one
+     * given to the constructor.
+     *
+     * @param network The network to update.
+     */
+    public void storeWeights(MultiLayerPerceptron network) {
+        for (int l = 0; l < weights.length; ++l) {
+            Layer previousLayer = network.getLayerAt(l);
+            int[] columns = columnIndices(previousLayer);
+            int rowLength = layerSizes[l] + 1;
+            int row = 0;
+            for (Neuron neuron : network.getLayerAt(l + 1).getNeurons()) {
+                if (neuron instanceof BiasNeuron) {
+                    continue;
+                }
+                for (Connection connection : neuron.getInputConnections()) {
+                    int column = columns[previousLayer.indexOf(connection.getFromNeuron())];
+                    connection.getWeight().setValue(weights[l][row * rowLength + column]);
+                }
+                row++;
+            }
+        }
+    }
+
+    /**
+     * Computes the output of the network.
+     *
+     * @param input The input, of size getInputSize().
+     * @return The first output of the network.
+     */
+    public double evaluate(double[] input) {
+        double[] layerInput = input;
+        for (int l = 0; l < weights.length; ++l) {
+            computeLayer(l, layerInput, 0, outputs[l], 0);
+            layerInput = outputs[l];
+        }
+        return layerInput[0];
+    }
+
+    /**
+     * Computes the outputs of a layer for one input.
+     *
+     * @param l The index of the layer, the input one excluded.
+     * @param layerInput The outputs of the previous layer.
+     * @param inputOffset The index of the first of them in layerInput.
+     * @param layerOutput Receives the outputs of the layer.
+     * @param outputOffset The index of the first output in layerOutput.
+     */
+    void computeLayer(int l, double[] layerInput, int inputOffset, double[] layerOutput,
+            int outputOffset) {
+        double[] layerWeights = weights[l];
+        int inputSize = layerSizes[l];
+        int outputSize = layerSizes[l + 1];
+        int rowLength = inputSize + 1;
+        kernels.dotRows(layerInput, inputOffset, layerWeights, 0, rowLength, outputSize,
+                inputSize, layerOutput, outputOffset);
+        for (int j = 0; j < outputSize; ++j) {
+            // Bias neuron, whose output is always 1
+            layerOutput[outputOffset + j] += layerWeights[j * rowLength + inputSize];
+        }
+        activateAll(l, layerOutput, outputOffset, outputSize);
+    }
+
+    /**
+     * Computes the output of the network from the weighted sums of the first
+     * layer after the input one, bias included. This is used by evaluators
+     * that maintain these sums incrementally.
+     *
+     * @param firstLayerSums The weighted sums of the neurons of the first
+     * hidden layer.
+     * @param sumsOffset The index of the first sum in firstLayerSums.
+     * @return The first output of the network.
+     */
+    double evaluateFromFirstLayer(double[] firstLayerSums, int sumsOffset) {
+        double[] layerInput = outputs[0];
+        System.arraycopy(firstLayerSums, sumsOffset, layerInput, 0, layerInput.length);
+        activateAll(0, layerInput, 0, layerInput.length);
+        for (int l = 1; l < weights.length; ++l) {
+            computeLayer(l, layerInput, 0, outputs[l], 0);
+            layerInput = outputs[l];
+        }
+        return layerInput[0];
+    }
+
+    /**
+     * Computes the output of the network for a batch of inputs. Each layer is
+     * computed as one matrix product, by blocks of inputs, so that each row of
+     * weights is loaded once for several inputs. The values are the same as
+     * the ones given by evaluate, and nothing is allocated once the buffers
+     * have reached the batch size.
+     *
+     * @param inputs The inputs, one after the other.
+     * @param count The number of inputs.
+     * @param values Receives the first output of the network for each input.
+     */
+    public void evaluateBatch(double[] inputs, int count, double[] values) {
+        ensureBatchCapacity(count);
+        double[] layerInputs = inputs;
+        for (int l = 0; l < weights.length; ++l) {
+            double[] layerWeights = weights[l];
+            double[] layerOutputs = batchOutputs[l];
+            int inputSize = layerSizes[l];
+            int outputSize = layerSizes[l + 1];
+            int rowLength = inputSize + 1;
+            kernels.dotRowsBatch(layerInputs, 0, inputSize, count, layerWeights, 0, rowLength,
+                    outputSize, inputSize, layerOutputs, 0, outputSize);
+            for (int b = 0; b < count; ++b) {
+                for (int j = 0; j < outputSize; ++j) {
+                    // Bias neuron, whose output is always 1
+                    layerOutputs[b * outputSize + j] += layerWeights[j * rowLength + inputSize];
+                }
+            }
+            activateAll(l, layerOutputs, 0, count * outputSize);
+            layerInputs = layerOutputs;
+        }
+        int outputSize = layerSizes[layerSizes.length - 1];
+        for (int b = 0; b < count; ++b) {
+            values[b] = layerInputs[b * outputSize];
+        }
+    }
+
+    private void ensureBatchCapacity(int count) {
+        if (count > batchCapacity) {
+            batchCapacity = Math.max(count, 2 * batchCapacity);
+            for (int l = 0; l < batchOutputs.length; ++l) {
+                batchOutputs[l] = new double[batchCapacity * layerSizes[l + 1]];
+            }
+        }
+    }
+
+    public int getInputSize() {
+        return layerSizes[0];
+    }
+
+    Kernels getKernels() {
+        return kernels;
+    }
+
+    /**
+     * Chooses the kernels of this evaluator, for instance to compare them.
+     *
+     * @param kernels The kernels.
+     */
+    void setKernels(Kernels kernels) {
+        this.kernels = kernels;
+    }
+
+    /**
+     * Applies the transfer function of a layer in place, to the weighted sums
+     * of several neurons.
+     *
+     * @param layer The index of the layer, the input one excluded.
+     * @param values The weighted sums, replaced by the outputs.
+     * @param offset The index of the first value.
+     * @param length The number of values.
+     */
+    final void activateAll(int layer, double[] values, int offset, int length) {
+        if (activations[layer] == Activation.Tanh) {
+            kernels.tanh(values, offset, length, slopes[layer]);
+            return;
+        }
+        for (int i = offset; i < offset + length; ++i) {
+            values[i] = activate(layer, values[i]);
+        }
+    }
+
+    /**
+     * Applies the transfer function of a layer, with the same formulas as
+     * Neuroph.
+     *
+     * @param layer The index of the layer, the input one excluded.
+     * @param net The weighted sum of the inputs of the neuron.
+     * @return The output of the neuron.
+     */
+    final double activate(int layer, double net) {
+        return activate(activations[layer], slopes[layer], net);
+    }
+
+    /**
+     * Applies a transfer function, with the same formulas as Neuroph.
+     *
+     * @param activation The transfer function.
+     * @param slope Its slope parameter.
+     * @param net The weighted sum of the inputs of the neuron.
+     * @return The output of the neuron.
+     */
+    static double activate(Activation activation, double slope, double net) {
+        switch (activation) {
+            case Tanh: {
+                if (net > 100) {
+                    return 1.0;
+                } else if (net < -100) {
+                    return -1.0;
+                }
+                double exp = Math.exp(slope * net);
+                return (exp - 1d) / (exp + 1d);
+            }
+            case Sigmoid: {
+                if (net > 100) {
+                    return 1.0;
+                } else if (net < -100) {
+                    return 0.0;
+                }
+                return 1d / (1d + Math.exp(-slope * net));
+            }
+            default:
+                return slope * net;
+        }
+    }
+
+    private void setActivation(int layer, TransferFunction transferFunction) {
+        if (transferFunction instanceof Tanh) {
+            activations[layer] = Activation.Tanh;
+            slopes[layer] = ((Tanh) transferFunction).getSlope();
+        } else if (transferFunction instanceof Sigmoid) {
+            activations[layer] = Activation.Sigmoid;
+            slopes[layer] = ((Sigmoid) transferFunction).getSlope();
+        } else if (transferFunction instanceof Linear) {
+            activations[layer] = Activation.Linear;
+            slopes[layer] = ((Linear) transferFunction).getSlope();
+        } else {
+            throw new IllegalArgumentException("Unsupported transfer function: "
+                    + transferFunction.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Computes the column of the weight matrix of each neuron of a layer, the
+     * bias neuron being mapped to the last column.
+     *
+     * @param layer The layer feeding the weight matrix.
+     * @return The column of each neuron, in the order of the layer.
+     */
+    private static int[] columnIndices(Layer layer) {
+        int[] columns = new int[layer.getNeuronsCount()];
+        int biasColumn = countNonBias(layer);
+        int column = 0;
+        for (int i = 0; i < columns.length; ++i) {
+            columns[i] = layer.getNeuronAt(i) instanceof BiasNeuron ? biasColumn : column++;
+        }
+        return columns;
+    }
+
+    private static int countNonBias(Layer layer) {
+        int count = 0;
+        for (Neuron neuron : layer.getNeurons()) {
+            if (!(neuron instanceof BiasNeuron)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Neuron firstNonBias(Layer layer) {
+        for (Neuron neuron : layer.getNeurons()) {
+            if (!(neuron instanceof BiasNeuron)) {
+                return neuron;
+            }
+        }
+        throw new IllegalArgumentException("Layer without neurons");
+    }
+}
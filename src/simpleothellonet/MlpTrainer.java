@@ -0,0 +1,415 @@
+package simpleothellonet;
+
+import java.util.stream.IntStream;
+
+/**
+ * Backpropagation on the flat weights of an MlpEvaluator, for the temporal
+ * difference updates of NeuralNetworkPlayer. Each board is learned through
+ * its eight symmetries, all trained towards the same target. The inputs are
+ * written into a reusable buffer, and are trained by mini-batches: once the
+ * buffer holds the given number of boards, the whole batch is propagated
+ * forward and backward, and the summed gradients are applied in a single pass
+ * over the weights. With a batch of one board, each TD update is applied
+ * immediately, as with Neuroph.
+ *
+ * Each layer is computed as a matrix product with the Kernels of the
+ * evaluator, by blocks of rows so that each input is loaded once for several
+ * neurons. Large products are split by rows
+ * over the common fork-join pool; small ones run on the calling thread, and
+ * then allocate nothing.
+ *
+ * Neuroph applies the gradient of each sample before computing the next one,
+ * whereas the gradients of a batch are here summed and applied together. With
+ * small learning rates the two updates are very close, but not identical. The
+ * learning rate applies to each sample, so it may need to be lowered for large
+ * batches.
+ *
+ * The weights are updated in place, so the evaluator always plays with the
+ * latest ones. An instance must not be used by several threads at once.
+ */
+public class MlpTrainer {
+
+    /**
+     * Number of samples of each board: the board and its seven symmetries.
+     */
+    static final int SYMMETRY_COUNT = 8;
+
+    /**
+     * Number of multiply-adds above which a matrix product is split over
+     * several threads.
+     */
+    private static final long PARALLEL_WORK = 1 << 18;
+
+    /**
+     * The evaluator whose weights are trained.
+     */
+    private final MlpEvaluator evaluator;
+
+    /**
+     * The kernels of the evaluator.
+     */
+    private final Kernels kernels;
+
+    private final double learningRate;
+
+    /**
+     * Number of inputs of the network per cell of the board.
+     */
+    private final int inputPerCell;
+
+    /**
+     * Maximum number of samples of a batch.
+     */
+    private final int capacity;
+
+    /**
+     * True if large products may be split over several threads.
+     */
+    private final boolean parallel = Runtime.getRuntime().availableProcessors() > 1;
+
+    /**
+     * The inputs of the samples of the batch, one after the other.
+     */
+    private final double[] inputs;
+
+    /**
+     * The target of each sample of the batch.
+     */
+    private final double[] targets;
+
+    /**
+     * The factor of the learning rate of each sample of the batch.
+     */
+    private final double[] sampleWeights;
+
+    /**
+     * Number of samples in the batch.
+     */
+    private int sampleCount = 0;
+
+    /**
+     * Outputs of each layer after the input one, one row per sample.
+     */
+    private final double[][] outputs;
+
+    /**
+     * Error gradients with respect to the weighted sum of each neuron, for
+     * each layer after the input one and each sample.
+     */
+    private final double[][] deltas;
+
+    /**
+     * Creates a trainer applying each update immediately.
+     *
+     * @param evaluator The evaluator whose weights are trained.
+     * @param inputPerCell The number of inputs per cell of the board.
+     * @param learningRate The learning rate.
+     */
+    public MlpTrainer(MlpEvaluator evaluator, int inputPerCell, double learningRate) {
+        this(evaluator, inputPerCell, learningRate, 1);
+    }
+
+    /**
+     * Creates a trainer learning by mini-batches.
+     *
+     * @param evaluator The evaluator whose weights are trained.
+     * @param inputPerCell The number of inputs per cell of the board.
+     * @param learningRate The learning rate.
+     * @param batchBoards The number of boards of each batch.
+     */
+    public MlpTrainer(MlpEvaluator evaluator, int inputPerCell, double learningRate,
+            int batchBoards) {
+        this.evaluator = evaluator;
+        kernels = evaluator.getKernels();
+        this.inputPerCell = inputPerCell;
+        this.learningRate = learningRate;
+        int[] layerSizes = evaluator.layerSizes;
+        capacity = SYMMETRY_COUNT * batchBoards;
+        inputs = new double[capacity * layerSizes[0]];
+        targets = new double[capacity];
+        sampleWeights = new double[capacity];
+        outputs = new double[layerSizes.length - 1][];
+        deltas = new double[layerSizes.length - 1][];
+        for (int l = 0; l < outputs.length; ++l) {
+            outputs[l] = new double[capacity * layerSizes[l + 1]];
+            deltas[l] = new double[capacity * layerSizes[l + 1]];
+        }
+    }
+
+    /**
+     * Adds a board and all its symmetries to the batch, and trains the
+     * network on the batch if it is full.
+     *
+     * @param boardInput The network input of the board. It is not kept.
+     * @param target The value the network should give.
+     */
+    public void learn(double[] boardInput, double target) {
+        learn(boardInput, target, 1);
+    }
+
+    /**
+     * Adds a board and all its symmetries to the batch like learn, with a
+     * learning rate scaled by a factor, for instance the importance-sampling
+     * weight of a replayed example.
+     *
+     * @param boardInput The network input of the board. It is not kept.
+     * @param target The value the network should give.
+     * @param weight The factor of the learning rate for this board.
+     */
+    public void learn(double[] boardInput, double target, double weight) {
+        writeSymmetries(boardInput, target, weight);
+        if (sampleCount == capacity) {
+            flush();
+        }
+    }
+
+    /**
+     * Trains the network on the boards of the batch, even if it is not full.
+     */
+    public void flush() {
+        if (sampleCount == 0) {
+            return;
+        }
+        forward();
+        backward();
+        updateWeights();
+        sampleCount = 0;
+    }
+
+    /**
+     * Returns the number of boards waiting in the batch.
+     *
+     * @return The number of boards.
+     */
+    public int getPendingBoards() {
+        return sampleCount / SYMMETRY_COUNT;
+    }
+
+    /**
+     * Writes the input of each symmetry of the board at the end of the batch,
+     * as NeuralNetworkPlayer.generateBoardSymmetries does.
+     *
+     * @param boardInput The network input of the board.
+     * @param target The value the network should give.
+     * @param weight The factor of the learning rate for this board.
+     */
+    private void writeSymmetries(double[] boardInput, double target, double weight) {
+        int inputSize = boardInput.length;
+        for (int s = 0; s < SYMMETRY_COUNT; ++s) {
+            int[] symmetry = NeuralNetworkPlayer.SYMMETRIES[s];
+            int offset = sampleCount * inputSize;
+            for (int i = 0; i < NeuralNetworkPlayer.NUMBER_CELLS; ++i) {
+                int inputIdx = offset + i * inputPerCell;
+                int mappedIdx = symmetry[i] * inputPerCell;
+                for (int j = 0; j < inputPerCell; ++j) {
+                    inputs[inputIdx + j] = boardInput[mappedIdx + j];
+                }
+            }
+            targets[sampleCount] = target;
+            sampleWeights[sampleCount] = weight;
+            sampleCount++;
+        }
+    }
+
+    private void forward() {
+        int[] layerSizes = evaluator.layerSizes;
+        double[] layerInputs = inputs;
+        for (int l = 0; l < outputs.length; ++l) {
+            int layer = l;
+            double[] in = layerInputs;
+            int outputSize = layerSizes[l + 1];
+            if (isParallel((long) sampleCount * layerSizes[l] * outputSize)) {
+                runParallel(outputSize, (start, end) -> forwardRows(layer, in, start, end));
+            } else {
+                forwardRows(l, in, 0, outputSize);
+            }
+            layerInputs = outputs[l];
+        }
+    }
+
+    /**
+     * Computes the outputs of some neurons of a layer for all samples, with
+     * the kernels of the evaluator. Each sum is computed as by
+     * MlpEvaluator.evaluate.
+     *
+     * @param l The index of the layer, the input one excluded.
+     * @param layerInputs The outputs of the previous layer.
+     * @param start The first neuron.
+     * @param end The neuron after the last one.
+     */
+    private void forwardRows(int l, double[] layerInputs, int start, int end) {
+        double[] layerWeights = evaluator.weights[l];
+        double[] layerOutputs = outputs[l];
+        int inputSize = evaluator.layerSizes[l];
+        int outputSize = evaluator.layerSizes[l + 1];
+        int rowLength = inputSize + 1;
+        for (int b = 0; b < sampleCount; ++b) {
+            int outputOffset = b * outputSize + start;
+            kernels.dotRows(layerInputs, b * inputSize, layerWeights, start * rowLength,
+                    rowLength, end - start, inputSize, layerOutputs, outputOffset);
+            for (int j = start; j < end; ++j) {
+                layerOutputs[b * outputSize + j] += layerWeights[j * rowLength + inputSize];
+            }
+            evaluator.activateAll(l, layerOutputs, outputOffset, end - start);
+        }
+    }
+
+    /**
+     * Computes the deltas of all neurons, for the squared error between the
+     * first output and the target. The other outputs, if any, are not
+     * trained. The error of each sample is scaled by its weight, which scales
+     * all its deltas and thus its step.
+     */
+    private void backward() {
+        int[] layerSizes = evaluator.layerSizes;
+        int last = outputs.length - 1;
+        int outputSize = layerSizes[last + 1];
+        for (int b = 0; b < sampleCount; ++b) {
+            for (int j = 0; j < outputSize; ++j) {
+                int index = b * outputSize + j;
+                double error = j == 0
+                        ? sampleWeights[b] * (targets[b] - outputs[last][index]) : 0;
+                deltas[last][index] = error * derivative(last, outputs[last][index]);
+            }
+        }
+
+        for (int l = last - 1; l >= 0; --l) {
+            int layer = l;
+            if (isParallel((long) sampleCount * layerSizes[l + 1] * layerSizes[l + 2])) {
+                runParallel(sampleCount, (start, end) -> backwardSamples(layer, start, end));
+            } else {
+                backwardSamples(l, 0, sampleCount);
+            }
+        }
+    }
+
+    /**
+     * Computes the deltas of a hidden layer for some samples, from the deltas
+     * of the next layer.
+     *
+     * @param l The index of the layer, the input one excluded.
+     * @param start The first sample.
+     * @param end The sample after the last one.
+     */
+    private void backwardSamples(int l, int start, int end) {
+        double[] nextWeights = evaluator.weights[l + 1];
+        double[] nextDeltas = deltas[l + 1];
+        double[] layerDeltas = deltas[l];
+        double[] layerOutputs = outputs[l];
+        int size = evaluator.layerSizes[l + 1];
+        int nextSize = evaluator.layerSizes[l + 2];
+        int rowLength = size + 1;
+        for (int b = start; b < end; ++b) {
+            int index = b * size;
+            for (int i = 0; i < size; ++i) {
+                layerDeltas[index + i] = 0;
+            }
+            // Rows of the next layer, so that the weights are read in order
+            for (int k = 0; k < nextSize; ++k) {
+                kernels.axpy(nextDeltas[b * nextSize + k], nextWeights, k * rowLength,
+                        layerDeltas, index, size);
+            }
+            for (int i = 0; i < size; ++i) {
+                layerDeltas[index + i] *= derivative(l, layerOutputs[index + i]);
+            }
+        }
+    }
+
+    /**
+     * Adds the gradients of the batch to the weights, in a single pass over
+     * each weight matrix. Each layer uses the deltas computed with the
+     * weights before the update.
+     */
+    private void updateWeights() {
+        int[] layerSizes = evaluator.layerSizes;
+        for (int l = 0; l < outputs.length; ++l) {
+            int layer = l;
+            int outputSize = layerSizes[l + 1];
+            if (isParallel((long) sampleCount * layerSizes[l] * outputSize)) {
+                runParallel(outputSize, (start, end) -> updateRows(layer, start, end));
+            } else {
+                updateRows(l, 0, outputSize);
+            }
+        }
+    }
+
+    /**
+     * Adds the gradients of the batch to some rows of a weight matrix.
+     *
+     * @param l The index of the layer, the input one excluded.
+     * @param start The first row.
+     * @param end The row after the last one.
+     */
+    private void updateRows(int l, int start, int end) {
+        double[] layerWeights = evaluator.weights[l];
+        double[] layerInputs = l == 0 ? inputs : outputs[l - 1];
+        double[] layerDeltas = deltas[l];
+        int inputSize = evaluator.layerSizes[l];
+        int outputSize = evaluator.layerSizes[l + 1];
+        int rowLength = inputSize + 1;
+        for (int j = start; j < end; ++j) {
+            int offset = j * rowLength;
+            for (int b = 0; b < sampleCount; ++b) {
+                double step = learningRate * layerDeltas[b * outputSize + j];
+                if (step == 0) {
+                    continue;
+                }
+                kernels.axpy(step, layerInputs, b * inputSize, layerWeights, offset, inputSize);
+                layerWeights[offset + inputSize] += step;
+            }
+        }
+    }
+
+    /**
+     * Computes the derivative of the transfer function of a layer, from the
+     * output of the neuron, with the same formulas as Neuroph. For tanh, it
+     * ignores the slope as Neuroph does, which is exact for its default slope
+     * of 2.
+     *
+     * @param layer The index of the layer, the input one excluded.
+     * @param output The output of the neuron.
+     * @return The derivative with respect to the weighted sum.
+     */
+    private double derivative(int layer, double output) {
+        double slope = evaluator.slopes[layer];
+        switch (evaluator.activations[layer]) {
+            case Tanh:
+                return 1 - output * output;
+            case Sigmoid:
+                return slope * output * (1 - output);
+            default:
+                return slope;
+        }
+    }
+
+    private boolean isParallel(long work) {
+        return parallel && work >= PARALLEL_WORK;
+    }
+
+    /**
+     * Splits a range into one block per available processor, and runs the
+     * blocks in the common fork-join pool.
+     *
+     * @param size The size of the range.
+     * @param task The task to run on each block.
+     */
+    private static void runParallel(int size, RangeTask task) {
+        int blocks = Math.min(size, Runtime.getRuntime().availableProcessors());
+        IntStream.range(0, blocks).parallel().forEach(
+                block -> task.run(size * block / blocks, size * (block + 1) / blocks));
+    }
+
+    /**
+     * Work on a range of rows or samples.
+     */
+    private interface RangeTask {
+
+        /**
+         * Runs the task on a range.
+         *
+         * @param start The start of the range.
+         * @param end The end of the range, excluded.
+         */
+        public void run(int start, int end);
+    }
+}
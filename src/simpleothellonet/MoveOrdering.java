@@ -0,0 +1,205 @@
+package simpleothellonet;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+/**
+ * Move ordering of the in-place alpha-beta search. Alpha-beta prunes more when
+ * the best moves are searched first, and this class sorts the moves of each
+ * ply using a combination of the following features:
+ * <ul>
+ * <li>a static priority of each cell, corners first and cells next to the
+ * corners last;</li>
+ * <li>killer moves, which are the last two moves that caused a cutoff at the
+ * same ply;</li>
+ * <li>a history table, counting how often each move caused a cutoff, weighted
+ * by the depth of the search.</li>
+ * </ul>
+ * The root can also be sorted by a shallow search, which is done by Minimax.
+ *
+ * An instance keeps the killers and history of one search, and must not be
+ * shared between threads.
+ */
+public class MoveOrdering {
+
+    /**
+     * The features that can be enabled.
+     */
+    public enum Feature {
+        SquarePriority,
+        Killers,
+        History,
+        RootPresort
+    }
+
+    /**
+     * Static priority of each cell, the higher the better. Corners are the
+     * best moves, and the cells next to them the worst, since they often give
+     * the corner to the opponent.
+     */
+    private static final int[] SQUARE_PRIORITY = {
+        9, 2, 8, 6, 6, 8, 2, 9,
+        2, 1, 3, 4, 4, 3, 1, 2,
+        8, 3, 7, 5, 5, 7, 3, 8,
+        6, 4, 5, 0, 0, 5, 4, 6,
+        6, 4, 5, 0, 0, 5, 4, 6,
+        8, 3, 7, 5, 5, 7, 3, 8,
+        2, 1, 3, 4, 4, 3, 1, 2,
+        9, 2, 8, 6, 6, 8, 2, 9
+    };
+
+    /**
+     * Bits of the score used by the square priority.
+     */
+    private static final int PRIORITY_BITS = 4;
+
+    /**
+     * Score shift of the killer moves, which are searched before all others.
+     */
+    private static final int KILLER_SHIFT = 40;
+
+    /**
+     * History value above which the whole table is halved, to keep the scores
+     * within their bits and give more weight to recent cutoffs.
+     */
+    private static final int MAX_HISTORY = 1 << 30;
+
+    private static final int NO_MOVE = -1;
+
+    private final EnumSet<Feature> features;
+
+    /**
+     * The two killer moves of each ply, the most recent first.
+     */
+    private int[][] killers = new int[0][];
+
+    /**
+     * Cutoff count of each move, weighted by the squared depth.
+     */
+    private final int[] history = new int[64];
+
+    /**
+     * Score of each move of each ply, reused between calls.
+     */
+    private long[][] scores = new long[0][];
+
+    /**
+     * Constructor.
+     *
+     * @param features The features to use. Without any, the moves are kept
+     * in the order of the cells.
+     */
+    public MoveOrdering(Feature... features) {
+        this.features = EnumSet.noneOf(Feature.class);
+        this.features.addAll(Arrays.asList(features));
+    }
+
+    /**
+     * Creates a new instance with the same features and empty tables, for use
+     * by another search.
+     *
+     * @return The new instance.
+     */
+    public MoveOrdering newInstance() {
+        return new MoveOrdering(features.toArray(new Feature[0]));
+    }
+
+    public boolean isEnabled(Feature feature) {
+        return features.contains(feature);
+    }
+
+    /**
+     * Sorts the moves of a ply, best first. The sort is stable, so that moves
+     * of equal score stay in the order of the cells.
+     *
+     * @param moves The moves, sorted in place.
+     * @param moveCount The number of moves.
+     * @param ply The distance of the board to the root.
+     */
+    public void order(int[] moves, int moveCount, int ply) {
+        ensurePlyCapacity(ply + 1);
+        long[] plyScores = scores[ply];
+        for (int i = 0; i < moveCount; ++i) {
+            plyScores[i] = score(moves[i], ply);
+        }
+        // Insertion sort, which is the fastest for so few moves
+        for (int i = 1; i < moveCount; ++i) {
+            int move = moves[i];
+            long score = plyScores[i];
+            int j = i - 1;
+            while (j >= 0 && plyScores[j] < score) {
+                moves[j + 1] = moves[j];
+                plyScores[j + 1] = plyScores[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            plyScores[j + 1] = score;
+        }
+    }
+
+    /**
+     * Records a move that caused a cutoff.
+     *
+     * @param move The move.
+     * @param ply The distance of the board to the root.
+     * @param depth The remaining depth of the search at this board.
+     */
+    public void onCutoff(int move, int ply, int depth) {
+        if (features.contains(Feature.Killers)) {
+            ensurePlyCapacity(ply + 1);
+            int[] plyKillers = killers[ply];
+            if (plyKillers[0] != move) {
+                plyKillers[1] = plyKillers[0];
+                plyKillers[0] = move;
+            }
+        }
+        if (features.contains(Feature.History)) {
+            history[move] += depth * depth;
+            if (history[move] > MAX_HISTORY) {
+                for (int i = 0; i < history.length; ++i) {
+                    history[i] /= 2;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the killers and history of previous searches.
+     */
+    public void clear() {
+        for (int[] plyKillers : killers) {
+            Arrays.fill(plyKillers, NO_MOVE);
+        }
+        Arrays.fill(history, 0);
+    }
+
+    private long score(int move, int ply) {
+        long score = 0;
+        if (features.contains(Feature.SquarePriority)) {
+            score += SQUARE_PRIORITY[move];
+        }
+        if (features.contains(Feature.History)) {
+            score += (long) history[move] << PRIORITY_BITS;
+        }
+        if (features.contains(Feature.Killers)) {
+            if (killers[ply][0] == move) {
+                score += 2L << KILLER_SHIFT;
+            } else if (killers[ply][1] == move) {
+                score += 1L << KILLER_SHIFT;
+            }
+        }
+        return score;
+    }
+
+    private void ensurePlyCapacity(int plies) {
+        if (killers.length < plies) {
+            int oldLength = killers.length;
+            killers = Arrays.copyOf(killers, plies);
+            scores = Arrays.copyOf(scores, plies);
+            for (int ply = oldLength; ply < plies; ++ply) {
+                killers[ply] = new int[]{NO_MOVE, NO_MOVE};
+                scores[ply] = new long[64];
+            }
+        }
+    }
+}
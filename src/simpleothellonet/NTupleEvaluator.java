@@ -0,0 +1,331 @@
+package simpleothellonet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Value function made of n-tuple patterns, as used by most Othello programs.
+ * Each pattern is a set of cells, whose contents index a table of weights, and
+ * the value of a board is the tanh of the sum of the weights of all patterns.
+ * An evaluation is then a few dozens of table lookups instead of the products
+ * of a network.
+ *
+ * Each pattern is applied to the 8 symmetries of the board, given by
+ * NeuralNetworkPlayer.SYMMETRIES, and the instances share the same table.
+ * Symmetries mapping a pattern onto its own cells, like the transposition of
+ * a corner or the mirror of an edge, give a single instance, whose cells are
+ * only read in another order. Its weights are kept symmetric instead: learning
+ * updates the entry of each order. The value of a board is thus the same for
+ * all its symmetries, and each board trains the weights of its symmetries.
+ *
+ * An instance has no buffers, so it can be evaluated by several threads at
+ * once, but not while it learns.
+ */
+public class NTupleEvaluator {
+
+    /**
+     * The default patterns: the corners, the edges with their X-squares, the
+     * inner rows and the diagonals. Cell i is on row i / 8 and column i % 8.
+     */
+    private static final int[][] DEFAULT_PATTERNS = {
+        {0, 1, 2, 8, 9, 10, 16, 17, 18},
+        {0, 1, 2, 3, 4, 8, 9, 10, 11, 12},
+        {9, 0, 1, 2, 3, 4, 5, 6, 7, 14},
+        {8, 9, 10, 11, 12, 13, 14, 15},
+        {16, 17, 18, 19, 20, 21, 22, 23},
+        {24, 25, 26, 27, 28, 29, 30, 31},
+        {0, 9, 18, 27, 36, 45, 54, 63},
+        {1, 10, 19, 28, 37, 46, 55},
+        {2, 11, 20, 29, 38, 47},
+        {3, 12, 21, 30, 39},
+        {4, 13, 22, 31}
+    };
+
+    private static final int MAGIC = 0x4e545550;
+    private static final int VERSION = 2;
+
+    /**
+     * The cells of each pattern, before the symmetries.
+     */
+    private final int[][] patterns;
+
+    /**
+     * The cells of each instance of the patterns, on a symmetry of the board.
+     */
+    private final int[][] instanceCells;
+
+    /**
+     * The other orders of the cells of each instance, given by the symmetries
+     * mapping its cells onto themselves, whose entries are updated with the
+     * one of the instance.
+     */
+    private final int[][][] instanceAliases;
+
+    /**
+     * Index in weights of the table of each instance.
+     */
+    private final int[] instanceOffsets;
+
+    /**
+     * Tables of all patterns, one after the other. The index of a weight in
+     * the table of a pattern is the number written in base 3 by its cells, 0
+     * for an empty cell, 1 for the player and 2 for the opponent.
+     */
+    private final float[] weights;
+
+    /**
+     * Creates an evaluator with the default patterns and null weights.
+     */
+    public NTupleEvaluator() {
+        this(DEFAULT_PATTERNS, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param patterns The cells of each pattern.
+     * @param weights The weights of the tables, or null to start from 0.
+     */
+    private NTupleEvaluator(int[][] patterns, float[] weights) {
+        this.patterns = patterns;
+        List<int[]> cellList = new ArrayList<>();
+        List<List<int[]>> aliasList = new ArrayList<>();
+        List<Integer> offsetList = new ArrayList<>();
+        int tableOffset = 0;
+        for (int[] pattern : patterns) {
+            // Instances of the pattern, by sorted cells
+            Map<List<Integer>, Integer> instances = new HashMap<>();
+            for (int[] symmetry : NeuralNetworkPlayer.SYMMETRIES) {
+                int[] cells = new int[pattern.length];
+                for (int k = 0; k < cells.length; ++k) {
+                    cells[k] = symmetry[pattern[k]];
+                }
+                List<Integer> key = sortedCells(cells);
+                Integer instance = instances.get(key);
+                if (instance == null) {
+                    instances.put(key, cellList.size());
+                    cellList.add(cells);
+                    aliasList.add(new ArrayList<>());
+                    offsetList.add(tableOffset);
+                } else if (!Arrays.equals(cells, cellList.get(instance))
+                        && !containsCells(aliasList.get(instance), cells)) {
+                    aliasList.get(instance).add(cells);
+                }
+            }
+            tableOffset += tableSize(pattern.length);
+        }
+        instanceCells = cellList.toArray(new int[0][]);
+        instanceAliases = new int[instanceCells.length][][];
+        instanceOffsets = new int[instanceCells.length];
+        for (int n = 0; n < instanceCells.length; ++n) {
+            instanceAliases[n] = aliasList.get(n).toArray(new int[0][]);
+            instanceOffsets[n] = offsetList.get(n);
+        }
+        if (weights == null) {
+            this.weights = new float[tableOffset];
+        } else if (weights.length == tableOffset) {
+            this.weights = weights;
+        } else {
+            throw new IllegalArgumentException("Invalid number of weights: " + weights.length);
+        }
+    }
+
+    /**
+     * Creates an evaluator with a copy of the weights of this one, not
+     * affected by later learning.
+     *
+     * @return The copy.
+     */
+    public NTupleEvaluator copy() {
+        return new NTupleEvaluator(patterns, weights.clone());
+    }
+
+    /**
+     * Evaluates a board for a player.
+     *
+     * @param player The tokens of the player.
+     * @param opponent The tokens of the opponent.
+     * @return The value of the board for the player, between -1 and 1.
+     */
+    public double evaluate(long player, long opponent) {
+        return Math.tanh(sum(player, opponent));
+    }
+
+    /**
+     * Moves the value of a board towards a target, by gradient descent on
+     * the squared error.
+     *
+     * @param player The tokens of the player.
+     * @param opponent The tokens of the opponent.
+     * @param target The target value of the board for the player.
+     * @param learningRate The learning rate, which is divided among the
+     * weights of all instances.
+     */
+    public void learn(long player, long opponent, double target, double learningRate) {
+        double value = evaluate(player, opponent);
+        float step = (float) (learningRate * (target - value) * (1 - value * value)
+                / instanceCells.length);
+        for (int n = 0; n < instanceCells.length; ++n) {
+            int offset = instanceOffsets[n];
+            int index = index(instanceCells[n], player, opponent);
+            weights[offset + index] += step;
+            int[][] aliases = instanceAliases[n];
+            for (int a = 0; a < aliases.length; ++a) {
+                // Same step for the other orders of the cells, each entry once
+                int aliasIndex = index(aliases[a], player, opponent);
+                if (aliasIndex != index && !isEarlierAlias(aliases, a, aliasIndex, player,
+                        opponent)) {
+                    weights[offset + aliasIndex] += step;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether an alias before the given one has the same index, so that
+     * learn updates each entry once.
+     */
+    private static boolean isEarlierAlias(int[][] aliases, int a, int aliasIndex, long player,
+            long opponent) {
+        for (int b = 0; b < a; ++b) {
+            if (index(aliases[b], player, opponent) == aliasIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the sum of the weights of all instances.
+     *
+     * @param player The tokens of the player.
+     * @param opponent The tokens of the opponent.
+     * @return The sum.
+     */
+    private double sum(long player, long opponent) {
+        double sum = 0;
+        for (int n = 0; n < instanceCells.length; ++n) {
+            sum += weights[instanceOffsets[n] + index(instanceCells[n], player, opponent)];
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the index of a board in the table of a pattern instance.
+     *
+     * @param cells The cells of the instance.
+     * @param player The tokens of the player.
+     * @param opponent The tokens of the opponent.
+     * @return The index.
+     */
+    private static int index(int[] cells, long player, long opponent) {
+        int index = 0;
+        for (int cell : cells) {
+            int state = (int) (player >>> cell & 1) | (int) (opponent >>> cell & 1) << 1;
+            index = index * 3 + state;
+        }
+        return index;
+    }
+
+    private static List<Integer> sortedCells(int[] cells) {
+        int[] sorted = cells.clone();
+        Arrays.sort(sorted);
+        List<Integer> list = new ArrayList<>(sorted.length);
+        for (int cell : sorted) {
+            list.add(cell);
+        }
+        return list;
+    }
+
+    private static boolean containsCells(List<int[]> cellLists, int[] cells) {
+        for (int[] other : cellLists) {
+            if (Arrays.equals(other, cells)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of pattern instances read by an evaluation.
+     *
+     * @return The number of instances.
+     */
+    public int getInstanceCount() {
+        return instanceCells.length;
+    }
+
+    private static int tableSize(int cellCount) {
+        int size = 1;
+        for (int k = 0; k < cellCount; ++k) {
+            size *= 3;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of weights of the tables.
+     *
+     * @return The number of weights.
+     */
+    public int getWeightCount() {
+        return weights.length;
+    }
+
+    /**
+     * Writes the patterns and weights to a file.
+     *
+     * @param path The file, replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path path) throws IOException {
+        int size = 3 * Integer.BYTES + weights.length * Float.BYTES;
+        for (int[] pattern : patterns) {
+            size += (1 + pattern.length) * Integer.BYTES;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(patterns.length);
+        for (int[] pattern : patterns) {
+            buffer.putInt(pattern.length);
+            for (int cell : pattern) {
+                buffer.putInt(cell);
+            }
+        }
+        buffer.asFloatBuffer().put(weights);
+        Files.write(path, buffer.array());
+    }
+
+    /**
+     * Reads an evaluator written by save.
+     *
+     * @param path The file.
+     * @return The evaluator.
+     * @throws IOException If the file cannot be read or is not an n-tuple
+     * evaluator.
+     */
+    public static NTupleEvaluator load(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 3 * Integer.BYTES || buffer.getInt() != MAGIC
+                || buffer.getInt() != VERSION) {
+            throw new IOException("Not an n-tuple evaluator file: " + path);
+        }
+        int[][] patterns = new int[buffer.getInt()][];
+        for (int p = 0; p < patterns.length; ++p) {
+            patterns[p] = new int[buffer.getInt()];
+            for (int k = 0; k < patterns[p].length; ++k) {
+                patterns[p][k] = buffer.getInt();
+            }
+        }
+        float[] weights = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(weights);
+        return new NTupleEvaluator(patterns, weights);
+    }
+}
@@ -0,0 +1,164 @@
+package simpleothellonet;
+
+import java.util.List;
+import java.util.Random;
+import simpleothellonet.ReversiBoard.Color;
+
+/**
+ * Reversi player learning with Temporal Difference Learning like
+ * NeuralNetworkPlayer, but with an NTupleEvaluator as value function. It uses
+ * the same linearly decreasing eps-greedy move selection.
+ */
+public class NTuplePlayer implements LearningPlayer {
+
+    private final NTupleEvaluator evaluator;
+
+    private final double learningRate;
+
+    /**
+     * Tokens of both players on the board of the previous turn, from the point
+     * of view of this player, for TD learning.
+     */
+    private long previousPlayer;
+    private long previousOpponent;
+    private boolean hasPrevious = false;
+
+    /**
+     * True if learning should be performed in the current game.
+     */
+    private boolean learnFromGame = true;
+
+    private int numberLearningGames;
+    private int learningGameCounter;
+
+    /**
+     * A random number generator. Used for eps-greedy move selection.
+     */
+    private final Random random = new Random();
+
+    /**
+     * Initial value of epsilon.
+     */
+    private final double epsilon_0 = 0.1;
+
+    /**
+     * Creates a player with the default patterns and null weights.
+     *
+     * @param learningRate The learning rate of the TD updates.
+     */
+    public NTuplePlayer(double learningRate) {
+        this(new NTupleEvaluator(), learningRate);
+    }
+
+    /**
+     * Creates a player with existing weights, for instance loaded with
+     * NTupleEvaluator.load.
+     *
+     * @param evaluator The value function, updated by this player when it
+     * learns.
+     * @param learningRate The learning rate of the TD updates.
+     */
+    public NTuplePlayer(NTupleEvaluator evaluator, double learningRate) {
+        this.evaluator = evaluator;
+        this.learningRate = learningRate;
+    }
+
+    @Override
+    public ReversiBoard playTurn(ReversiBoard board) {
+        Color ourColor = board.getTurnColor();
+        ReversiBoard bestBoard = null;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        List<Node> children = board.getChildren();
+
+        if (random.nextDouble() <= getEpsilon() && !children.isEmpty() && learnFromGame) {
+            // With probability epsilon, select a random child rather than the best one
+            bestBoard = (ReversiBoard) children.get(random.nextInt(children.size()));
+            bestValue = evaluateBoard(bestBoard, ourColor);
+        } else {
+            for (Node child : children) {
+                double value = evaluateBoard((ReversiBoard) child, ourColor);
+                if (value > bestValue) {
+                    bestBoard = (ReversiBoard) child;
+                    bestValue = value;
+                }
+            }
+        }
+
+        if (bestBoard != null && learnFromGame) {
+            if (hasPrevious) {
+                // Learn on this prediction, from the previous board (see TD learning)
+                evaluator.learn(previousPlayer, previousOpponent, bestValue, learningRate);
+            }
+            previousPlayer = bestBoard.getBits(ourColor);
+            previousOpponent = bestBoard.getBits(ourColor.getOpposite());
+            hasPrevious = true;
+        }
+        return bestBoard;
+    }
+
+    /**
+     * Learns from the game outcome.
+     *
+     * @param board The final board.
+     * @param ourColor The color of this player.
+     */
+    @Override
+    public void onGameOver(ReversiBoard board, Color ourColor) {
+        if (learnFromGame) {
+            double outcome;
+            Color winner = board.getWinner();
+            if (winner == ourColor) {
+                outcome = 1;
+            } else if (winner == ourColor.getOpposite()) {
+                outcome = -1;
+            } else {
+                outcome = 0;
+            }
+            if (hasPrevious) {
+                evaluator.learn(previousPlayer, previousOpponent, outcome, learningRate);
+            }
+            hasPrevious = false;
+            learningGameCounter += 1;
+        }
+    }
+
+    @Override
+    public void startLearningSession(int numberLearningGames) {
+        learningGameCounter = 0;
+        this.numberLearningGames = numberLearningGames;
+    }
+
+    @Override
+    public void setLearnFromGame(boolean learnFromGame) {
+        this.learnFromGame = learnFromGame;
+    }
+
+    @Override
+    public NTuplePlayer copyForPlay() {
+        NTuplePlayer copy = new NTuplePlayer(evaluator.copy(), learningRate);
+        copy.learnFromGame = false;
+        return copy;
+    }
+
+    public NTupleEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    private double evaluateBoard(ReversiBoard board, Color ourColor) {
+        return evaluator.evaluate(board.getBits(ourColor), board.getBits(ourColor.getOpposite()));
+    }
+
+    /**
+     * Calculates the value of epsilon, as NeuralNetworkPlayer does.
+     *
+     * @return epsilon
+     */
+    private double getEpsilon() {
+        double learningSessionProgress = (double) learningGameCounter / numberLearningGames;
+        if (learningSessionProgress >= 1) {
+            return 0;
+        } else {
+            return epsilon_0 * (1 - learningSessionProgress);
+        }
+    }
+}
@@ -0,0 +1,628 @@
+package simpleothellonet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import org.neuroph.nnet.MultiLayerPerceptron;
+import org.neuroph.util.TransferFunctionType;
+
+/**
+ * Benchmarks of the neural network evaluations, on networks shaped like the
+ * ones trained by Main.
+ */
+public class NetworkBenchmark {
+
+    /**
+     * Number of evaluations timed by each benchmark.
+     */
+    private static final int EVALUATIONS = 100000;
+
+    /**
+     * Learning rate of the NTuplePlayer compared to the network.
+     */
+    private static final double N_TUPLE_LEARNING_RATE = 0.5;
+
+    /**
+     * Runs the benchmark given as first argument.
+     *
+     * @param args The benchmark name.
+     */
+    public static void main(String[] args) {
+        String benchmark = args.length > 0 ? args[0] : "evaluator";
+        switch (benchmark) {
+            case "evaluator":
+                evaluator();
+                break;
+            case "batch":
+                batch();
+                break;
+            case "training":
+                training();
+                break;
+            case "kernels":
+                kernels();
+                break;
+            case "quantized":
+                quantized(args.length > 1 ? args[1] : "othello_1.nnet",
+                        args.length > 2 ? Integer.parseInt(args[2]) : 400);
+                break;
+            case "ntuple":
+                nTuple(args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+                break;
+            case "selfplay":
+                selfPlay(args.length > 1 ? Integer.parseInt(args[1]) : 200);
+                break;
+            case "inference":
+                inference(args.length > 1 ? Integer.parseInt(args[1])
+                        : 4 * Runtime.getRuntime().availableProcessors());
+                break;
+            default:
+                System.out.println("Unknown benchmark: " + benchmark);
+        }
+    }
+
+    /**
+     * Compares the MlpEvaluator with the Neuroph network it is copied from:
+     * the largest difference between their outputs, and their speed.
+     */
+    public static void evaluator() {
+        MultiLayerPerceptron network = createNetwork(Arrays.asList(50));
+        MlpEvaluator evaluator = new MlpEvaluator(network);
+        double[][] inputs = randomInputs(network.getInputsCount(), 1000);
+
+        double maxDifference = 0;
+        for (double[] input : inputs) {
+            network.setInput(input);
+            network.calculate();
+            double difference = Math.abs(network.getOutput()[0] - evaluator.evaluate(input));
+            maxDifference = Math.max(maxDifference, difference);
+        }
+        System.out.println("% max difference " + maxDifference);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < EVALUATIONS; ++i) {
+            network.setInput(inputs[i % inputs.length]);
+            network.calculate();
+        }
+        double neurophRate = EVALUATIONS * 1e9 / (System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < EVALUATIONS; ++i) {
+            evaluator.evaluate(inputs[i % inputs.length]);
+        }
+        double evaluatorRate = EVALUATIONS * 1e9 / (System.nanoTime() - start);
+
+        System.out.println("% neuroph(eval/s) evaluator(eval/s) speedup");
+        System.out.println(String.format(Locale.ROOT, "%.0f %.0f %.1f", neurophRate, evaluatorRate,
+                evaluatorRate / neurophRate));
+    }
+
+    /**
+     * Compares the evaluation of the children of a board one by one and in a
+     * single batch, for batches of the typical number of legal moves.
+     */
+    public static void batch() {
+        MultiLayerPerceptron network = createNetwork(Arrays.asList(50));
+        MlpEvaluator evaluator = new MlpEvaluator(network);
+        int inputSize = evaluator.getInputSize();
+        double[][] inputs = randomInputs(inputSize, BatchHeuristic.MAX_BATCH_SIZE);
+        double[] batchInputs = new double[inputs.length * inputSize];
+        for (int i = 0; i < inputs.length; ++i) {
+            System.arraycopy(inputs[i], 0, batchInputs, i * inputSize, inputSize);
+        }
+        double[] values = new double[inputs.length];
+
+        System.out.println("% batch single(eval/s) batched(eval/s) speedup");
+        // Warm up, then measure
+        evaluateSingle(evaluator, inputs, inputs.length, values);
+        evaluateBatched(evaluator, batchInputs, inputs.length, values);
+        for (int batchSize = 4; batchSize <= 16; batchSize += 4) {
+            double singleRate = evaluateSingle(evaluator, inputs, batchSize, values);
+            double batchRate = evaluateBatched(evaluator, batchInputs, batchSize, values);
+            System.out.println(batchSize + " " + String.format(Locale.ROOT, "%.0f %.0f %.2f",
+                    singleRate, batchRate, batchRate / singleRate));
+        }
+    }
+
+    /**
+     * Evaluates EVALUATIONS inputs one at a time, by groups of children.
+     *
+     * @return The number of evaluations per second.
+     */
+    private static double evaluateSingle(MlpEvaluator evaluator, double[][] inputs,
+            int batchSize, double[] values) {
+        long start = System.nanoTime();
+        for (int i = 0; i < EVALUATIONS; i += batchSize) {
+            for (int b = 0; b < batchSize; ++b) {
+                values[b] = evaluator.evaluate(inputs[b]);
+            }
+        }
+        return EVALUATIONS * 1e9 / (System.nanoTime() - start);
+    }
+
+    /**
+     * Evaluates EVALUATIONS inputs by batches of children.
+     *
+     * @return The number of evaluations per second.
+     */
+    private static double evaluateBatched(MlpEvaluator evaluator, double[] batchInputs,
+            int batchSize, double[] values) {
+        long start = System.nanoTime();
+        for (int i = 0; i < EVALUATIONS; i += batchSize) {
+            evaluator.evaluateBatch(batchInputs, batchSize, values);
+        }
+        return EVALUATIONS * 1e9 / (System.nanoTime() - start);
+    }
+
+    /**
+     * Compares the speed of the TD updates of NeuralNetworkPlayer on the
+     * eight symmetries of a board, with Neuroph and with an MlpTrainer for
+     * several mini-batch sizes.
+     */
+    public static void training() {
+        double[][] inputs = randomInputs(NeuralNetworkPlayer.NUMBER_CELLS, 1000);
+        int updates = EVALUATIONS / 10;
+
+        NeuralNetworkPlayer player = createPlayer();
+        long start = System.nanoTime();
+        for (int i = 0; i < updates; ++i) {
+            player.learn(inputs[i % inputs.length], 0.5);
+        }
+        double neurophRate = updates * 1e9 / (System.nanoTime() - start);
+
+        System.out.println("% batch updates/s speedup");
+        System.out.println("neuroph " + String.format(Locale.ROOT, "%.0f 1.0", neurophRate));
+        player.setFastTraining(true);
+        for (int batchSize = 1; batchSize <= 256; batchSize *= 4) {
+            player.setMiniBatchSize(batchSize);
+            start = System.nanoTime();
+            for (int i = 0; i < updates; ++i) {
+                player.learn(inputs[i % inputs.length], 0.5);
+            }
+            double trainerRate = updates * 1e9 / (System.nanoTime() - start);
+            System.out.println(batchSize + " " + String.format(Locale.ROOT, "%.0f %.1f", trainerRate,
+                    trainerRate / neurophRate));
+        }
+    }
+
+    /**
+     * Compares the scalar and vector kernels on networks with two hidden
+     * layers of 50, 128 and 256 neurons: the speed of the evaluations, with
+     * Neuroph for reference, and of mini-batch updates of 16 boards, and the
+     * largest difference of the outputs with Neuroph.
+     */
+    public static void kernels() {
+        Kernels[] kernels = Kernels.vector() == null
+                ? new Kernels[]{Kernels.scalar()}
+                : new Kernels[]{Kernels.scalar(), Kernels.vector()};
+        if (kernels.length == 1) {
+            System.out.println("% vector kernels unavailable, add --add-modules jdk.incubator.vector");
+        }
+        double[][] inputs = randomInputs(NeuralNetworkPlayer.NUMBER_CELLS, 1000);
+        int updates = EVALUATIONS / 10;
+
+        System.out.println("% hidden kernels eval/s eval-speedup updates/s max-difference");
+        for (int hidden = 50; hidden <= 256; hidden = hidden == 50 ? 128 : hidden * 2) {
+            MultiLayerPerceptron network = createNetwork(Arrays.asList(hidden, hidden));
+            long start = System.nanoTime();
+            for (int i = 0; i < EVALUATIONS; ++i) {
+                network.setInput(inputs[i % inputs.length]);
+                network.calculate();
+            }
+            double neurophRate = EVALUATIONS * 1e9 / (System.nanoTime() - start);
+            System.out.println(hidden + " neuroph "
+                    + String.format(Locale.ROOT, "%.0f 1.0 - 0", neurophRate));
+
+            for (Kernels kernel : kernels) {
+                MlpEvaluator evaluator = new MlpEvaluator(network);
+                evaluator.setKernels(kernel);
+                double maxDifference = 0;
+                for (double[] input : inputs) {
+                    network.setInput(input);
+                    network.calculate();
+                    double difference = Math.abs(network.getOutput()[0] - evaluator.evaluate(input));
+                    maxDifference = Math.max(maxDifference, difference);
+                }
+
+                start = System.nanoTime();
+                for (int i = 0; i < EVALUATIONS; ++i) {
+                    evaluator.evaluate(inputs[i % inputs.length]);
+                }
+                double evaluatorRate = EVALUATIONS * 1e9 / (System.nanoTime() - start);
+
+                MlpTrainer trainer = new MlpTrainer(evaluator, 1, 0.02, 16);
+                start = System.nanoTime();
+                for (int i = 0; i < updates; ++i) {
+                    trainer.learn(inputs[i % inputs.length], 0.5);
+                }
+                double trainerRate = updates * 1e9 / (System.nanoTime() - start);
+
+                System.out.println(hidden + " " + kernel.getName() + " " + String.format(Locale.ROOT,
+                        "%.0f %.1f %.0f %.2e", evaluatorRate, evaluatorRate / neurophRate,
+                        trainerRate, maxDifference));
+            }
+        }
+    }
+
+    /**
+     * Reports the effect of quantizing a trained network on 8 and 16 bits:
+     * the difference of the evaluations with the original network on random
+     * positions, the speed of the evaluations with Neuroph, the MlpEvaluator
+     * and the quantized network, the size of the saved networks, and the
+     * results of the quantized network against the original one. Each player
+     * of these games first plays random moves, so that the games differ.
+     *
+     * @param nnetFilename The network, saved by saveNetworkToFile.
+     * @param games The number of games played by each quantized network.
+     */
+    public static void quantized(String nnetFilename, int games) {
+        MultiLayerPerceptron network
+                = (MultiLayerPerceptron) MultiLayerPerceptron.createFromFile(nnetFilename);
+        NeuralNetworkPlayer player = new NeuralNetworkPlayer(nnetFilename, true);
+        MlpEvaluator evaluator = new MlpEvaluator(network);
+        Random random = new Random(42);
+        double[][] inputs = new double[1000][];
+        for (int i = 0; i < inputs.length; ++i) {
+            ReversiBoard board = null;
+            while (board == null) {
+                board = SearchBenchmark.randomPosition(4 + random.nextInt(52), random);
+            }
+            inputs[i] = new double[evaluator.getInputSize()];
+            player.writeInput(board.getPlayerBits(), board.getOpponentBits(), inputs[i], 0);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < EVALUATIONS; ++i) {
+            network.setInput(inputs[i % inputs.length]);
+            network.calculate();
+        }
+        double neurophRate = EVALUATIONS * 1e9 / (System.nanoTime() - start);
+        start = System.nanoTime();
+        for (int i = 0; i < EVALUATIONS; ++i) {
+            evaluator.evaluate(inputs[i % inputs.length]);
+        }
+        double evaluatorRate = EVALUATIONS * 1e9 / (System.nanoTime() - start);
+        long neurophSize = new File(nnetFilename).length();
+        System.out.println("% model eval/s speedup bytes mean-error max-error winrate lower upper");
+        System.out.println("neuroph " + String.format(Locale.ROOT, "%.0f 1.0 %d 0 0 - - -", neurophRate,
+                neurophSize));
+        System.out.println("evaluator " + String.format(Locale.ROOT, "%.0f %.1f - 0 0 - - -", evaluatorRate,
+                evaluatorRate / neurophRate));
+
+        MatchRunner runner = new MatchRunner(Runtime.getRuntime().availableProcessors());
+        for (int bits = 8; bits <= 16; bits *= 2) {
+            QuantizedEvaluator quantized = player.quantize(bits);
+            double meanError = 0;
+            double maxError = 0;
+            for (double[] input : inputs) {
+                double error = Math.abs(quantized.evaluate(input) - evaluator.evaluate(input));
+                meanError += error / inputs.length;
+                maxError = Math.max(maxError, error);
+            }
+
+            start = System.nanoTime();
+            for (int i = 0; i < EVALUATIONS; ++i) {
+                quantized.evaluate(inputs[i % inputs.length]);
+            }
+            double quantizedRate = EVALUATIONS * 1e9 / (System.nanoTime() - start);
+
+            long size;
+            try {
+                Path path = Files.createTempFile("othello", ".qnet");
+                quantized.save(path);
+                size = Files.size(path);
+                Files.delete(path);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot save the quantized network", e);
+            }
+
+            int quantizedBits = bits;
+            MatchRunner.Result result = runner.play(
+                    () -> new RandomOpeningPlayer(
+                            new NeuralNetworkPlayer(player.quantize(quantizedBits)), 4),
+                    () -> new RandomOpeningPlayer(player.copyForPlay(), 4), games);
+            System.out.println("int" + bits + " " + String.format(Locale.ROOT, "%.0f %.1f %d %.2e %.2e ",
+                    quantizedRate, quantizedRate / neurophRate, size, meanError, maxError)
+                    + result);
+        }
+        runner.shutdown();
+    }
+
+    /**
+     * Compares the NTuplePlayer with a NeuralNetworkPlayer with 50 hidden
+     * neurons and the fast training. Each one learns by self-play with the TD
+     * loop of NetworkTrainer, then plays 100 games against a depth 3 minimax.
+     * Their evaluations per second, including the encoding of the boards, are
+     * measured on random positions, and they finally play against each other,
+     * starting with random moves so that the games differ.
+     *
+     * @param games The number of learning games of each player.
+     */
+    public static void nTuple(int games) {
+        ReversiPlayer opponent = new MinimaxPlayer(3, MinimaxPlayer::binkleyHeuristic);
+        Random random = new Random(42);
+        ReversiBoard[] positions = new ReversiBoard[1000];
+        for (int i = 0; i < positions.length; ++i) {
+            while (positions[i] == null) {
+                positions[i] = SearchBenchmark.randomPosition(4 + random.nextInt(52), random);
+            }
+        }
+
+        System.out.println("% player games/s eval/s winrate");
+        NeuralNetworkPlayer network = createPlayer();
+        NeuralNetworkPlayer networkOpponent = createPlayer();
+        network.setFastTraining(true);
+        networkOpponent.setFastTraining(true);
+        MlpEvaluator evaluator = network.createSnapshot();
+        double[] input = new double[evaluator.getInputSize()];
+        trainAndCompare("network", network, networkOpponent, games, opponent, positions, board -> {
+            network.writeInput(board.getPlayerBits(), board.getOpponentBits(), input, 0);
+            return evaluator.evaluate(input);
+        });
+
+        NTuplePlayer nTuple = new NTuplePlayer(N_TUPLE_LEARNING_RATE);
+        NTuplePlayer nTupleOpponent = new NTuplePlayer(N_TUPLE_LEARNING_RATE);
+        NTupleEvaluator nTupleEvaluator = nTuple.getEvaluator();
+        trainAndCompare("ntuple", nTuple, nTupleOpponent, games, opponent, positions,
+                board -> nTupleEvaluator.evaluate(board.getPlayerBits(), board.getOpponentBits()));
+
+        MatchRunner runner = new MatchRunner(Runtime.getRuntime().availableProcessors());
+        MatchRunner.Result result = runner.play(
+                () -> new RandomOpeningPlayer(nTuple.copyForPlay(), 4),
+                () -> new RandomOpeningPlayer(network.copyForPlay(), 4), 200);
+        runner.shutdown();
+        System.out.println("% ntuple against network: winrate lower upper");
+        System.out.println(result);
+    }
+
+    /**
+     * Trains a learning player by self-play, and prints its training speed,
+     * its evaluation speed and its winning rate against an opponent.
+     *
+     * @param name The name of the player in the output.
+     * @param player The player.
+     * @param selfPlayOpponent Another instance of the player, learning in the
+     * same games.
+     * @param games The number of learning games.
+     * @param opponent The opponent of the testing games.
+     * @param positions The positions evaluated to measure the speed.
+     * @param evaluation The evaluation of a board by the player.
+     */
+    private static void trainAndCompare(String name, LearningPlayer player,
+            LearningPlayer selfPlayOpponent, int games, ReversiPlayer opponent,
+            ReversiBoard[] positions, ToDoubleFunction<ReversiBoard> evaluation) {
+        NetworkTrainer trainer = new NetworkTrainer(1, games, 100, opponent, player,
+                selfPlayOpponent);
+        player.startLearningSession(games);
+        selfPlayOpponent.startLearningSession(games);
+        player.setLearnFromGame(true);
+        selfPlayOpponent.setLearnFromGame(true);
+        long start = System.nanoTime();
+        trainer.runGames(player, selfPlayOpponent, games);
+        double gameRate = games * 1e9 / (System.nanoTime() - start);
+        player.setLearnFromGame(false);
+        double winRate = trainer.runGames(player, opponent, 100);
+
+        double sum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < EVALUATIONS; ++i) {
+            sum += evaluation.applyAsDouble(positions[i % positions.length]);
+        }
+        double evaluationRate = EVALUATIONS * 1e9 / (System.nanoTime() - start);
+        if (Double.isNaN(sum)) {
+            System.out.println("% invalid evaluations");
+        }
+        System.out.println(name + " " + String.format(Locale.ROOT, "%.1f %.0f %.2f", gameRate,
+                evaluationRate, winRate));
+    }
+
+    /**
+     * Player playing random moves at the start of the game, and then the moves
+     * of another player.
+     */
+    private static class RandomOpeningPlayer implements ReversiPlayer {
+
+        private final ReversiPlayer player;
+        private final int randomPlies;
+
+        /**
+         * Constructor.
+         *
+         * @param player The player playing after the random moves.
+         * @param randomPlies The number of plies of the game, counting the
+         * ones of both players, before which random moves are played.
+         */
+        RandomOpeningPlayer(ReversiPlayer player, int randomPlies) {
+            this.player = player;
+            this.randomPlies = randomPlies;
+        }
+
+        @Override
+        public ReversiBoard playTurn(ReversiBoard board) {
+            int plies = NeuralNetworkPlayer.NUMBER_CELLS - 4 - board.getEmptyCount();
+            List<Node> children = board.getChildren();
+            if (plies >= randomPlies || children.isEmpty()) {
+                return player.playTurn(board);
+            }
+            return (ReversiBoard) children.get(ThreadLocalRandom.current().nextInt(children.size()));
+        }
+
+        @Override
+        public void onGameOver(ReversiBoard board, ReversiBoard.Color ourColor) {
+            player.onGameOver(board, ourColor);
+        }
+    }
+
+    /**
+     * Measures the number of learning games per second of the parallel
+     * training, for 1, 2, 4, ... actor threads up to the number of available
+     * processors, and of the serial training for reference. After each run,
+     * the first network plays 100 games against a depth 3 minimax, to compare
+     * the strength learned by each mode from the same number of games.
+     *
+     * @param games The number of learning games of each run.
+     */
+    public static void selfPlay(int games) {
+        int maxActors = Runtime.getRuntime().availableProcessors();
+        ReversiPlayer opponent = new MinimaxPlayer(3, MinimaxPlayer::positionalHeuristic);
+
+        System.out.println("% actors games/s winrate");
+        for (int actors = 0; actors <= maxActors; actors = actors == 0 ? 1 : actors * 2) {
+            NeuralNetworkPlayer network1 = createPlayer();
+            NeuralNetworkPlayer network2 = createPlayer();
+            NetworkTrainer trainer = new NetworkTrainer(1, games, 100, opponent, network1, network2);
+            long start = System.nanoTime();
+            if (actors == 0) {
+                // Serial training, with the same code as NetworkTrainer.train
+                network1.startLearningSession(games);
+                network2.startLearningSession(games);
+                trainer.runGames(network1, network2, games);
+            } else {
+                try {
+                    trainer.runParallelGames(actors, games);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            double rate = games * 1e9 / (System.nanoTime() - start);
+            network1.setLearnFromGame(false);
+            double winRate = trainer.runGames(network1, opponent, 100);
+            System.out.println((actors == 0 ? "serial" : Integer.toString(actors))
+                    + " " + String.format(Locale.ROOT, "%.1f %.2f", rate, winRate));
+        }
+    }
+
+    /**
+     * Compares the aggregate speed of many threads evaluating boards one at a
+     * time, as the players of concurrent games do, first each with its own
+     * copy of the network, then through an inference service batching their
+     * boards, with several maximum waits.
+     *
+     * @param threads The number of threads evaluating boards.
+     */
+    public static void inference(int threads) {
+        inference(new MlpEvaluator(createNetwork(Arrays.asList(50))), threads);
+    }
+
+    static void inference(MlpEvaluator evaluator, int threads) {
+        double[][] inputs = randomInputs(evaluator.getInputSize(), 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        int maxBatchSize = BatchHeuristic.MAX_BATCH_SIZE;
+
+        System.out.println("% " + threads + " threads");
+        System.out.println("% evaluator max-wait(us) eval/s speedup statistics");
+        Supplier<ToDoubleFunction<double[]>> ownEvaluator = () -> {
+            MlpEvaluator copy = evaluator.copy();
+            return copy::evaluate;
+        };
+        // Warm up, then measure
+        evaluateOnThreads(executor, threads, inputs, ownEvaluator);
+        double ownRate = evaluateOnThreads(executor, threads, inputs, ownEvaluator);
+        System.out.println("per-thread - " + String.format(Locale.ROOT, "%.0f 1.00", ownRate));
+        for (long maxWait : new long[]{0, 20, 100, 500}) {
+            InferenceService service = new InferenceService(evaluator.copy(), maxBatchSize, maxWait);
+            // Warm up, then measure
+            evaluateOnThreads(executor, threads, inputs, () -> service::evaluate);
+            service.resetStatistics();
+            double rate = evaluateOnThreads(executor, threads, inputs, () -> service::evaluate);
+            System.out.println("service " + maxWait + " " + String.format(Locale.ROOT, "%.0f %.2f",
+                    rate, rate / ownRate) + " " + service);
+            service.shutdown();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Evaluates EVALUATIONS inputs, shared among several threads evaluating
+     * them one at a time.
+     *
+     * @param executor The executor running the threads.
+     * @param threads The number of threads.
+     * @param inputs The inputs, evaluated in turn.
+     * @param evaluatorFactory Creates the evaluation function of each thread.
+     * @return The number of evaluations per second of all threads together.
+     */
+    private static double evaluateOnThreads(ExecutorService executor, int threads,
+            double[][] inputs, Supplier<ToDoubleFunction<double[]>> evaluatorFactory) {
+        List<Future<?>> futures = new ArrayList<>(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; ++t) {
+            int first = t;
+            futures.add(executor.submit(() -> {
+                ToDoubleFunction<double[]> evaluate = evaluatorFactory.get();
+                for (int i = first; i < EVALUATIONS; i += threads) {
+                    evaluate.applyAsDouble(inputs[i % inputs.length]);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+        return EVALUATIONS * 1e9 / (System.nanoTime() - start);
+    }
+
+    /**
+     * Creates a learning player with the parameters of Main.
+     *
+     * @return The player.
+     */
+    private static NeuralNetworkPlayer createPlayer() {
+        return new NeuralNetworkPlayer(TransferFunctionType.TANH, 1, Arrays.asList(50), 0.02);
+    }
+
+    /**
+     * Creates a randomly initialized network with the encoding of one input
+     * per cell, as trained by Main.
+     *
+     * @param hiddenLayerSizes The sizes of the hidden layers.
+     * @return The network.
+     */
+    static MultiLayerPerceptron createNetwork(List<Integer> hiddenLayerSizes) {
+        Integer[] neuronsInLayers = new Integer[hiddenLayerSizes.size() + 2];
+        neuronsInLayers[0] = NeuralNetworkPlayer.NUMBER_CELLS;
+        for (int i = 0; i < hiddenLayerSizes.size(); ++i) {
+            neuronsInLayers[i + 1] = hiddenLayerSizes.get(i);
+        }
+        neuronsInLayers[neuronsInLayers.length - 1] = 1;
+        MultiLayerPerceptron network = new MultiLayerPerceptron(
+                Arrays.asList(neuronsInLayers), TransferFunctionType.TANH);
+        network.randomizeWeights();
+        return network;
+    }
+
+    /**
+     * Generates random board inputs, with values -1, 0 and 1.
+     *
+     * @param inputSize The size of each input.
+     * @param count The number of inputs.
+     * @return The inputs.
+     */
+    static double[][] randomInputs(int inputSize, int count) {
+        Random random = new Random(42);
+        double[][] inputs = new double[count][inputSize];
+        for (double[] input : inputs) {
+            for (int i = 0; i < inputSize; ++i) {
+                input[i] = random.nextInt(3) - 1;
+            }
+        }
+        return inputs;
+    }
+}
@@ -1,5 +1,18 @@
 package simpleothellonet;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import simpleothellonet.ReversiBoard.Color;
 
 /**
@@ -8,20 +21,58 @@ import simpleothellonet.ReversiBoard.Color;
  */
 public class NetworkTrainer {
 
+    /**
+     * Number of training examples learned between two snapshots of the
+     * weights published to the actors of the parallel training.
+     */
+    private static final int SNAPSHOT_INTERVAL = 500;
+
+    /**
+     * Maximum number of training examples waiting for the learner. Actors
+     * block when it is reached, so that they do not play too far ahead of the
+     * weights.
+     */
+    private static final int QUEUE_CAPACITY = 4096;
+
+    /**
+     * Identifiers of the players in the game log.
+     */
+    public static final int OTHER_PLAYER_ID = 0;
+    public static final int NETWORK1_ID = 1;
+    public static final int NETWORK2_ID = 2;
+    public static final int VALIDATION_OPPONENT_ID = 3;
+
     private final int numberEpoch;
     private final int learningGamesPerEpoch;
     private final int testingGamesPerEpoch;
     private final ReversiPlayer validationOpponent;
-    private final NeuralNetworkPlayer network1;
-    private final NeuralNetworkPlayer network2;
+    private final LearningPlayer network1;
+    private final LearningPlayer network2;
+
+    /**
+     * Runner of the testing games, or null to play them on the calling
+     * thread.
+     */
+    private MatchRunner matchRunner = null;
+
+    /**
+     * Creates an instance of the validation opponent for each worker of the
+     * match runner.
+     */
+    private Supplier<? extends ReversiPlayer> validationOpponentFactory = null;
+
+    /**
+     * Log of the games played, or null.
+     */
+    private GameLog gameLog = null;
 
     public NetworkTrainer(
             int numberEpoch,
             int learningGamesPerEpoch,
             int testingGamesPerEpoch,
             ReversiPlayer validationOpponent,
-            NeuralNetworkPlayer network1,
-            NeuralNetworkPlayer network2) {
+            LearningPlayer network1,
+            LearningPlayer network2) {
         this.numberEpoch = numberEpoch;
         this.learningGamesPerEpoch = learningGamesPerEpoch;
         this.testingGamesPerEpoch = testingGamesPerEpoch;
@@ -31,7 +82,36 @@ public class NetworkTrainer {
     }
 
     /**
-     * Trains two neural network players, and prints the result of the learning.
+     * Plays the testing games of train, trainParallel and test on several
+     * threads. The networks are tested on copies of their weights, and each
+     * worker plays against its own instance of the validation opponent.
+     *
+     * @param matchRunner The runner of the games, or null to play them on the
+     * calling thread.
+     * @param validationOpponentFactory Creates instances of the validation
+     * opponent, equivalent to the one given to the constructor.
+     */
+    public void setMatchRunner(MatchRunner matchRunner,
+            Supplier<? extends ReversiPlayer> validationOpponentFactory) {
+        this.matchRunner = matchRunner;
+        this.validationOpponentFactory = validationOpponentFactory;
+    }
+
+    /**
+     * Records the learning and testing games played by train, trainParallel
+     * and test in a log, with the identifiers NETWORK1_ID, NETWORK2_ID,
+     * VALIDATION_OPPONENT_ID and OTHER_PLAYER_ID, including the games played
+     * by the match runner.
+     *
+     * @param gameLog The log, which the caller closes after the training, or
+     * null to log nothing.
+     */
+    public void setGameLog(GameLog gameLog) {
+        this.gameLog = gameLog;
+    }
+
+    /**
+     * Trains two learning players, and prints the result of the learning.
      */
     public void train() {
         network1.startLearningSession(numberEpoch * learningGamesPerEpoch);
@@ -45,23 +125,276 @@ public class NetworkTrainer {
             network1.setLearnFromGame(true);
             double adversarialRate = runGames(network1, network2, learningGamesPerEpoch);
             network1.setLearnFromGame(false); // Disable learning for the sake of testing
-            double testingRate = runGames(network1, validationOpponent, testingGamesPerEpoch);
-
-            System.out.println(adversarialRate + " " + testingRate);
+            System.out.println(adversarialRate + " " + testNetwork1());
 
             // Estimate remaining time until end of learning session
             long epochDuration = System.currentTimeMillis() - epochStart;
             epochStart = System.currentTimeMillis();
             averageEpochDuration = ((epoch * averageEpochDuration) + epochDuration) / (epoch + 1);
-            long remainingTime = ((numberEpoch - epoch) * averageEpochDuration) / 1000;
-            System.out.println("% Estimated remaining time: "
-                    + String.format("%d hours, %02d minutes",
-                            remainingTime / 3600, (remainingTime % 3600) / 60));
+            printRemainingTime(epoch, averageEpochDuration);
+        }
+    }
+
+    /**
+     * Trains the two neural network players like train, with the learning
+     * games played in parallel. Actor threads play the games with snapshots
+     * of the weights, and send the training examples of each move to the
+     * calling thread, which is the only one to update the networks. New
+     * snapshots are published every SNAPSHOT_INTERVAL examples, so the actors
+     * play with slightly outdated weights. The testing games are played as in
+     * train, on the calling thread. Both players must be instances of
+     * NeuralNetworkPlayer.
+     *
+     * @param actorCount The number of threads playing the learning games.
+     * @throws IllegalArgumentException If the players given to the
+     * constructor are not both instances of NeuralNetworkPlayer.
+     */
+    public void trainParallel(int actorCount) {
+        checkNeuralNetworkPlayers();
+        ExecutorService executor = Executors.newFixedThreadPool(actorCount, runnable -> {
+            Thread thread = new Thread(runnable, "training-actor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            ParallelSession session = new ParallelSession((NeuralNetworkPlayer) network1,
+                    (NeuralNetworkPlayer) network2, actorCount, numberEpoch * learningGamesPerEpoch);
+            long averageEpochDuration = 0;
+            long epochStart = System.currentTimeMillis();
+
+            for (int epoch = 0; epoch < numberEpoch; epoch++) {
+                double adversarialRate = session.runEpoch(executor, learningGamesPerEpoch);
+                network1.setLearnFromGame(false);
+                System.out.println(adversarialRate + " " + testNetwork1());
+
+                long epochDuration = System.currentTimeMillis() - epochStart;
+                epochStart = System.currentTimeMillis();
+                averageEpochDuration = ((epoch * averageEpochDuration) + epochDuration) / (epoch + 1);
+                printRemainingTime(epoch, averageEpochDuration);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Plays learning games in parallel without testing, as trainParallel
+     * does, in order to measure the training throughput.
+     *
+     * @param actorCount The number of threads playing the learning games.
+     * @param games The number of learning games.
+     * @return The winning rate of the first network.
+     * @throws InterruptedException If the calling thread is interrupted.
+     * @throws IllegalArgumentException If the players given to the
+     * constructor are not both instances of NeuralNetworkPlayer.
+     */
+    double runParallelGames(int actorCount, int games) throws InterruptedException {
+        checkNeuralNetworkPlayers();
+        ExecutorService executor = Executors.newFixedThreadPool(actorCount);
+        try {
+            return new ParallelSession((NeuralNetworkPlayer) network1,
+                    (NeuralNetworkPlayer) network2, actorCount, games).runEpoch(executor, games);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks that both learning players can be trained in parallel, which
+     * requires the actors and snapshots of NeuralNetworkPlayer.
+     *
+     * @throws IllegalArgumentException If one of them is another kind of
+     * player.
+     */
+    private void checkNeuralNetworkPlayers() {
+        if (!(network1 instanceof NeuralNetworkPlayer)
+                || !(network2 instanceof NeuralNetworkPlayer)) {
+            throw new IllegalArgumentException(
+                    "The parallel training requires neural network players");
         }
     }
 
+    /**
+     * State of a parallel training: the actors, their queue of training
+     * examples, and the current snapshots of the weights.
+     */
+    private class ParallelSession {
+
+        private final BlockingQueue<Transition> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        private final NeuralNetworkPlayer learner1;
+        private final NeuralNetworkPlayer learner2;
+
+        private final AtomicReference<MlpEvaluator> snapshot1 = new AtomicReference<>();
+        private final AtomicReference<MlpEvaluator> snapshot2 = new AtomicReference<>();
+
+        /**
+         * Pairs of players of each actor thread, playing with the snapshots
+         * of network1 and network2.
+         */
+        private final NeuralNetworkPlayer[][] actors;
+
+        private long updateCount = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param learner1 The first network, learning from the games.
+         * @param learner2 The second network, learning from the games.
+         * @param actorCount The number of actor threads.
+         * @param totalGames The number of learning games of the session, used
+         * for the epsilon schedule.
+         */
+        ParallelSession(NeuralNetworkPlayer learner1, NeuralNetworkPlayer learner2,
+                int actorCount, int totalGames) {
+            this.learner1 = learner1;
+            this.learner2 = learner2;
+            actors = new NeuralNetworkPlayer[actorCount][];
+            for (int i = 0; i < actorCount; ++i) {
+                actors[i] = new NeuralNetworkPlayer[]{
+                    learner1.createActor((input, target) -> send(learner1, input, target)),
+                    learner2.createActor((input, target) -> send(learner2, input, target))
+                };
+                // The games are shared evenly, so that the epsilon schedule of
+                // each actor follows the progress of the whole session
+                for (NeuralNetworkPlayer actor : actors[i]) {
+                    actor.startLearningSession(totalGames / actorCount);
+                }
+            }
+            publishSnapshots();
+        }
+
+        /**
+         * Plays learning games on the actor threads, and learns from them on
+         * the calling thread until they are all over.
+         *
+         * @param executor The executor running the actors.
+         * @param games The number of games to play.
+         * @return The winning rate of the first network.
+         * @throws InterruptedException If the calling thread is interrupted.
+         */
+        double runEpoch(ExecutorService executor, int games) throws InterruptedException {
+            LongAdder winCount = new LongAdder();
+            List<Future<?>> futures = new ArrayList<>(actors.length);
+            for (int i = 0; i < actors.length; ++i) {
+                NeuralNetworkPlayer[] players = actors[i];
+                int actorGames = games / actors.length + (i < games % actors.length ? 1 : 0);
+                futures.add(executor.submit(() -> playGames(players, actorGames, winCount)));
+            }
+
+            while (!allDone(futures) || !queue.isEmpty()) {
+                Transition transition = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (transition != null) {
+                    transition.learner.learn(transition.boardInput, transition.target);
+                    if (++updateCount % SNAPSHOT_INTERVAL == 0) {
+                        publishSnapshots();
+                    }
+                }
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Actor failed", e.getCause());
+                }
+            }
+            publishSnapshots();
+            return winCount.doubleValue() / games;
+        }
+
+        /**
+         * Plays games between the two players of an actor thread, on the
+         * latest snapshots of the weights.
+         *
+         * @param players The players of the thread.
+         * @param games The number of games to play.
+         * @param winCount Counter of the games won by the first player.
+         */
+        private void playGames(NeuralNetworkPlayer[] players, int games, LongAdder winCount) {
+            MlpEvaluator current1 = null;
+            MlpEvaluator current2 = null;
+            for (int count = 0; count < games; count++) {
+                MlpEvaluator latest1 = snapshot1.get();
+                MlpEvaluator latest2 = snapshot2.get();
+                if (latest1 != current1) {
+                    players[0].setSnapshot(latest1);
+                    current1 = latest1;
+                }
+                if (latest2 != current2) {
+                    players[1].setSnapshot(latest2);
+                    current2 = latest2;
+                }
+                ReversiBoard lastBoard = count % 2 == 0
+                        ? playGame(players[0], players[1], NETWORK1_ID, NETWORK2_ID)
+                        : playGame(players[1], players[0], NETWORK2_ID, NETWORK1_ID);
+                if (lastBoard.getWinner() == firstPlayerColor(count)) {
+                    winCount.increment();
+                }
+            }
+        }
+
+        private void send(NeuralNetworkPlayer learner, double[] boardInput, double target) {
+            try {
+                queue.put(new Transition(learner, boardInput, target));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted actor", e);
+            }
+        }
+
+        private void publishSnapshots() {
+            snapshot1.set(learner1.createSnapshot());
+            snapshot2.set(learner2.createSnapshot());
+        }
+    }
+
+    /**
+     * Training example sent by an actor to the learner.
+     */
+    private static class Transition {
+
+        final NeuralNetworkPlayer learner;
+        final double[] boardInput;
+        final double target;
+
+        Transition(NeuralNetworkPlayer learner, double[] boardInput, double target) {
+            this.learner = learner;
+            this.boardInput = boardInput;
+            this.target = target;
+        }
+    }
+
+    private static boolean allDone(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void printRemainingTime(int epoch, long averageEpochDuration) {
+        long remainingTime = ((numberEpoch - epoch) * averageEpochDuration) / 1000;
+        System.out.println("% Estimated remaining time: "
+                + String.format(Locale.ROOT, "%d hours, %02d minutes",
+                        remainingTime / 3600, (remainingTime % 3600) / 60));
+    }
+
     public void test() {
         for (int plyDepth = 1; plyDepth < 7; plyDepth++) {
+            if (matchRunner != null) {
+                int depth = plyDepth;
+                Supplier<ReversiPlayer> opponent = () -> new MinimaxPlayer(depth, MinimaxPlayer::binkleyHeuristic);
+                MatchRunner.Result result0 = matchRunner.play(network1::copyForPlay, opponent, 100,
+                        gameLog, NETWORK1_ID, OTHER_PLAYER_ID);
+                MatchRunner.Result result1 = matchRunner.play(network2::copyForPlay, opponent, 100,
+                        gameLog, NETWORK2_ID, OTHER_PLAYER_ID);
+                System.out.println(plyDepth + " " + result0 + " " + result1);
+                continue;
+            }
             ReversiPlayer opponent = new MinimaxPlayer(plyDepth, MinimaxPlayer::binkleyHeuristic);
             double winningRate0 = runGames(network1, opponent, 100);
             double winningRate1 = runGames(network2, opponent, 100);
@@ -69,6 +402,21 @@ public class NetworkTrainer {
         }
     }
 
+    /**
+     * Plays the testing games of an epoch between the first network and the
+     * validation opponent, with the match runner if there is one.
+     *
+     * @return The winning rate of the network, followed by its confidence
+     * interval if the games were played by the match runner.
+     */
+    private String testNetwork1() {
+        if (matchRunner != null) {
+            return matchRunner.play(network1::copyForPlay, validationOpponentFactory,
+                    testingGamesPerEpoch, gameLog, NETWORK1_ID, VALIDATION_OPPONENT_ID).toString();
+        }
+        return Double.toString(runGames(network1, validationOpponent, testingGamesPerEpoch));
+    }
+
     /**
      * Runs a certain amount of games with the given players.
      *
@@ -77,19 +425,64 @@ public class NetworkTrainer {
      * @param iterations The number of games that should be played.
      * @param learnFromTheseGames true if the players should learn from this game,
      * if they are instances of NeuralNetworkPlayer.
-     * @return The winning rate of the first player.
+     * @return The winning rate of the first player, draws counting as lost
+     * games.
      */
-    private double runGames(ReversiPlayer firstPlayer, ReversiPlayer secondPlayer, int iterations) {
+    double runGames(ReversiPlayer firstPlayer, ReversiPlayer secondPlayer, int iterations) {
         double winCount = 0;
         ReversiPlayer[] players = {firstPlayer, secondPlayer};
 
         for (int count = 0; count < iterations; count++) {
-            ReversiBoard lastBoard = ReversiGame.playGame(players[count % 2], players[(count + 1) % 2]);
+            ReversiPlayer black = players[count % 2];
+            ReversiPlayer white = players[(count + 1) % 2];
+            ReversiBoard lastBoard = playGame(black, white, playerId(black), playerId(white));
             
-            if ((lastBoard.getWinner() == Color.Black) == (count % 2 == 0)) {
+            if (lastBoard.getWinner() == firstPlayerColor(count)) {
                 winCount += 1;
             }
         }
         return winCount / iterations;
     }
+
+    /**
+     * Returns the color of the first player of a match in one of its games.
+     * The players alternate, the first one playing black in the even games.
+     *
+     * @param count The index of the game.
+     * @return The color of the first player.
+     */
+    private static Color firstPlayerColor(int count) {
+        return count % 2 == 0 ? Color.Black : Color.White;
+    }
+
+    /**
+     * Plays a game, and logs it if there is a game log. The games are played
+     * by GameHistory.playGame whether they are logged or not, so that logging
+     * does not change them.
+     *
+     * @param black The player with the black tokens.
+     * @param white The player with the white tokens.
+     * @param blackId The identifier of the black player in the log.
+     * @param whiteId The identifier of the white player in the log.
+     * @return The board at the end of the game.
+     */
+    private ReversiBoard playGame(ReversiPlayer black, ReversiPlayer white, int blackId,
+            int whiteId) {
+        GameHistory game = GameHistory.playGame(black, white);
+        if (gameLog != null) {
+            gameLog.log(game, blackId, whiteId);
+        }
+        return game.getLast().toBoard();
+    }
+
+    private int playerId(ReversiPlayer player) {
+        if (player == network1) {
+            return NETWORK1_ID;
+        } else if (player == network2) {
+            return NETWORK2_ID;
+        } else if (player == validationOpponent) {
+            return VALIDATION_OPPONENT_ID;
+        }
+        return OTHER_PLAYER_ID;
+    }
 }
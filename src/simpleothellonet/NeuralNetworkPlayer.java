@@ -18,7 +18,7 @@ import simpleothellonet.ReversiBoard.Color;
  * perceptron. It also uses a linearly decreasing eps-greedy move selection
  * scheme.
  */
-public class NeuralNetworkPlayer implements ReversiPlayer {
+public class NeuralNetworkPlayer implements LearningPlayer {
 
     /**
      * The number of inputs of the neural network per grid cell.
@@ -29,11 +29,47 @@ public class NeuralNetworkPlayer implements ReversiPlayer {
 
     int inputSize;
 
+    /**
+     * The 8 symmetries of the board, as permutations of the cells: the input
+     * of cell i of a symmetry is the one of cell SYMMETRIES[s][i] of the
+     * board. The first one is the identity.
+     */
+    static final int[][] SYMMETRIES = generateSymmetries();
+
     /**
      * Instance of the Neuroph neural network
      */
     private MultiLayerPerceptron neuralNetwork;
 
+    /**
+     * Copy of the network on flat arrays, used for faster evaluations, or null
+     * to evaluate boards with Neuroph.
+     */
+    private MlpEvaluator evaluator = null;
+
+    /**
+     * Quantized network used instead of the other ones by players created
+     * from it, or null.
+     */
+    private QuantizedEvaluator quantizedEvaluator = null;
+
+    /**
+     * Service evaluating the boards of this player along with the ones of
+     * other players, used instead of the other evaluators, or null.
+     */
+    private InferenceService inferenceService = null;
+
+    /**
+     * Inputs of all the children of a board, evaluated in one batch by the
+     * MlpEvaluator.
+     */
+    private double[] batchInputs = null;
+
+    /**
+     * Values of the children evaluated in one batch.
+     */
+    private final double[] batchValues = new double[BatchHeuristic.MAX_BATCH_SIZE];
+
     /**
      * The learning rule object of the neural network. This is an implementation
      * detail, necessary to perform online learning.
@@ -65,23 +101,113 @@ public class NeuralNetworkPlayer implements ReversiPlayer {
     private final double epsilon_0 = 0.1;
 
     /**
-     * A list of functions that are used to generate symmetries of the board.
+     * Solver used instead of the network near the end of the game, or null.
+     */
+    private EndgameSolver endgameSolver = null;
+
+    /**
+     * Book of the moves played without evaluating the children at the start
+     * of the game, or null. It is only used when not learning, so that the
+     * games of the training still explore the openings.
+     */
+    private OpeningBook openingBook = null;
+
+    /**
+     * Destination of the training examples of an actor, or null if this player
+     * learns by itself.
+     */
+    private TransitionSink transitionSink = null;
+
+    /**
+     * Trainer updating the weights of the evaluator in place, or null to train
+     * the Neuroph network.
+     */
+    private MlpTrainer trainer = null;
+
+    /**
+     * Number of boards of each mini-batch of the trainer.
+     */
+    private int miniBatchSize = 1;
+
+    /**
+     * True if the trainer has updated the weights since they were last copied
+     * to the Neuroph network.
      */
-    private List<IntUnaryOperator> symmetryMappings;
+    private boolean networkOutdated = false;
+
+    /**
+     * Reusable buffer for the network input of boards, when the trainer is
+     * used.
+     */
+    private double[] inputBuffer = null;
+
+    /**
+     * Past training examples learned again at each move, or null.
+     */
+    private ReplayBuffer replayBuffer = null;
+
+    /**
+     * Number of examples drawn from the replay buffer at each move.
+     */
+    private int replaysPerMove = 0;
+
+    /**
+     * True to draw the replayed examples by priority rather than uniformly.
+     */
+    private boolean prioritizedReplay = false;
+
+    /**
+     * Reusable buffer for the network input of the replayed examples.
+     */
+    private double[] replayInput = null;
+
+    /**
+     * Initial exponent of the importance-sampling weights of prioritized
+     * replay. It grows linearly to 1 over the learning session, so that the
+     * bias of the sampling is fully corrected at the end.
+     */
+    private final double importanceExponent_0 = 0.4;
 
     /**
      * Constructor.
      */
     private NeuralNetworkPlayer() {
-        generateSymmetryMappings();
+    }
+
+    /**
+     * Creates a player playing with a quantized network, for instance loaded
+     * with QuantizedEvaluator.load. It does not learn. It can be copied with
+     * copyForPlay, but has no weights in floating point: saving it, creating
+     * snapshots, heuristics or inference services from it, or quantizing it
+     * again throws an IllegalStateException.
+     *
+     * @param quantizedEvaluator The network, used by this player only.
+     */
+    public NeuralNetworkPlayer(QuantizedEvaluator quantizedEvaluator) {
+        this.quantizedEvaluator = quantizedEvaluator;
+        inputSize = quantizedEvaluator.getInputSize();
+        inputPerCell = inputSize / NUMBER_CELLS;
+        learnFromGame = false;
     }
 
     public NeuralNetworkPlayer(String nnetFilename) {
+        this(nnetFilename, false);
+    }
+
+    /**
+     * Loads a network saved by saveNetworkToFile.
+     *
+     * @param nnetFilename The file of the network.
+     * @param fastEvaluation True to evaluate boards with an MlpEvaluator
+     * rather than with Neuroph.
+     */
+    public NeuralNetworkPlayer(String nnetFilename, boolean fastEvaluation) {
         this();
         System.out.println("Loading nnet from " + nnetFilename);
         neuralNetwork = (MultiLayerPerceptron) MultiLayerPerceptron.createFromFile(nnetFilename);
         inputSize = neuralNetwork.getInputsCount();
         inputPerCell = inputSize / NUMBER_CELLS;
+        setFastEvaluation(fastEvaluation);
     }
 
     public NeuralNetworkPlayer(
@@ -112,16 +238,46 @@ public class NeuralNetworkPlayer implements ReversiPlayer {
 
     @Override
     public ReversiBoard playTurn(ReversiBoard board) {
+        if (openingBook != null && !learnFromGame) {
+            ReversiBoard bookBoard = openingBook.play(board);
+            if (bookBoard != null) {
+                return bookBoard;
+            }
+        }
         Color ourColor = board.getTurnColor();
         // Find the next board with the highest evaluation by the neural network
         ReversiBoard bestBoard = null;
         double bestValue = Double.NEGATIVE_INFINITY;
         List<Node> children = board.getChildren();
 
-        // With probability epsilon, select a random child rather than the best one
-        if (random.nextDouble() <= getEpsilon() && !children.isEmpty() && learnFromGame) {
+        if (endgameSolver != null && endgameSolver.canSolve(board) && !children.isEmpty()) {
+            // Play perfectly, and learn from the exact outcome of the game
+            Minimax.Result solution = endgameSolver.solveWinLossDraw(board);
+            bestBoard = (ReversiBoard) solution.node;
+            bestValue = solution.heuristicValue;
+        } else if (random.nextDouble() <= getEpsilon() && !children.isEmpty() && learnFromGame) {
+            // With probability epsilon, select a random child rather than the best one
             bestBoard = (ReversiBoard) children.get(random.nextInt(children.size()));
             bestValue = evaluateBoard(bestBoard, ourColor);
+        } else if (evaluator != null || inferenceService != null) {
+            // Evaluate all children at once, and find the best one
+            if (batchInputs == null) {
+                batchInputs = new double[BatchHeuristic.MAX_BATCH_SIZE * inputSize];
+            }
+            for (int i = 0; i < children.size(); ++i) {
+                writeInput((ReversiBoard) children.get(i), ourColor, batchInputs, i * inputSize);
+            }
+            if (inferenceService != null) {
+                inferenceService.evaluateAll(batchInputs, children.size(), batchValues);
+            } else {
+                evaluator.evaluateBatch(batchInputs, children.size(), batchValues);
+            }
+            for (int i = 0; i < children.size(); ++i) {
+                if (batchValues[i] > bestValue) {
+                    bestBoard = (ReversiBoard) children.get(i);
+                    bestValue = batchValues[i];
+                }
+            }
         } else {
             // Find the best child board
             for (Node child : children) {
@@ -138,12 +294,234 @@ public class NeuralNetworkPlayer implements ReversiPlayer {
                 // Learn on this prediction, from the previous board (see TD learning)
                 learnFromBoard(previousBoardInput, bestValue);
             }
-            previousBoardInput = extractInput(bestBoard, ourColor);
+            previousBoardInput = nextBoardInput(bestBoard, ourColor);
         }
 
         return bestBoard;
     }
 
+    /**
+     * Sets an opening book, whose moves are played instead of evaluating the
+     * children in the positions it contains. The book is ignored while the
+     * player learns. It is shared with the copies made afterwards.
+     *
+     * @param openingBook The book, or null to always use the network.
+     */
+    public void setOpeningBook(OpeningBook openingBook) {
+        this.openingBook = openingBook;
+    }
+
+    /**
+     * Sets a solver to play perfectly once few cells are empty, instead of
+     * evaluating boards with the network. When learning, the network is then
+     * trained towards the exact outcome of these boards.
+     *
+     * @param endgameSolver The solver, or null to always use the network.
+     */
+    public void setEndgameSolver(EndgameSolver endgameSolver) {
+        this.endgameSolver = endgameSolver;
+    }
+
+    /**
+     * Chooses how boards are evaluated. The fast evaluation copies the weights
+     * of the network into an MlpEvaluator, which gives the same values as
+     * Neuroph. The copy is refreshed after each learning step.
+     *
+     * @param fastEvaluation True to use an MlpEvaluator, false to use Neuroph.
+     */
+    public void setFastEvaluation(boolean fastEvaluation) {
+        syncNetwork();
+        trainer = null;
+        evaluator = fastEvaluation ? new MlpEvaluator(neuralNetwork) : null;
+    }
+
+    /**
+     * Chooses how the network learns. The fast training updates the weights
+     * of the MlpEvaluator in place with an MlpTrainer, which allocates
+     * nothing, instead of training the Neuroph network. It enables the fast
+     * evaluation if needed, and is disabled by setFastEvaluation. The Neuroph
+     * network is updated when it is needed, for instance to be saved.
+     *
+     * @param fastTraining True to use an MlpTrainer, false to use Neuroph.
+     */
+    public void setFastTraining(boolean fastTraining) {
+        syncNetwork();
+        if (fastTraining) {
+            if (evaluator == null) {
+                evaluator = new MlpEvaluator(neuralNetwork);
+            }
+            trainer = new MlpTrainer(evaluator, inputPerCell, learningRule.getLearningRate(),
+                    miniBatchSize);
+        } else {
+            trainer = null;
+        }
+    }
+
+    /**
+     * Sets the number of boards learned together by the fast training. The
+     * TD updates of a batch are only applied once it is full, so the moves
+     * played meanwhile use slightly outdated weights. A size of 1 applies
+     * each update immediately.
+     *
+     * @param miniBatchSize The number of boards of each batch.
+     */
+    public void setMiniBatchSize(int miniBatchSize) {
+        this.miniBatchSize = miniBatchSize;
+        if (trainer != null) {
+            setFastTraining(true);
+        }
+    }
+
+    /**
+     * Creates an actor for parallel training: a player playing with a
+     * read-only snapshot of the current weights, and sending its training
+     * examples to a sink instead of learning from them. The actor can be used
+     * by another thread than this player, but cannot be saved or used to
+     * create heuristics.
+     *
+     * @param sink The destination of the training examples.
+     * @return The actor.
+     */
+    NeuralNetworkPlayer createActor(TransitionSink sink) {
+        NeuralNetworkPlayer actor = new NeuralNetworkPlayer();
+        actor.inputPerCell = inputPerCell;
+        actor.inputSize = inputSize;
+        actor.evaluator = createSnapshot();
+        actor.transitionSink = sink;
+        if (endgameSolver != null) {
+            actor.endgameSolver = new EndgameSolver(endgameSolver.getMaxEmpties());
+        }
+        return actor;
+    }
+
+    /**
+     * Creates a player playing with a copy of the current weights, without
+     * learning nor exploration. It can be used by another thread than this
+     * player, as long as this player does not learn meanwhile, and is not
+     * affected by later learning.
+     *
+     * @return The copy.
+     */
+    public NeuralNetworkPlayer copyForPlay() {
+        NeuralNetworkPlayer copy = new NeuralNetworkPlayer();
+        copy.inputPerCell = inputPerCell;
+        copy.inputSize = inputSize;
+        if (quantizedEvaluator != null) {
+            copy.quantizedEvaluator = quantizedEvaluator.copy();
+        } else {
+            copy.evaluator = createSnapshot();
+        }
+        copy.learnFromGame = false;
+        copy.openingBook = openingBook;
+        if (endgameSolver != null) {
+            copy.endgameSolver = new EndgameSolver(endgameSolver.getMaxEmpties());
+        }
+        return copy;
+    }
+
+    /**
+     * Creates a player like copyForPlay, but evaluating its boards with an
+     * inference service rather than with its own copy of the weights. When
+     * many such players run on several threads, the service evaluates their
+     * boards in batches.
+     *
+     * @param service The service, for instance created by
+     * createInferenceService.
+     * @return The copy.
+     */
+    public NeuralNetworkPlayer copyForPlay(InferenceService service) {
+        NeuralNetworkPlayer copy = new NeuralNetworkPlayer();
+        copy.inputPerCell = inputPerCell;
+        copy.inputSize = inputSize;
+        copy.inferenceService = service;
+        copy.learnFromGame = false;
+        copy.openingBook = openingBook;
+        if (endgameSolver != null) {
+            copy.endgameSolver = new EndgameSolver(endgameSolver.getMaxEmpties());
+        }
+        return copy;
+    }
+
+    /**
+     * Creates an inference service evaluating boards with a copy of the
+     * current weights, not affected by later learning.
+     *
+     * @param maxBatchSize The maximum number of boards of a batch.
+     * @param maxWaitMicros The maximum time to wait for more boards once the
+     * first board of a batch is taken, in microseconds.
+     * @return The service, to shut down once it is no longer used.
+     */
+    public InferenceService createInferenceService(int maxBatchSize, long maxWaitMicros) {
+        return new InferenceService(createSnapshot(), maxBatchSize, maxWaitMicros);
+    }
+
+    /**
+     * Quantizes the current weights of the network, to play faster with a
+     * smaller model once it is trained. The result can be saved, or given to
+     * the constructor to create a player.
+     *
+     * @param bits The number of bits of the weights, 8 or 16.
+     * @return The quantized network.
+     */
+    public QuantizedEvaluator quantize(int bits) {
+        syncNetwork();
+        return QuantizedEvaluator.quantize(new MlpEvaluator(neuralNetwork), bits);
+    }
+
+    /**
+     * Copies the current weights of the network, to be given to actors with
+     * setSnapshot. The snapshot is not modified by later learning.
+     *
+     * @return The snapshot.
+     */
+    MlpEvaluator createSnapshot() {
+        syncNetwork();
+        return new MlpEvaluator(neuralNetwork);
+    }
+
+    /**
+     * Makes an actor play with new weights.
+     *
+     * @param snapshot The weights, created by createSnapshot.
+     */
+    void setSnapshot(MlpEvaluator snapshot) {
+        evaluator = snapshot.copy();
+    }
+
+    /**
+     * Learns from a training example sent by an actor.
+     *
+     * @param boardInput The input of the board played by the actor.
+     * @param target The TD target of the board.
+     */
+    void learn(double[] boardInput, double target) {
+        learnFromBoard(boardInput, target);
+    }
+
+    /**
+     * Stores the training examples of this player in a replay buffer, and
+     * learns again from examples drawn from it at each move. With prioritized
+     * replay, the examples on which the network is the most wrong are drawn
+     * more often, and their updates are scaled by their importance-sampling
+     * weight.
+     *
+     * @param replayBuffer The buffer, possibly filled by a previous run, or
+     * null to learn from each example once.
+     * @param replaysPerMove The number of examples drawn at each move.
+     * @param prioritizedReplay True to draw the examples by priority, false to
+     * draw them uniformly.
+     */
+    public void setReplayBuffer(ReplayBuffer replayBuffer, int replaysPerMove,
+            boolean prioritizedReplay) {
+        this.replayBuffer = replayBuffer;
+        this.replaysPerMove = replaysPerMove;
+        this.prioritizedReplay = prioritizedReplay;
+    }
+
+    public ReplayBuffer getReplayBuffer() {
+        return replayBuffer;
+    }
+
     public void setLearnFromGame(boolean learnFromGame) {
         this.learnFromGame = learnFromGame;
     }
@@ -181,16 +559,106 @@ public class NeuralNetworkPlayer implements ReversiPlayer {
     }
 
     public void saveNetworkToFile(String nnetFilename) {
+        syncNetwork();
         neuralNetwork.save(nnetFilename);
     }
 
+    /**
+     * Trains the network on the pending boards of the trainer, and copies the
+     * weights it updated to the Neuroph network, if needed. It is
+     * synchronized since copies for play may be created by several threads
+     * at once.
+     *
+     * @throws IllegalStateException If the player has no Neuroph network,
+     * being a copy or playing with a quantized network.
+     */
+    private synchronized void syncNetwork() {
+        if (neuralNetwork == null) {
+            throw new IllegalStateException(quantizedEvaluator != null
+                    ? "A player with a quantized network has no weights to copy or save"
+                    : "A copy of a player has no network to copy or save");
+        }
+        if (networkOutdated) {
+            trainer.flush();
+            evaluator.storeWeights(neuralNetwork);
+            networkOutdated = false;
+        }
+    }
+
     private void learnFromBoard(double[] boardInput, double outcome) {
+        if (transitionSink != null) {
+            transitionSink.accept(boardInput, outcome);
+            return;
+        }
+        trainOn(boardInput, outcome);
+        if (replayBuffer != null) {
+            replayBuffer.add(inputBits(boardInput, 0), inputBits(boardInput, 1), outcome);
+            replay();
+        }
+    }
+
+    /**
+     * Learns again from examples drawn from the replay buffer. With
+     * prioritized replay, the learning rate of each example is scaled by its
+     * importance-sampling weight, and its priority is updated with the error
+     * of the network before learning it.
+     */
+    private void replay() {
+        if (replayInput == null) {
+            replayInput = new double[inputSize];
+        }
+        for (int r = 0; r < replaysPerMove; ++r) {
+            int index = prioritizedReplay ? replayBuffer.samplePrioritized(random)
+                    : replayBuffer.sampleUniform(random);
+            writeInput(replayBuffer.getPlayer(index), replayBuffer.getOpponent(index),
+                    replayInput, 0);
+            double target = replayBuffer.getTarget(index);
+            double weight = 1;
+            if (prioritizedReplay) {
+                weight = replayBuffer.getImportanceWeight(index, getImportanceExponent());
+                replayBuffer.setPriority(index, target - evaluateInput(replayInput));
+            }
+            trainOn(replayInput, target, weight);
+        }
+    }
+
+    /**
+     * Trains the network on a board and its symmetries, with the trainer if
+     * there is one, or else with Neuroph.
+     *
+     * @param boardInput The network input of the board.
+     * @param outcome The value the network should give.
+     */
+    private void trainOn(double[] boardInput, double outcome) {
+        trainOn(boardInput, outcome, 1);
+    }
+
+    /**
+     * Trains the network on a board and its symmetries like trainOn, with a
+     * learning rate scaled by a factor.
+     *
+     * @param boardInput The network input of the board.
+     * @param outcome The value the network should give.
+     * @param weight The factor of the learning rate.
+     */
+    private void trainOn(double[] boardInput, double outcome, double weight) {
+        if (trainer != null) {
+            trainer.learn(boardInput, outcome, weight);
+            networkOutdated = true;
+            return;
+        }
         DataSet trainingSet = new DataSet(inputSize, 1);
         // Learn from all symmetries of the board.
         for (double[] symmetry : generateBoardSymmetries(boardInput)) {
             trainingSet.addRow(new DataSetRow(symmetry, new double[]{outcome}));
         }
+        double learningRate = learningRule.getLearningRate();
+        learningRule.setLearningRate(learningRate * weight);
         learningRule.doOneLearningIteration(trainingSet);
+        learningRule.setLearningRate(learningRate);
+        if (evaluator != null) {
+            evaluator.loadWeights(neuralNetwork);
+        }
     }
 
     /**
@@ -204,32 +672,199 @@ public class NeuralNetworkPlayer implements ReversiPlayer {
     private double[] extractInput(ReversiBoard board, Color ourColor) {
         // Create input vector
         double[] input = new double[inputSize];
+        writeInput(board, ourColor, input, 0);
+        return input;
+    }
+
+    /**
+     * Returns the network input of the board just played, to be learned from
+     * at the next turn. The trainer does not keep its inputs, so a single
+     * buffer is reused once the previous input has been learned. Otherwise,
+     * and for actors which send their inputs away, a new array is created.
+     *
+     * @param board The board state.
+     * @param ourColor The color of this player on this board.
+     * @return The network input of the board.
+     */
+    private double[] nextBoardInput(ReversiBoard board, Color ourColor) {
+        if (trainer == null) {
+            return extractInput(board, ourColor);
+        }
+        if (inputBuffer == null) {
+            inputBuffer = new double[inputSize];
+        }
+        writeInput(board, ourColor, inputBuffer, 0);
+        return inputBuffer;
+    }
+
+    /**
+     * Writes the network input of a board in an existing array, as
+     * extractInput does.
+     *
+     * @param board The board state.
+     * @param ourColor The color of this player on this board.
+     * @param input The array receiving the input.
+     * @param offset The index of the first input value in the array.
+     */
+    private void writeInput(ReversiBoard board, Color ourColor, double[] input, int offset) {
+        writeInput(board.getBits(ourColor), board.getBits(ourColor.getOpposite()), input, offset);
+    }
+
+    /**
+     * Writes the network input of a board given by the tokens of each player.
+     * The input of cell i is given by bit i of the masks.
+     *
+     * @param player The tokens of this player.
+     * @param opponent The tokens of the opponent.
+     * @param input The array receiving the input.
+     * @param offset The index of the first input value in the array.
+     */
+    void writeInput(long player, long opponent, double[] input, int offset) {
         for (int i = 0; i < NUMBER_CELLS; ++i) {
-            int row = i / ReversiBoard.getGridSize();
-            int col = i % ReversiBoard.getGridSize();
-            Color cellValue = board.getValue(col, row);
+            boolean ours = (player >>> i & 1) != 0;
+            boolean theirs = (opponent >>> i & 1) != 0;
+            int index = offset + i * inputPerCell;
             switch (inputPerCell) {
                 case 1:
-                    input[i * inputPerCell + 0] = (cellValue == null ? 0 : (cellValue == ourColor ? 1 : -1));
+                    input[index + 0] = (ours ? 1 : (theirs ? -1 : 0));
                     break;
 
                 case 2:
-                    input[i * inputPerCell + 0] = (cellValue == ourColor ? 1 : -1);
-                    input[i * inputPerCell + 1] = (cellValue == ourColor.getOpposite() ? 1 : -1);
+                    input[index + 0] = (ours ? 1 : -1);
+                    input[index + 1] = (theirs ? 1 : -1);
                     break;
 
                 case 3:
-                    input[i * inputPerCell + 0] = (cellValue == ourColor ? 1 : -1);
-                    input[i * inputPerCell + 1] = (cellValue == ourColor.getOpposite() ? 1 : -1);
-                    input[i * inputPerCell + 2] = (cellValue == null ? 1 : -1);
+                    input[index + 0] = (ours ? 1 : -1);
+                    input[index + 1] = (theirs ? 1 : -1);
+                    input[index + 2] = (!ours && !theirs ? 1 : -1);
+            }
+        }
+    }
+
+    /**
+     * Recovers the tokens of a player from a network input, the inverse of
+     * writeInput.
+     *
+     * @param boardInput The network input of a board.
+     * @param player 0 for this player, 1 for the opponent.
+     * @return The tokens of the player.
+     */
+    private long inputBits(double[] boardInput, int player) {
+        long bits = 0;
+        for (int i = 0; i < NUMBER_CELLS; ++i) {
+            int index = i * inputPerCell;
+            boolean set;
+            if (inputPerCell == 1) {
+                set = boardInput[index] == (player == 0 ? 1 : -1);
+            } else {
+                set = boardInput[index + player] == 1;
+            }
+            if (set) {
+                bits |= 1L << i;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Creates a heuristic evaluating boards with this network, for the player
+     * whose turn it is, so that the network can be used as the heuristic of a
+     * minimax search. The heuristic works on a copy of the current weights,
+     * and evaluates sibling leaves of the search in batches.
+     *
+     * @return The heuristic.
+     */
+    public BatchHeuristic createHeuristic() {
+        syncNetwork();
+        return new NetworkHeuristic(new MlpEvaluator(neuralNetwork), null);
+    }
+
+    /**
+     * Creates a heuristic like createHeuristic, but evaluating boards with an
+     * inference service, so that the searches of several threads share its
+     * batches. Each thread must create its own heuristic.
+     *
+     * @param service The service, for instance created by
+     * createInferenceService.
+     * @return The heuristic.
+     */
+    public BatchHeuristic createHeuristic(InferenceService service) {
+        return new NetworkHeuristic(null, service);
+    }
+
+    /**
+     * Creates a heuristic like createHeuristic, but which updates the first
+     * hidden layer incrementally along the moves of the search instead of
+     * evaluating each board from scratch. It is faster for deep searches, and
+     * requires a network with at least one hidden layer.
+     *
+     * @return The heuristic.
+     */
+    public IncrementalHeuristic createIncrementalHeuristic() {
+        syncNetwork();
+        return new IncrementalEvaluator(new MlpEvaluator(neuralNetwork), inputPerCell);
+    }
+
+    /**
+     * Heuristic returned by createHeuristic.
+     */
+    private class NetworkHeuristic implements BatchHeuristic {
+
+        /**
+         * The network of this heuristic, or null to use the service.
+         */
+        private final MlpEvaluator heuristicEvaluator;
+        private final InferenceService service;
+        private final double[] input = new double[inputSize];
+        private final double[] inputs = new double[MAX_BATCH_SIZE * inputSize];
+
+        NetworkHeuristic(MlpEvaluator heuristicEvaluator, InferenceService service) {
+            this.heuristicEvaluator = heuristicEvaluator;
+            this.service = service;
+        }
+
+        @Override
+        public double applyAsDouble(Node node) {
+            ReversiBoard board = (ReversiBoard) node;
+            writeInput(board, board.getTurnColor(), input, 0);
+            if (heuristicEvaluator == null) {
+                return service.evaluate(input);
+            }
+            return heuristicEvaluator.evaluate(input);
+        }
+
+        @Override
+        public void addToBatch(ReversiBoard board, int index) {
+            writeInput(board, board.getTurnColor(), inputs, index * inputSize);
+        }
+
+        @Override
+        public void evaluateBatch(int count, double[] values) {
+            if (heuristicEvaluator == null) {
+                service.evaluateAll(inputs, count, values);
+            } else {
+                heuristicEvaluator.evaluateBatch(inputs, count, values);
             }
         }
-        return input;
     }
 
     private double evaluateBoard(ReversiBoard board, Color ourColor) {
+        return evaluateInput(extractInput(board, ourColor));
+    }
+
+    private double evaluateInput(double[] boardInput) {
+        if (inferenceService != null) {
+            return inferenceService.evaluate(boardInput);
+        }
+        if (quantizedEvaluator != null) {
+            return quantizedEvaluator.evaluate(boardInput);
+        }
+        if (evaluator != null) {
+            return evaluator.evaluate(boardInput);
+        }
         // Predict a value with the neural network
-        neuralNetwork.setInput(extractInput(board, ourColor));
+        neuralNetwork.setInput(boardInput);
         neuralNetwork.calculate();
         double[] output = neuralNetwork.getOutput();
         assert (output.length == 1);
@@ -251,6 +886,20 @@ public class NeuralNetworkPlayer implements ReversiPlayer {
         }
     }
 
+    /**
+     * Calculates the exponent of the importance-sampling weights of
+     * prioritized replay, from the progress of the learning session.
+     *
+     * @return The exponent, between importanceExponent_0 and 1.
+     */
+    private double getImportanceExponent() {
+        double learningSessionProgress = (double) learningGameCounter / numberLearningGames;
+        if (numberLearningGames <= 0 || learningSessionProgress >= 1) {
+            return 1;
+        }
+        return importanceExponent_0 + (1 - importanceExponent_0) * learningSessionProgress;
+    }
+
     /**
      * Calculates all 8 symmetries of the given board.
      *
@@ -258,13 +907,15 @@ public class NeuralNetworkPlayer implements ReversiPlayer {
      * @return A list of reflected boards.
      */
     private List<double[]> generateBoardSymmetries(double[] boardInput) {
-        List<double[]> result = new ArrayList<>(symmetryMappings.size() + 1);
+        List<double[]> result = new ArrayList<>(SYMMETRIES.length);
         result.add(boardInput);
-        for (IntUnaryOperator mapping : symmetryMappings) {
+        // The identity is skipped, the board itself being added above
+        for (int s = 1; s < SYMMETRIES.length; ++s) {
+            int[] mapping = SYMMETRIES[s];
             double[] symmetry = new double[inputSize];
             for (int i = 0; i < NUMBER_CELLS; ++i) {
                 int inputIdx = i * inputPerCell;
-                int mappedIdx = mapping.applyAsInt(i) * inputPerCell;
+                int mappedIdx = mapping[i] * inputPerCell;
                 for (int j = 0; j < inputPerCell; ++j) {
                     symmetry[inputIdx + j] = boardInput[mappedIdx + j];
                 }
@@ -275,10 +926,11 @@ public class NeuralNetworkPlayer implements ReversiPlayer {
     }
 
     /**
-     * Generates all symmetry mapping functions, and put them in
-     * symmetryMappings.
+     * Generates the permutation tables of all symmetries of the board.
+     *
+     * @return The tables, the identity first.
      */
-    private void generateSymmetryMappings() {
+    private static int[][] generateSymmetries() {
         int gridSize = ReversiBoard.getGridSize();
         // Horizontal flip
         IntUnaryOperator hFlip = idx -> {
@@ -286,7 +938,7 @@ public class NeuralNetworkPlayer implements ReversiPlayer {
             int col = idx % gridSize;
             return row * ReversiBoard.getGridSize() + (gridSize - col - 1);
         };
-        // Horizontal flip
+        // Vertical flip
         IntUnaryOperator vFlip = idx -> {
             int row = idx / gridSize;
             int col = idx % gridSize;
@@ -298,9 +950,30 @@ public class NeuralNetworkPlayer implements ReversiPlayer {
             int col = idx % gridSize;
             return col * ReversiBoard.getGridSize() + row;
         };
-        // Note that we do not include the identity, in order to save unnecessary
-        // calculations when it comes to compute all symmetries.
-        symmetryMappings = Arrays.asList(hFlip, vFlip, dFlip, hFlip.compose(vFlip),
-                dFlip.compose(vFlip), hFlip.compose(dFlip), hFlip.compose(vFlip).compose(dFlip));
+        List<IntUnaryOperator> mappings = Arrays.asList(IntUnaryOperator.identity(),
+                hFlip, vFlip, dFlip, hFlip.compose(vFlip), dFlip.compose(vFlip),
+                dFlip.compose(hFlip), hFlip.compose(vFlip).compose(dFlip));
+        int[][] symmetries = new int[mappings.size()][NUMBER_CELLS];
+        for (int s = 0; s < symmetries.length; ++s) {
+            for (int i = 0; i < NUMBER_CELLS; ++i) {
+                symmetries[s][i] = mappings.get(s).applyAsInt(i);
+            }
+        }
+        return symmetries;
+    }
+
+    /**
+     * Receives the training examples of an actor, see createActor.
+     */
+    interface TransitionSink {
+
+        /**
+         * Receives a training example.
+         *
+         * @param boardInput The input of a board played by the actor. It is
+         * not modified afterwards.
+         * @param target The value the network should give to this board.
+         */
+        public void accept(double[] boardInput, double target);
     }
 }
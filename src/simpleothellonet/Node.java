@@ -7,14 +7,6 @@ import java.util.List;
  */
 public interface Node {
 
-    /**
-     * Returns the parent node from which this one was expanded, or null if it
-     * is the root node.
-     *
-     * @return The parent as desribed above.
-     */
-    public Node getParent();
-
     /**
      * Generates all children of this node.
      *
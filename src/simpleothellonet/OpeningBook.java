@@ -0,0 +1,413 @@
+package simpleothellonet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+import simpleothellonet.MoveOrdering.Feature;
+import simpleothellonet.ReversiBoard.Color;
+
+/**
+ * Moves to play in the first positions of the game, read from a file instead
+ * of searched. The book is built by OpeningBook.Builder, from the results of
+ * recorded games and deep searches of the positions that occur most often.
+ *
+ * The positions are stored in their canonical form (see
+ * BitBoard.canonicalSymmetry), so that one record covers the up to eight
+ * symmetric positions. The records have a fixed size and are sorted by
+ * position, and the file is mapped in memory: a lookup is a binary search
+ * that only touches the pages of about log2(size) records, without reading
+ * the whole file first. The file must be smaller than 2 GB, about 89 million
+ * positions.
+ *
+ * Once opened, a book can be used by several threads.
+ */
+public class OpeningBook {
+
+    private static final int MAGIC = 0x4f424f4b;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    /**
+     * Size of a record: the player and opponent masks, the value as a float,
+     * the move, the search depth and the number of games.
+     */
+    private static final int RECORD_SIZE = 2 * Long.BYTES + Float.BYTES + 2 + Short.BYTES;
+
+    private static final int NO_MOVE = -1;
+
+    private final ByteBuffer buffer;
+    private final int size;
+
+    /**
+     * Book move of a position, with what is known about it.
+     */
+    public static class Entry {
+
+        /**
+         * The cell to play (see BitBoard), in the orientation of the board
+         * that was looked up.
+         */
+        public final int move;
+
+        /**
+         * The value of the position for the player to move: the search value
+         * if it was searched, otherwise the mean result of the games, from -1
+         * for a loss to 1 for a win.
+         */
+        public final double value;
+
+        /**
+         * The depth of the search that chose the move, or 0 if it was chosen
+         * from the games.
+         */
+        public final int depth;
+
+        /**
+         * The number of games that went through the position, saturated at
+         * 65535.
+         */
+        public final int count;
+
+        Entry(int move, double value, int depth, int count) {
+            this.move = move;
+            this.value = value;
+            this.depth = depth;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "move %d, value %.3f, depth %d, games %d", move, value, depth,
+                    count);
+        }
+    }
+
+    private OpeningBook(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.size = buffer.getInt(2 * Integer.BYTES);
+    }
+
+    /**
+     * Maps a book file written by OpeningBook.Builder in memory.
+     *
+     * @param path The file.
+     * @return The book.
+     * @throws IOException If the file cannot be read or is not an opening
+     * book.
+     */
+    public static OpeningBook open(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(Integer.BYTES) != VERSION
+                || buffer.getInt(3 * Integer.BYTES) != RECORD_SIZE
+                || buffer.limit() != HEADER_SIZE + (long) buffer.getInt(2 * Integer.BYTES)
+                * RECORD_SIZE) {
+            throw new IOException("Not an opening book file: " + path);
+        }
+        return new OpeningBook(buffer);
+    }
+
+    /**
+     * Looks up a position.
+     *
+     * @param player The tokens of the player to move.
+     * @param opponent The tokens of the opponent.
+     * @return The book entry, or null if the position is not in the book.
+     */
+    public Entry lookup(long player, long opponent) {
+        int symmetry = BitBoard.canonicalSymmetry(player, opponent);
+        int record = find(BitBoard.transform(player, symmetry),
+                BitBoard.transform(opponent, symmetry));
+        if (record < 0) {
+            return null;
+        }
+        int offset = HEADER_SIZE + record * RECORD_SIZE;
+        int move = buffer.get(offset + 2 * Long.BYTES + Float.BYTES);
+        if (move != NO_MOVE) {
+            move = Long.numberOfTrailingZeros(BitBoard.inverseTransform(1L << move, symmetry));
+        }
+        return new Entry(move, buffer.getFloat(offset + 2 * Long.BYTES),
+                buffer.get(offset + 2 * Long.BYTES + Float.BYTES + 1),
+                buffer.getChar(offset + 2 * Long.BYTES + Float.BYTES + 2));
+    }
+
+    /**
+     * Plays the book move of a board, if any.
+     *
+     * @param board The board, for the player whose turn it is.
+     * @return The board after the book move, with the turn not swapped as for
+     * the children given by getChildren, or null if the board is not in the
+     * book.
+     */
+    public ReversiBoard play(ReversiBoard board) {
+        Entry entry = lookup(board.getPlayerBits(), board.getOpponentBits());
+        if (entry == null || entry.move == NO_MOVE
+                || (board.getMoves() & (1L << entry.move)) == 0) {
+            return null;
+        }
+        ReversiBoard result = new ReversiBoard(board);
+        result.makeMove(entry.move);
+        return result;
+    }
+
+    /**
+     * Finds the record of a canonical position, with a binary search.
+     *
+     * @param player The tokens of the player to move.
+     * @param opponent The tokens of the opponent.
+     * @return The index of the record, or -1 if there is none.
+     */
+    private int find(long player, long opponent) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = HEADER_SIZE + middle * RECORD_SIZE;
+            int comparison = compare(buffer.getLong(offset), buffer.getLong(offset + Long.BYTES),
+                    player, opponent);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Orders positions by player mask, then by opponent mask, as unsigned
+     * numbers like BitBoard.canonicalSymmetry.
+     */
+    private static int compare(long player1, long opponent1, long player2, long opponent2) {
+        int comparison = Long.compareUnsigned(player1, player2);
+        return comparison != 0 ? comparison : Long.compareUnsigned(opponent1, opponent2);
+    }
+
+    /**
+     * Returns the number of positions in the book.
+     *
+     * @return The number of records.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gathers the positions of an opening book, and writes the book file.
+     *
+     * The games added with addGame give, for each canonical position of their
+     * first plies, the number of games that went through it and the results
+     * of each move played from it. The positions reached by at least a given
+     * number of games can then be searched deeply with searchPositions. When
+     * the book is written, a searched position gets the move of the search,
+     * and the others the move with the best mean result among the frequent
+     * ones.
+     */
+    public static class Builder {
+
+        private final int maxPlies;
+
+        /**
+         * Statistics of each canonical position, with the player to move as
+         * black.
+         */
+        private final Map<Position, Statistics> positions = new HashMap<>();
+
+        /**
+         * What is known about a canonical position.
+         */
+        private static class Statistics {
+
+            int count = 0;
+            double scoreSum = 0;
+
+            /**
+             * Number of games and sum of results of each move, indexed by
+             * cell in the canonical orientation.
+             */
+            int[] moveCounts = new int[64];
+            double[] moveScoreSums = new double[64];
+
+            int searchedMove = NO_MOVE;
+            double searchedValue = 0;
+            int searchedDepth = 0;
+        }
+
+        /**
+         * Creates an empty builder.
+         *
+         * @param maxPlies The number of plies of each game to add to the book.
+         */
+        public Builder(int maxPlies) {
+            this.maxPlies = maxPlies;
+        }
+
+        /**
+         * Adds the first plies of a game to the statistics. The result of the
+         * game is given by its last position, which should be the end of the
+         * game.
+         *
+         * @param game The game.
+         */
+        public void addGame(GameHistory game) {
+            Position last = game.getLast();
+            int blackResult = Integer.signum(Long.bitCount(last.getBits(Color.Black))
+                    - Long.bitCount(last.getBits(Color.White)));
+            int plies = Math.min(maxPlies, game.size());
+            for (int ply = 0; ply < plies; ++ply) {
+                int move = game.getMove(ply);
+                if (move == GameHistory.PASS) {
+                    continue;
+                }
+                Position position = game.getPosition(ply);
+                long player = position.getPlayerBits();
+                long opponent = position.getOpponentBits();
+                int symmetry = BitBoard.canonicalSymmetry(player, opponent);
+                Position key = new Position(BitBoard.transform(player, symmetry),
+                        BitBoard.transform(opponent, symmetry), Color.Black);
+                Statistics statistics = positions.computeIfAbsent(key, k -> new Statistics());
+                int canonicalMove = Long.numberOfTrailingZeros(
+                        BitBoard.transform(1L << move, symmetry));
+                double score = position.getTurnColor() == Color.Black ? blackResult : -blackResult;
+                statistics.count++;
+                statistics.scoreSum += score;
+                statistics.moveCounts[canonicalMove]++;
+                statistics.moveScoreSums[canonicalMove] += score;
+            }
+        }
+
+        /**
+         * Searches the positions reached by enough games, with alpha-beta
+         * pruning, principal variation search and a transposition table. The
+         * values follow the conventions of MinimaxPlayer, the heuristic
+         * evaluating the leaves for the player to move at the root.
+         *
+         * @param minCount The minimum number of games of a searched position.
+         * @param depth The depth of the searches.
+         * @param heuristic The heuristic evaluating the leaves.
+         * @return The number of positions searched. Positions already
+         * searched as deep are skipped.
+         */
+        public int searchPositions(int minCount, int depth, ToDoubleFunction<Node> heuristic) {
+            Minimax minimax = new Minimax();
+            minimax.setTranspositionTable(new TranspositionTable(64));
+            minimax.setMoveOrdering(new MoveOrdering(Feature.SquarePriority, Feature.Killers,
+                    Feature.History));
+            minimax.setPrincipalVariationSearch(true);
+            int searched = 0;
+            for (Map.Entry<Position, Statistics> entry : positions.entrySet()) {
+                Statistics statistics = entry.getValue();
+                if (statistics.count < minCount || statistics.searchedDepth >= depth) {
+                    continue;
+                }
+                ReversiBoard board = entry.getKey().toBoard();
+                minimax.getTranspositionTable().newSearch();
+                Minimax.Result result = minimax.alphaBetaInPlace(board, depth,
+                        Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true, heuristic);
+                if (result.node == null) {
+                    continue;
+                }
+                statistics.searchedMove = minimax.getBestMove();
+                statistics.searchedValue = result.heuristicValue;
+                statistics.searchedDepth = depth;
+                searched++;
+            }
+            return searched;
+        }
+
+        /**
+         * Returns the number of positions gathered, frequent or not.
+         *
+         * @return The number of canonical positions.
+         */
+        public int size() {
+            return positions.size();
+        }
+
+        /**
+         * Writes the book file, with the positions searched and the ones
+         * reached by enough games.
+         *
+         * @param path The file, replaced if it exists.
+         * @param minCount The minimum number of games of a position, and of a
+         * move for it to be chosen from the games.
+         * @return The number of positions written.
+         * @throws IOException If the file cannot be written.
+         */
+        public int write(Path path, int minCount) throws IOException {
+            List<Position> keys = new ArrayList<>();
+            for (Map.Entry<Position, Statistics> entry : positions.entrySet()) {
+                Statistics statistics = entry.getValue();
+                if (statistics.searchedDepth > 0 || statistics.count >= minCount) {
+                    keys.add(entry.getKey());
+                }
+            }
+            Position[] sorted = keys.toArray(new Position[0]);
+            Arrays.sort(sorted, (a, b) -> compare(a.getPlayerBits(), a.getOpponentBits(),
+                    b.getPlayerBits(), b.getOpponentBits()));
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + sorted.length * RECORD_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(sorted.length).putInt(RECORD_SIZE);
+            for (Position key : sorted) {
+                Statistics statistics = positions.get(key);
+                buffer.putLong(key.getPlayerBits()).putLong(key.getOpponentBits());
+                if (statistics.searchedDepth > 0) {
+                    buffer.putFloat((float) statistics.searchedValue);
+                    buffer.put((byte) statistics.searchedMove);
+                    buffer.put((byte) statistics.searchedDepth);
+                } else {
+                    buffer.putFloat((float) (statistics.scoreSum / statistics.count));
+                    buffer.put((byte) gameMove(statistics, minCount));
+                    buffer.put((byte) 0);
+                }
+                buffer.putChar((char) Math.min(statistics.count, Character.MAX_VALUE));
+            }
+            Files.write(path, buffer.array());
+            return sorted.length;
+        }
+
+        /**
+         * Chooses the move of a position from the games: the move with the
+         * best mean result among the ones played at least minCount times, or
+         * the most played one if there is none.
+         */
+        private static int gameMove(Statistics statistics, int minCount) {
+            int best = NO_MOVE;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            int mostPlayed = NO_MOVE;
+            for (int move = 0; move < 64; ++move) {
+                int count = statistics.moveCounts[move];
+                if (count == 0) {
+                    continue;
+                }
+                if (mostPlayed == NO_MOVE || count > statistics.moveCounts[mostPlayed]) {
+                    mostPlayed = move;
+                }
+                double score = statistics.moveScoreSums[move] / count;
+                if (count >= minCount && score > bestScore) {
+                    best = move;
+                    bestScore = score;
+                }
+            }
+            return best != NO_MOVE ? best : mostPlayed;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package simpleothellonet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Parallel version of the in-place alpha-beta search, using the "lazy SMP"
+ * scheme. Helper threads search the same root as the calling thread, each on
+ * its own copy of the board, and share their results through the transposition
+ * table. The helpers start with different root moves and depths, so that they
+ * fill the table with entries that the main search can use to cut off its own
+ * tree. The result is always the one of the main search, on the calling
+ * thread. Since some helpers search deeper, the main search may use their
+ * deeper values, and thus not return exactly the value of a sequential search.
+ *
+ * Without a transposition table, the helpers would not help, so the search is
+ * then the same as the one of Minimax. The same goes for batch and incremental
+ * heuristics, which hold a state that cannot be shared between threads.
+ */
+public class ParallelMinimax extends Minimax {
+
+    /**
+     * The searches run by the helper threads.
+     */
+    private final Minimax[] helpers;
+
+    /**
+     * The helper threads.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param threadCount The total number of search threads, including the
+     * calling one.
+     */
+    public ParallelMinimax(int threadCount) {
+        helpers = new Minimax[Math.max(0, threadCount - 1)];
+        for (int i = 0; i < helpers.length; ++i) {
+            helpers[i] = new Minimax();
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1, helpers.length), runnable -> {
+            Thread thread = new Thread(runnable, "search-helper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Result alphaBetaInPlace(ReversiBoard board, int depth, double alpha,
+            double beta, boolean maxPlayer, ToDoubleFunction<Node> heuristic,
+            int firstMove) {
+        if (getTranspositionTable() == null || helpers.length == 0
+                || heuristic instanceof BatchHeuristic
+                || heuristic instanceof IncrementalHeuristic) {
+            return super.alphaBetaInPlace(board, depth, alpha, beta, maxPlayer,
+                    heuristic, firstMove);
+        }
+
+        long moves = board.getMoves();
+        int moveCount = Long.bitCount(moves);
+        List<Future<?>> futures = new ArrayList<>(helpers.length);
+        for (int i = 0; i < helpers.length; ++i) {
+            Minimax helper = helpers[i];
+            ReversiBoard helperBoard = new ReversiBoard(board);
+            // Half of the helpers search one ply deeper, and each one starts
+            // with another root move, so that they do not all search the same
+            // tree as the main thread
+            int helperDepth = depth + (i % 2);
+            int helperFirstMove = moveCount == 0 ? -1 : nthMove(moves, (i + 1) % moveCount);
+            helper.resume();
+            futures.add(executor.submit(() -> helper.alphaBetaInPlace(helperBoard,
+                    helperDepth, alpha, beta, maxPlayer, heuristic, helperFirstMove)));
+        }
+
+        try {
+            return super.alphaBetaInPlace(board, depth, alpha, beta, maxPlayer,
+                    heuristic, firstMove);
+        } finally {
+            for (Minimax helper : helpers) {
+                helper.stop();
+            }
+            waitForHelpers(futures);
+        }
+    }
+
+    @Override
+    public long getNodeCount() {
+        long nodeCount = super.getNodeCount();
+        for (Minimax helper : helpers) {
+            nodeCount += helper.getNodeCount();
+        }
+        return nodeCount;
+    }
+
+    @Override
+    public void resetNodeCount() {
+        super.resetNodeCount();
+        for (Minimax helper : helpers) {
+            helper.resetNodeCount();
+        }
+    }
+
+    @Override
+    public void setDeadline(long deadline) {
+        super.setDeadline(deadline);
+        for (Minimax helper : helpers) {
+            helper.setDeadline(deadline);
+        }
+    }
+
+    @Override
+    public void setTranspositionTable(TranspositionTable transpositionTable) {
+        super.setTranspositionTable(transpositionTable);
+        for (Minimax helper : helpers) {
+            helper.setTranspositionTable(transpositionTable);
+        }
+    }
+
+    @Override
+    public void setPrincipalVariationSearch(boolean principalVariationSearch) {
+        super.setPrincipalVariationSearch(principalVariationSearch);
+        for (Minimax helper : helpers) {
+            helper.setPrincipalVariationSearch(principalVariationSearch);
+        }
+    }
+
+    /**
+     * Sets the move ordering. Each helper gets its own instance with the same
+     * features, since killers and history are specific to a search.
+     *
+     * @param moveOrdering The move ordering, or null to disable it.
+     */
+    @Override
+    public void setMoveOrdering(MoveOrdering moveOrdering) {
+        super.setMoveOrdering(moveOrdering);
+        for (Minimax helper : helpers) {
+            helper.setMoveOrdering(moveOrdering == null ? null : moveOrdering.newInstance());
+        }
+    }
+
+    /**
+     * Returns the number of threads used by the search.
+     *
+     * @return The number of threads, including the calling one.
+     */
+    public int getThreadCount() {
+        return helpers.length + 1;
+    }
+
+    /**
+     * Stops the helper threads. The search must not be used afterwards.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Waits for the end of the helper searches, so that they do not use their
+     * buffers when the next search starts.
+     *
+     * @param futures The running helper searches.
+     */
+    private static void waitForHelpers(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Helper search failed", ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns the n-th move of a move mask, in the order of the cells.
+     *
+     * @param moves The mask of moves.
+     * @param n The index of the move.
+     * @return The move.
+     */
+    private static int nthMove(long moves, int n) {
+        for (int i = 0; i < n; ++i) {
+            moves &= moves - 1;
+        }
+        return Long.numberOfTrailingZeros(moves);
+    }
+}
@@ -0,0 +1,171 @@
+package simpleothellonet;
+
+import simpleothellonet.ReversiBoard.Color;
+
+/**
+ * Immutable state of a game: the tokens of both colors, one bit per cell (see
+ * BitBoard), and the color of the player whose turn it is. Unlike a
+ * ReversiBoard, a position is a value: two positions with the same tokens and
+ * turn are equal, and can be used as keys of hash tables. It holds no
+ * reference to the positions before it, see GameHistory for that.
+ *
+ * A position takes two longs and a reference to a shared constant, so that
+ * tens of millions of them fit in memory. Tables that need even less can
+ * store the two masks and the turn directly, and recreate the position with
+ * the constructor.
+ */
+public final class Position {
+
+    private final long black;
+    private final long white;
+    private final Color turnColor;
+
+    /**
+     * Creates a position.
+     *
+     * @param black The black tokens.
+     * @param white The white tokens.
+     * @param turnColor The color of the player whose turn it is.
+     * @throws IllegalArgumentException If a cell holds tokens of both colors.
+     */
+    public Position(long black, long white, Color turnColor) {
+        if ((black & white) != 0) {
+            throw new IllegalArgumentException("Cells with both colors: "
+                    + Long.toHexString(black & white));
+        }
+        this.black = black;
+        this.white = white;
+        this.turnColor = turnColor;
+    }
+
+    /**
+     * Returns the initial position according to classic rules of Reversi.
+     *
+     * @return The initial position.
+     */
+    public static Position initialPosition() {
+        return ReversiBoard.initialBoard().toPosition();
+    }
+
+    /**
+     * Creates a position from the point of view of the player to move.
+     *
+     * @param player The tokens of the player whose turn it is.
+     * @param opponent The tokens of the opponent.
+     * @param turnColor The color of the player whose turn it is.
+     * @return The position.
+     */
+    public static Position fromPlayer(long player, long opponent, Color turnColor) {
+        return turnColor == Color.Black
+                ? new Position(player, opponent, turnColor)
+                : new Position(opponent, player, turnColor);
+    }
+
+    /**
+     * Returns the position after a move, with the turn given to the opponent.
+     *
+     * @param square The cell where the token is placed (see BitBoard). The
+     * move is assumed to be legal.
+     * @return The new position.
+     */
+    public Position play(int square) {
+        long player = getPlayerBits();
+        long flipped = BitBoard.flips(square, player, getOpponentBits());
+        return fromPlayer(getOpponentBits() & ~flipped, player | flipped | (1L << square),
+                turnColor.getOpposite());
+    }
+
+    /**
+     * Returns the position where the player to move passes.
+     *
+     * @return The same tokens, with the turn given to the opponent.
+     */
+    public Position pass() {
+        return new Position(black, white, turnColor.getOpposite());
+    }
+
+    /**
+     * Creates a mutable board in this position.
+     *
+     * @return The board.
+     */
+    public ReversiBoard toBoard() {
+        return new ReversiBoard(this);
+    }
+
+    public long getBits(Color color) {
+        return color == Color.Black ? black : white;
+    }
+
+    public long getPlayerBits() {
+        return getBits(turnColor);
+    }
+
+    public long getOpponentBits() {
+        return getBits(turnColor.getOpposite());
+    }
+
+    public Color getTurnColor() {
+        return turnColor;
+    }
+
+    /**
+     * Returns all cells where the player whose turn it is can place a token.
+     *
+     * @return The mask of the legal moves.
+     */
+    public long getMoves() {
+        return BitBoard.legalMoves(getPlayerBits(), getOpponentBits());
+    }
+
+    /**
+     * Tells whether neither player can move.
+     *
+     * @return True if the game is over.
+     */
+    public boolean isGameOver() {
+        return getMoves() == 0 && BitBoard.legalMoves(getOpponentBits(), getPlayerBits()) == 0;
+    }
+
+    public int getEmptyCount() {
+        return Long.bitCount(~(black | white));
+    }
+
+    /**
+     * Returns the Zobrist hash of the position, the same as the one of a
+     * ReversiBoard in this position.
+     *
+     * @return The hash.
+     */
+    public long getZobristHash() {
+        return Zobrist.hash(black, white, turnColor);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Position)) {
+            return false;
+        }
+        Position position = (Position) other;
+        return black == position.black && white == position.white
+                && turnColor == position.turnColor;
+    }
+
+    @Override
+    public int hashCode() {
+        // Multiply-xorshift mix, so that positions differing by a few cells
+        // spread over the whole range
+        long hash = black * 0x9e3779b97f4a7c15L + white;
+        hash = (hash ^ (hash >>> 32)) * 0xd6e8feb86659fd93L;
+        hash ^= hash >>> 32;
+        return (int) hash ^ turnColor.ordinal();
+    }
+
+    @Override
+    public String toString() {
+        return toBoard().toString() + turnColor + " to move\n";
+    }
+}
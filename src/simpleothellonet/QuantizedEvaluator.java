@@ -0,0 +1,372 @@
+package simpleothellonet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import simpleothellonet.MlpEvaluator.Activation;
+
+/**
+ * Forward pass of a trained multilayer perceptron on integers, for play only.
+ *
+ * The weights of each layer are rounded to 8 or 16 bits integers, with a scale
+ * per layer chosen so that the largest weight uses the whole range. The
+ * outputs of the hidden neurons are rounded to integers from -127 to 127 (0 to
+ * 127 for a sigmoid), and the transfer functions are replaced by a lookup
+ * table over the range where they are not saturated, the sums outside of it
+ * being clipped. The weighted sums are then exact integer products, and only
+ * the output neuron is computed in floating point.
+ *
+ * The weights are kept in shorts for both widths, and written on 1 or 2 bytes
+ * by save. The board inputs must be integers, as they are with all encodings of
+ * NeuralNetworkPlayer. An instance holds buffers for the activations, and must
+ * not be used by several threads at once.
+ */
+public class QuantizedEvaluator {
+
+    /**
+     * Integer output of a hidden neuron whose real output is 1.
+     */
+    static final int ACTIVATION_ONE = 127;
+
+    /**
+     * Number of intervals of the transfer function lookup tables.
+     */
+    private static final int TABLE_SIZE = 1024;
+
+    private static final int MAGIC = 0x514d4c50;
+    private static final int VERSION = 1;
+
+    /**
+     * Number of bits of the weights, 8 or 16.
+     */
+    private final int bits;
+
+    /**
+     * Number of neurons of each layer, the input one first.
+     */
+    private final int[] layerSizes;
+
+    private final Activation[] activations;
+    private final double[] slopes;
+
+    /**
+     * Real value of one unit of the weighted sums of each layer.
+     */
+    private final double[] scales;
+
+    /**
+     * Weights of each layer, without the biases. Those of the first layer are
+     * stored column by column, the weights of input i starting at index
+     * i * hiddenSize, and the other ones row by row as in MlpEvaluator.
+     */
+    private final short[][] weights;
+
+    /**
+     * Biases of each layer, in units of the weighted sums.
+     */
+    private final int[][] biases;
+
+    /**
+     * Outputs of the transfer function of each hidden layer, for the sums
+     * evenly spaced over the range of the table.
+     */
+    private final int[][] tables;
+
+    /**
+     * Factor and offset giving the table index of a weighted sum, for each
+     * hidden layer.
+     */
+    private final double[] indexScales;
+    private final double[] indexOffsets;
+
+    /**
+     * Integer outputs of the hidden layers.
+     */
+    private final int[][] outputs;
+
+    private QuantizedEvaluator(int bits, int[] layerSizes, Activation[] activations,
+            double[] slopes, double[] scales, short[][] weights, int[][] biases) {
+        this.bits = bits;
+        this.layerSizes = layerSizes;
+        this.activations = activations;
+        this.slopes = slopes;
+        this.scales = scales;
+        this.weights = weights;
+        this.biases = biases;
+        int hiddenCount = weights.length - 1;
+        tables = new int[hiddenCount][];
+        indexScales = new double[hiddenCount];
+        indexOffsets = new double[hiddenCount];
+        outputs = new int[hiddenCount][];
+        for (int l = 0; l < hiddenCount; ++l) {
+            double range = saturationRange(activations[l], slopes[l]);
+            tables[l] = new int[TABLE_SIZE + 1];
+            for (int i = 0; i <= TABLE_SIZE; ++i) {
+                double net = -range + 2 * range * i / TABLE_SIZE;
+                tables[l][i] = quantizeActivation(
+                        MlpEvaluator.activate(activations[l], slopes[l], net));
+            }
+            double tableScale = TABLE_SIZE / (2 * range);
+            indexScales[l] = scales[l] * tableScale;
+            indexOffsets[l] = range * tableScale + 0.5;
+            outputs[l] = new int[layerSizes[l + 1]];
+        }
+    }
+
+    /**
+     * Creates an evaluator sharing the weights of this one, with its own
+     * buffers, so that it can be used by another thread.
+     *
+     * @return The copy.
+     */
+    public QuantizedEvaluator copy() {
+        return new QuantizedEvaluator(bits, layerSizes, activations, slopes, scales, weights,
+                biases);
+    }
+
+    /**
+     * Quantizes the weights of a network.
+     *
+     * @param evaluator The network, with a single output and at least one
+     * hidden layer, using a tanh or sigmoid transfer function.
+     * @param bits The number of bits of the weights, 8 or 16.
+     * @return The quantized network.
+     */
+    public static QuantizedEvaluator quantize(MlpEvaluator evaluator, int bits) {
+        if (bits != 8 && bits != 16) {
+            throw new IllegalArgumentException("Invalid number of bits: " + bits);
+        }
+        int[] layerSizes = evaluator.layerSizes.clone();
+        int layerCount = evaluator.weights.length;
+        if (layerCount < 2 || layerSizes[layerCount] != 1) {
+            throw new IllegalArgumentException(
+                    "The network must have hidden layers and a single output");
+        }
+        int maxWeight = (1 << (bits - 1)) - 1;
+        double[] scales = new double[layerCount];
+        short[][] weights = new short[layerCount][];
+        int[][] biases = new int[layerCount][];
+        for (int l = 0; l < layerCount; ++l) {
+            if (l < layerCount - 1 && evaluator.activations[l] == Activation.Linear) {
+                throw new IllegalArgumentException("Hidden layers must be bounded");
+            }
+            int inputSize = layerSizes[l];
+            int outputSize = layerSizes[l + 1];
+            int rowLength = inputSize + 1;
+            double[] layerWeights = evaluator.weights[l];
+            double maxAbs = 0;
+            for (int j = 0; j < outputSize; ++j) {
+                for (int i = 0; i < inputSize; ++i) {
+                    maxAbs = Math.max(maxAbs, Math.abs(layerWeights[j * rowLength + i]));
+                }
+            }
+            double weightScale = maxAbs > 0 ? maxAbs / maxWeight : 1;
+            // The board inputs are not scaled, the hidden outputs are
+            scales[l] = l == 0 ? weightScale : weightScale / ACTIVATION_ONE;
+            int maxInput = l == 0 ? 1 : ACTIVATION_ONE;
+            if ((long) maxInput * maxWeight * inputSize > Integer.MAX_VALUE / 2) {
+                throw new IllegalArgumentException("Layer too large for " + bits + " bits: "
+                        + inputSize);
+            }
+
+            weights[l] = new short[outputSize * inputSize];
+            biases[l] = new int[outputSize];
+            for (int j = 0; j < outputSize; ++j) {
+                for (int i = 0; i < inputSize; ++i) {
+                    int index = l == 0 ? i * outputSize + j : j * inputSize + i;
+                    weights[l][index] = (short) Math.round(
+                            layerWeights[j * rowLength + i] / weightScale);
+                }
+                double bias = layerWeights[j * rowLength + inputSize] / scales[l];
+                biases[l][j] = (int) Math.max(-Integer.MAX_VALUE / 2,
+                        Math.min(Integer.MAX_VALUE / 2, Math.round(bias)));
+            }
+        }
+        return new QuantizedEvaluator(bits, layerSizes, evaluator.activations.clone(),
+                evaluator.slopes.clone(), scales, weights, biases);
+    }
+
+    /**
+     * Evaluates a board.
+     *
+     * @param boardInput The network input of the board, of integer values.
+     * @return The output of the network.
+     */
+    public double evaluate(double[] boardInput) {
+        // First layer, by columns: the inputs of empty cells are often 0
+        short[] columns = weights[0];
+        int[] layerInput = outputs[0];
+        int hiddenSize = layerInput.length;
+        System.arraycopy(biases[0], 0, layerInput, 0, hiddenSize);
+        for (int i = 0; i < layerSizes[0]; ++i) {
+            int value = (int) boardInput[i];
+            if (value != 0) {
+                int offset = i * hiddenSize;
+                for (int j = 0; j < hiddenSize; ++j) {
+                    layerInput[j] += value * columns[offset + j];
+                }
+            }
+        }
+        activate(0, layerInput);
+
+        int last = weights.length - 1;
+        for (int l = 1; l < last; ++l) {
+            short[] layerWeights = weights[l];
+            int[] layerBiases = biases[l];
+            int[] layerOutput = outputs[l];
+            int inputSize = layerSizes[l];
+            for (int j = 0; j < layerOutput.length; ++j) {
+                int offset = j * inputSize;
+                int sum = layerBiases[j];
+                for (int i = 0; i < inputSize; ++i) {
+                    sum += layerWeights[offset + i] * layerInput[i];
+                }
+                layerOutput[j] = sum;
+            }
+            activate(l, layerOutput);
+            layerInput = layerOutput;
+        }
+
+        short[] outputWeights = weights[last];
+        int sum = biases[last][0];
+        for (int i = 0; i < layerInput.length; ++i) {
+            sum += outputWeights[i] * layerInput[i];
+        }
+        return MlpEvaluator.activate(activations[last], slopes[last], sum * scales[last]);
+    }
+
+    /**
+     * Replaces the weighted sums of a hidden layer by the outputs of its
+     * transfer function, clipped to the range of its table.
+     *
+     * @param l The index of the layer, the input one excluded.
+     * @param values The weighted sums.
+     */
+    private void activate(int l, int[] values) {
+        int[] table = tables[l];
+        double indexScale = indexScales[l];
+        double indexOffset = indexOffsets[l];
+        for (int j = 0; j < values.length; ++j) {
+            int index = (int) (values[j] * indexScale + indexOffset);
+            values[j] = table[Math.max(0, Math.min(TABLE_SIZE, index))];
+        }
+    }
+
+    public int getInputSize() {
+        return layerSizes[0];
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Writes the quantized network to a file, with the weights on 1 or 2
+     * bytes each.
+     *
+     * @param path The file, replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path path) throws IOException {
+        int weightBytes = bits / 8;
+        int size = (4 + layerSizes.length) * Integer.BYTES;
+        for (int l = 0; l < weights.length; ++l) {
+            size += Integer.BYTES + 2 * Double.BYTES + biases[l].length * Integer.BYTES
+                    + weights[l].length * weightBytes;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(bits);
+        buffer.putInt(layerSizes.length);
+        for (int layerSize : layerSizes) {
+            buffer.putInt(layerSize);
+        }
+        for (int l = 0; l < weights.length; ++l) {
+            buffer.putInt(activations[l].ordinal()).putDouble(slopes[l]).putDouble(scales[l]);
+            for (int bias : biases[l]) {
+                buffer.putInt(bias);
+            }
+            for (short weight : weights[l]) {
+                if (bits == 8) {
+                    buffer.put((byte) weight);
+                } else {
+                    buffer.putShort(weight);
+                }
+            }
+        }
+        Files.write(path, buffer.array());
+    }
+
+    /**
+     * Reads a network written by save.
+     *
+     * @param path The file.
+     * @return The quantized network.
+     * @throws IOException If the file cannot be read or is not a quantized
+     * network.
+     */
+    public static QuantizedEvaluator load(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 4 * Integer.BYTES || buffer.getInt() != MAGIC
+                || buffer.getInt() != VERSION) {
+            throw new IOException("Not a quantized network file: " + path);
+        }
+        int bits = buffer.getInt();
+        int[] layerSizes = new int[buffer.getInt()];
+        for (int l = 0; l < layerSizes.length; ++l) {
+            layerSizes[l] = buffer.getInt();
+        }
+        int layerCount = layerSizes.length - 1;
+        Activation[] activations = new Activation[layerCount];
+        double[] slopes = new double[layerCount];
+        double[] scales = new double[layerCount];
+        short[][] weights = new short[layerCount][];
+        int[][] biases = new int[layerCount][];
+        for (int l = 0; l < layerCount; ++l) {
+            activations[l] = Activation.values()[buffer.getInt()];
+            slopes[l] = buffer.getDouble();
+            scales[l] = buffer.getDouble();
+            biases[l] = new int[layerSizes[l + 1]];
+            for (int j = 0; j < biases[l].length; ++j) {
+                biases[l][j] = buffer.getInt();
+            }
+            weights[l] = new short[layerSizes[l + 1] * layerSizes[l]];
+            for (int i = 0; i < weights[l].length; ++i) {
+                weights[l][i] = bits == 8 ? buffer.get() : buffer.getShort();
+            }
+        }
+        return new QuantizedEvaluator(bits, layerSizes, activations, slopes, scales, weights,
+                biases);
+    }
+
+    /**
+     * Rounds the output of a hidden neuron.
+     *
+     * @param output The real output.
+     * @return The integer output.
+     */
+    private static int quantizeActivation(double output) {
+        return (int) Math.round(output * ACTIVATION_ONE);
+    }
+
+    /**
+     * Finds the range of weighted sums outside of which the rounded output of
+     * a transfer function no longer changes.
+     *
+     * @param activation The transfer function.
+     * @param slope Its slope parameter.
+     * @return The bound of the range, which goes from -range to range.
+     */
+    private static double saturationRange(Activation activation, double slope) {
+        int high = quantizeActivation(MlpEvaluator.activate(activation, slope, 100));
+        int low = quantizeActivation(MlpEvaluator.activate(activation, slope, -100));
+        double range = 1.0 / 16;
+        while (range < 100
+                && (quantizeActivation(MlpEvaluator.activate(activation, slope, range)) != high
+                || quantizeActivation(MlpEvaluator.activate(activation, slope, -range)) != low)) {
+            range *= 1.125;
+        }
+        return range;
+    }
+}
@@ -0,0 +1,336 @@
+package simpleothellonet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Fixed-capacity ring buffer of TD training examples, so that they can be
+ * learned from more than once. The examples are stored off-heap, in a direct
+ * buffer of fixed-size records, rather than as arrays of network inputs: each
+ * record holds the tokens of the player who learned the board, the tokens of
+ * its opponent, and the target value. The side to move is thus implicit, the
+ * board being stored from the point of view of the player.
+ *
+ * Examples can be sampled uniformly, or in proportion to their priority,
+ * which is meant to be the last TD error on the example. The priorities are
+ * kept in a sum tree, so that sampling and updating a priority take a time
+ * logarithmic in the capacity. New examples get the highest priority seen so
+ * far, so that they are sampled at least once. Since prioritized sampling
+ * favours some examples, the updates learned from them should be scaled by
+ * their importance-sampling weight, given by getImportanceWeight.
+ *
+ * An instance must not be used by several threads at once.
+ */
+public class ReplayBuffer {
+
+    /**
+     * Size of a record: two bit masks and the target.
+     */
+    private static final int RECORD_SIZE = 2 * Long.BYTES + Double.BYTES;
+
+    /**
+     * Identifies the files written by save, followed by the format version.
+     */
+    private static final int MAGIC = 0x52504c42;
+    private static final int VERSION = 1;
+
+    /**
+     * Exponent applied to the TD errors to get the priorities. Zero would give
+     * uniform sampling, one sampling in proportion to the errors.
+     */
+    private static final double PRIORITY_EXPONENT = 0.6;
+
+    /**
+     * Priority added to each error, so that every example can be sampled.
+     */
+    private static final double MIN_PRIORITY = 1e-3;
+
+    private final int capacity;
+
+    /**
+     * The records, in little-endian order so that saved files do not depend
+     * on the platform.
+     */
+    private final ByteBuffer records;
+
+    /**
+     * Sum tree of the priorities: the priority of example i is in leaf
+     * leafCount + i, and each other node holds the sum of its two children.
+     * The root is node 1.
+     */
+    private final double[] priorityTree;
+
+    /**
+     * Min tree of the priorities, with the same layout as priorityTree. The
+     * leaves of the missing examples are infinite.
+     */
+    private final double[] minPriorityTree;
+
+    /**
+     * Number of leaves of the tree, the capacity rounded up to a power of two.
+     */
+    private final int leafCount;
+
+    /**
+     * Highest priority given so far, used for new examples.
+     */
+    private double maxPriority = 1;
+
+    /**
+     * Number of examples stored, at most the capacity.
+     */
+    private int size = 0;
+
+    /**
+     * Index where the next example is written, overwriting the oldest one once
+     * the buffer is full.
+     */
+    private int next = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity The maximum number of examples.
+     * @throws IllegalArgumentException If the capacity is not positive, or
+     * too large for the records to fit in a direct buffer.
+     */
+    public ReplayBuffer(int capacity) {
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE / RECORD_SIZE) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        records = ByteBuffer.allocateDirect(capacity * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        leafCount = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        priorityTree = new double[2 * leafCount];
+        minPriorityTree = new double[2 * leafCount];
+        Arrays.fill(minPriorityTree, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Adds an example, replacing the oldest one if the buffer is full.
+     *
+     * @param player The tokens of the player who learned the board.
+     * @param opponent The tokens of its opponent.
+     * @param target The value the network should give to the board.
+     * @return The index of the example.
+     */
+    public int add(long player, long opponent, double target) {
+        int index = next;
+        int offset = index * RECORD_SIZE;
+        records.putLong(offset, player);
+        records.putLong(offset + Long.BYTES, opponent);
+        records.putDouble(offset + 2 * Long.BYTES, target);
+        setTreePriority(index, maxPriority);
+        next = (next + 1) % capacity;
+        size = Math.min(size + 1, capacity);
+        return index;
+    }
+
+    public long getPlayer(int index) {
+        return records.getLong(index * RECORD_SIZE);
+    }
+
+    public long getOpponent(int index) {
+        return records.getLong(index * RECORD_SIZE + Long.BYTES);
+    }
+
+    public double getTarget(int index) {
+        return records.getDouble(index * RECORD_SIZE + 2 * Long.BYTES);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Draws an example uniformly. The buffer must not be empty.
+     *
+     * @param random The random number generator.
+     * @return The index of the example.
+     */
+    public int sampleUniform(Random random) {
+        return random.nextInt(size);
+    }
+
+    /**
+     * Draws an example with a probability proportional to its priority. The
+     * buffer must not be empty.
+     *
+     * @param random The random number generator.
+     * @return The index of the example.
+     */
+    public int samplePrioritized(Random random) {
+        double value = random.nextDouble() * priorityTree[1];
+        int node = 1;
+        while (node < leafCount) {
+            int left = 2 * node;
+            if (value < priorityTree[left] || priorityTree[left + 1] == 0) {
+                node = left;
+            } else {
+                value -= priorityTree[left];
+                node = left + 1;
+            }
+        }
+        return Math.min(node - leafCount, size - 1);
+    }
+
+    /**
+     * Returns the probability of an example to be drawn by samplePrioritized.
+     *
+     * @param index The index of the example.
+     * @return The probability.
+     */
+    public double getProbability(int index) {
+        return priorityTree[leafCount + index] / priorityTree[1];
+    }
+
+    /**
+     * Returns the importance-sampling weight of an example drawn by
+     * samplePrioritized: (N P(i))^-exponent, N being the number of examples
+     * and P(i) the probability of the example, divided by the largest weight
+     * of the buffer so that it is at most 1. Scaling the learning rate of an
+     * update by this weight corrects the bias of the prioritized sampling,
+     * fully when the exponent is 1.
+     *
+     * @param index The index of the example.
+     * @param exponent The exponent, between 0 (no correction) and 1.
+     * @return The weight.
+     */
+    public double getImportanceWeight(int index, double exponent) {
+        // The largest weight is the one of the lowest priority, and N cancels
+        return Math.pow(priorityTree[leafCount + index] / minPriorityTree[1], -exponent);
+    }
+
+    /**
+     * Updates the priority of an example after it has been learned.
+     *
+     * @param index The index of the example.
+     * @param error The TD error of the network on the example.
+     */
+    public void setPriority(int index, double error) {
+        double priority = Math.pow(Math.abs(error) + MIN_PRIORITY, PRIORITY_EXPONENT);
+        maxPriority = Math.max(maxPriority, priority);
+        setTreePriority(index, priority);
+    }
+
+    /**
+     * Writes the examples and their priorities to a file.
+     *
+     * @param path The file, replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(5 * Integer.BYTES + Double.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(capacity).putInt(size).putInt(next)
+                    .putDouble(maxPriority);
+            header.flip();
+            writeFully(channel, header);
+
+            ByteBuffer used = records.duplicate();
+            used.position(0).limit(size * RECORD_SIZE);
+            writeFully(channel, used);
+
+            ByteBuffer priorities = ByteBuffer.allocate(size * Double.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < size; ++i) {
+                priorities.putDouble(priorityTree[leafCount + i]);
+            }
+            priorities.flip();
+            writeFully(channel, priorities);
+        }
+    }
+
+    /**
+     * Reads a buffer written by save.
+     *
+     * @param path The file.
+     * @return The buffer, with the capacity, examples and priorities it had
+     * when saved.
+     * @throws IOException If the file cannot be read or is not a buffer.
+     */
+    public static ReplayBuffer load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(5 * Integer.BYTES + Double.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a replay buffer file: " + path);
+            }
+            int capacity = header.getInt();
+            int size = header.getInt();
+            int next = header.getInt();
+            // Checked before allocating, so that a corrupted header cannot
+            // ask for a huge buffer
+            if (capacity <= 0 || capacity > Integer.MAX_VALUE / RECORD_SIZE
+                    || size < 0 || size > capacity || next < 0 || next >= capacity
+                    || (size < capacity && next != size)
+                    || channel.size() != header.capacity()
+                            + (long) size * (RECORD_SIZE + Double.BYTES)) {
+                throw new IOException("Not a replay buffer file: " + path);
+            }
+            ReplayBuffer buffer = new ReplayBuffer(capacity);
+            buffer.size = size;
+            buffer.next = next;
+            buffer.maxPriority = header.getDouble();
+
+            ByteBuffer used = buffer.records.duplicate();
+            used.position(0).limit(buffer.size * RECORD_SIZE);
+            readFully(channel, used);
+
+            ByteBuffer priorities = ByteBuffer.allocate(buffer.size * Double.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, priorities);
+            priorities.flip();
+            for (int i = 0; i < buffer.size; ++i) {
+                buffer.setTreePriority(i, priorities.getDouble());
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Sets the leaf of an example in the sum and min trees, and updates its
+     * ancestors.
+     *
+     * @param index The index of the example.
+     * @param priority The priority.
+     */
+    private void setTreePriority(int index, double priority) {
+        int node = leafCount + index;
+        priorityTree[node] = priority;
+        minPriorityTree[node] = priority;
+        for (node /= 2; node >= 1; node /= 2) {
+            priorityTree[node] = priorityTree[2 * node] + priorityTree[2 * node + 1];
+            minPriorityTree[node] = Math.min(minPriorityTree[2 * node],
+                    minPriorityTree[2 * node + 1]);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Truncated replay buffer file");
+            }
+        }
+    }
+}
@@ -29,14 +29,19 @@ public class ReversiBoard implements Node {
     final static private int GRID_SIZE = 8;
 
     /**
-     * Actual values in this instance of the game board.
+     * Black tokens on the board, one bit per cell (see BitBoard).
      */
-    final private Color[][] grid = new Color[GRID_SIZE][GRID_SIZE];
+    private long black;
 
     /**
-     * Old board leading to this state, the parent node.
+     * White tokens on the board, one bit per cell (see BitBoard).
      */
-    final private ReversiBoard previousBoard;
+    private long white;
+
+    /**
+     * Zobrist hash of the board, updated along with the tokens.
+     */
+    private long hash;
 
     /**
      * Indicate whose player turn is.
@@ -53,36 +58,55 @@ public class ReversiBoard implements Node {
     }
 
     /**
-     * Copy constructor.
+     * Copy constructor. The copy keeps no reference to the original board, see
+     * GameHistory to keep the boards of a game.
      *
-     * @param previousBoard The instance to copy.
+     * @param board The instance to copy.
      */
-    public ReversiBoard(ReversiBoard previousBoard) {
-        this.previousBoard = previousBoard;
-        // Copy the content of the previous board
-        for (int row = 0; row < GRID_SIZE; ++row) {
-            System.arraycopy(previousBoard.grid[row], 0, grid[row], 0, GRID_SIZE);
-        }
-        this.turnColor = previousBoard.turnColor;
+    public ReversiBoard(ReversiBoard board) {
+        this.black = board.black;
+        this.white = board.white;
+        this.hash = board.hash;
+        this.turnColor = board.turnColor;
+    }
+
+    /**
+     * Creates a board in the given position.
+     *
+     * @param position The position.
+     */
+    public ReversiBoard(Position position) {
+        black = position.getBits(Color.Black);
+        white = position.getBits(Color.White);
+        turnColor = position.getTurnColor();
+        hash = Zobrist.hash(black, white, turnColor);
     }
 
     /**
      * Implementation of initialBoard, by the mean of a private constructor.
      */
     private ReversiBoard() {
-        previousBoard = null;
         // Reversi game rule: black plays first
         turnColor = Color.Black;
-        for (int row = 0; row < GRID_SIZE; ++row) {
-            for (int col = 0; col < GRID_SIZE; ++col) {
-                grid[row][col] = null;
-            }
-        }
         // Initial board state
-        grid[3][3] = Color.White;
-        grid[4][4] = Color.White;
-        grid[3][4] = Color.Black;
-        grid[4][3] = Color.Black;
+        white = bit(3, 3) | bit(4, 4);
+        black = bit(4, 3) | bit(3, 4);
+        hash = Zobrist.hash(black, white, turnColor);
+    }
+
+    /**
+     * Replaces the content of the board, so that a search can evaluate many
+     * positions with a single board.
+     *
+     * @param black The black tokens.
+     * @param white The white tokens.
+     * @param turnColor The color of the player whose turn it is.
+     */
+    void setPosition(long black, long white, Color turnColor) {
+        this.black = black;
+        this.white = white;
+        this.turnColor = turnColor;
+        hash = Zobrist.hash(black, white, turnColor);
     }
 
     @Override
@@ -94,33 +118,26 @@ public class ReversiBoard implements Node {
         String result = "0 1 2 3 4 5 6 7 \n";
         for (int row = 0; row < GRID_SIZE; ++row) {
             for (int col = 0; col < GRID_SIZE; ++col) {
-                result += charMap.get(grid[row][col]);
+                result += charMap.get(getValue(col, row));
             }
             result += row + "\n";
         }
         return result;
     }
 
-    @Override
-    public Node getParent() {
-        return previousBoard;
-    }
-
     @Override
     public List<Node> getChildren() {
         List<Node> result = new ArrayList<>();
 
-        // Iterate over the whole grid
-        for (int row = 0; row < GRID_SIZE; ++row) {
-            for (int col = 0; col < GRID_SIZE; ++col) {
-                if (grid[row][col] == null) {
-                    ReversiBoard newBoard = new ReversiBoard(this);
-                    boolean validMove = newBoard.placeToken(col, row);
-                    if (validMove) {
-                        result.add(newBoard);
-                    }
-                }
-            }
+        // Iterate over the legal moves, in the same order as the cells of
+        // the grid
+        long moves = getMoves();
+        while (moves != 0) {
+            int square = Long.numberOfTrailingZeros(moves);
+            moves &= moves - 1;
+            ReversiBoard newBoard = new ReversiBoard(this);
+            newBoard.applyMove(square, BitBoard.flips(square, getPlayerBits(), getOpponentBits()));
+            result.add(newBoard);
         }
         return result;
     }
@@ -134,49 +151,140 @@ public class ReversiBoard implements Node {
      * @return True if this is a valid move, false otherwise.
      */
     public boolean placeToken(int col, int row) {
-        int[] stepsCol = new int[]{1, 1, 0, -1, -1, -1, 0, 1};
-        int[] stepsRow = new int[]{0, 1, 1, 1, 0, -1, -1, -1};
-        int numberCheckingDirection = stepsCol.length;
+        // The cell must be on the board and empty
+        if (!validCoord(col, row) || getValue(col, row) != null) {
+            return false;
+        }
 
-        // If there is a cell from which start a line flip
-        if (grid[row][col] != null) {
+        int square = BitBoard.square(col, row);
+        long flipped = BitBoard.flips(square, getPlayerBits(), getOpponentBits());
+        // There must be at least one line of opponent's cells to flip
+        if (flipped == 0) {
             return false;
         }
+        applyMove(square, flipped);
+        return true;
+    }
 
-        boolean validMove = false;
-        // Test if there is a possible line, in all eight directions
-        for (int direction = 0; direction < numberCheckingDirection; ++direction) {
-            int stepCol = stepsCol[direction];
-            int stepRow = stepsRow[direction];
-            int count = countOpponentLineLength(col, row, stepCol, stepRow);
-
-            // If there is a line of opponent's cells suitable to
-            // do a line flip
-            if (count > 0) {
-                validMove = true;
-                // Flip the line
-                flipLine(col, row, stepCol, stepRow, count);
-                // Put a token on the cell
-                grid[row][col] = turnColor;
-            }
+    /**
+     * Plays a move in place, for the player whose turn it is. Unlike
+     * placeToken, the move is assumed to be legal, and the turn is not
+     * swapped, in the same way as the children given by getChildren.
+     *
+     * @param square The cell where the token is placed (see BitBoard).
+     * @return The tokens flipped by the move, to be given back to undoMove.
+     */
+    public long makeMove(int square) {
+        long flipped = BitBoard.flips(square, getPlayerBits(), getOpponentBits());
+        applyMove(square, flipped);
+        return flipped;
+    }
+
+    /**
+     * Takes back a move played by makeMove. The turn color must not have
+     * changed since the move was made.
+     *
+     * @param square The cell where the token was placed.
+     * @param flipped The tokens flipped by the move, as returned by makeMove.
+     */
+    public void undoMove(int square, long flipped) {
+        if (turnColor == Color.Black) {
+            black &= ~(flipped | (1L << square));
+            white |= flipped;
+        } else {
+            white &= ~(flipped | (1L << square));
+            black |= flipped;
         }
-        return validMove;
+        hash ^= Zobrist.moveDelta(square, flipped, turnColor);
     }
 
     public void swapTurn() {
         turnColor = turnColor.getOpposite();
+        hash ^= Zobrist.TURN_KEY;
     }
 
     public Color getTurnColor() {
         return turnColor;
     }
 
+    /**
+     * Returns the current state of the board as an immutable value.
+     *
+     * @return The position.
+     */
+    public Position toPosition() {
+        return new Position(black, white, turnColor);
+    }
+
+    /**
+     * Returns the Zobrist hash of the board, which accounts for the tokens and
+     * the turn color.
+     *
+     * @return The hash.
+     */
+    public long getHash() {
+        return hash;
+    }
+
     public static int getGridSize() {
         return GRID_SIZE;
     }
 
     public Color getValue(int col, int row) {
-        return grid[row][col];
+        long cell = bit(col, row);
+        if ((black & cell) != 0) {
+            return Color.Black;
+        } else if ((white & cell) != 0) {
+            return Color.White;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the tokens of the given color, one bit per cell (see BitBoard).
+     *
+     * @param color The color of the tokens.
+     * @return The mask of the tokens.
+     */
+    public long getBits(Color color) {
+        return color == Color.Black ? black : white;
+    }
+
+    /**
+     * Returns the tokens of the player whose turn it is.
+     *
+     * @return The mask of the tokens.
+     */
+    public long getPlayerBits() {
+        return getBits(turnColor);
+    }
+
+    /**
+     * Returns the tokens of the opponent of the player whose turn it is.
+     *
+     * @return The mask of the tokens.
+     */
+    public long getOpponentBits() {
+        return getBits(turnColor.getOpposite());
+    }
+
+    /**
+     * Returns all cells where the player whose turn it is can place a token.
+     *
+     * @return The mask of the legal moves.
+     */
+    public long getMoves() {
+        return BitBoard.legalMoves(getPlayerBits(), getOpponentBits());
+    }
+
+    /**
+     * Returns the number of empty cells on the board.
+     *
+     * @return The number of empty cells.
+     */
+    public int getEmptyCount() {
+        return Long.bitCount(~(black | white));
     }
 
     /**
@@ -185,19 +293,12 @@ public class ReversiBoard implements Node {
      * @return The color of the winner.
      */
     public Color getWinner() {
-        Map<Color, Integer> counts = new HashMap<>();
-        counts.put(Color.Black, 0);
-        counts.put(Color.White, 0);
-        counts.put(null, 0);
-        for (int row = 0; row < GRID_SIZE; ++row) {
-            for (int col = 0; col < GRID_SIZE; ++col) {
-                counts.put(grid[row][col], counts.get(grid[row][col]) + 1);
-            }
-        }
+        int blackCount = Long.bitCount(black);
+        int whiteCount = Long.bitCount(white);
 
-        if (counts.get(Color.Black) > counts.get(Color.White)) {
+        if (blackCount > whiteCount) {
             return Color.Black;
-        } else if (counts.get(Color.Black) < counts.get(Color.White)) {
+        } else if (blackCount < whiteCount) {
             return Color.White;
         } else {
             return null;
@@ -205,56 +306,25 @@ public class ReversiBoard implements Node {
     }
 
     /**
-     * Counts how many opposite cells there is in a line starting from the given
-     * position, and going in the specified direction. The starting position is
-     * not included in the count, since there should be one of our token at this
-     * place.
+     * Places a token of the current player and flips the given tokens. The
+     * move is assumed to be legal.
      *
-     * @param col The column of the starting position.
-     * @param row The row of the starting position.
-     * @param stepCol X-increment representing the direction of the line.
-     * @param stepRow Y-increment representing the direction of the line.
-     * @return The number of opponent's token on the line, or 0 if there is no
-     * such line.
+     * @param square The cell where the token is placed.
+     * @param flipped The opponent tokens flipped by the move.
      */
-    private int countOpponentLineLength(int col, int row, int stepCol, int stepRow) {
-        // Iterate over the cells in the given direction, and count how many
-        // opponent cells there is.
-        int checkedCol = col;
-        int checkedRow = row;
-        Color checkedCell;
-        int opponentLineCount = -1;
-
-        do {
-            opponentLineCount += 1;
-            checkedCol += stepCol;
-            checkedRow += stepRow;
-            if (validCoord(checkedCol, checkedRow)) {
-                checkedCell = grid[checkedRow][checkedCol];
-            } else {
-                // The line ends by the edge of the grid
-                return 0;
-            }
-        } while (checkedCell == turnColor.getOpposite());
-
-        return checkedCell == turnColor ? opponentLineCount : 0;
+    private void applyMove(int square, long flipped) {
+        if (turnColor == Color.Black) {
+            black |= flipped | (1L << square);
+            white &= ~flipped;
+        } else {
+            white |= flipped | (1L << square);
+            black &= ~flipped;
+        }
+        hash ^= Zobrist.moveDelta(square, flipped, turnColor);
     }
 
-    /**
-     * Flip the token on the given line. The arguments are similar to the ones
-     * given to countOpponentLineLenth.
-     *
-     * @param col The column of the starting position.
-     * @param row The row of the starting position.
-     * @param stepCol X-increment representing the direction of the line.
-     * @param stepRow Y-increment representing the direction of the line.
-     * @param count The length of the line to flip.
-     */
-    private void flipLine(int col, int row, int stepCol, int stepRow, int count) {
-        for (int i = 1; i <= count; ++i) {
-            Color cell = grid[row + i * stepRow][col + i * stepCol];
-            grid[row + i * stepRow][col + i * stepCol] = cell.getOpposite();
-        }
+    static private long bit(int col, int row) {
+        return 1L << BitBoard.square(col, row);
     }
 
     static private boolean validCoord(int col, int row) {
@@ -0,0 +1,40 @@
+package simpleothellonet;
+
+import simpleothellonet.ReversiBoard.Color;
+
+/**
+ * Game loop of Reversi, asking each player in turn for its move.
+ */
+public class ReversiGame {
+
+    /**
+     * Plays a game between two players from the initial board. Each player is
+     * given a board whose turn color is its own, and returns the board after
+     * its move, one of the children of the board. A player who cannot move
+     * passes without being asked, and a player returning null passes as well.
+     * The game is over when both players pass in a row.
+     *
+     * @param black The player with the black tokens, who moves first.
+     * @param white The player with the white tokens.
+     * @return The board at the end of the game.
+     */
+    public static ReversiBoard playGame(ReversiPlayer black, ReversiPlayer white) {
+        ReversiBoard board = ReversiBoard.initialBoard();
+        int passes = 0;
+        while (passes < 2) {
+            ReversiPlayer player = board.getTurnColor() == Color.Black ? black : white;
+            ReversiBoard next = board.getMoves() == 0 ? null : player.playTurn(board);
+            if (next == null) {
+                passes++;
+            } else {
+                passes = 0;
+                board = next;
+            }
+            // The children of a board keep its turn color
+            board.swapTurn();
+        }
+        black.onGameOver(board, Color.Black);
+        white.onGameOver(board, Color.White);
+        return board;
+    }
+}
@@ -0,0 +1,159 @@
+package simpleothellonet;
+
+/**
+ * Kernels written as plain loops. The sums are computed in the order of
+ * Neuroph, and tanh uses its formula, so that the results are the same.
+ */
+public class ScalarKernels extends Kernels {
+
+    /**
+     * Number of rows computed together by dotRows.
+     */
+    private static final int ROW_BLOCK = 4;
+
+    /**
+     * Number of vectors computed together by dotRowsBatch.
+     */
+    private static final int BATCH_BLOCK = 4;
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public double dot(double[] x, int xOffset, double[] y, int yOffset, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; ++i) {
+            sum += x[xOffset + i] * y[yOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the dot products by blocks of rows, so that each value of the
+     * vector is loaded once for several rows. Each product is still summed in
+     * order.
+     */
+    @Override
+    public void dotRows(double[] x, int xOffset, double[] matrix, int matrixOffset,
+            int rowLength, int rows, int length, double[] result, int resultOffset) {
+        int r = 0;
+        for (; r + ROW_BLOCK <= rows; r += ROW_BLOCK) {
+            int offset0 = matrixOffset + r * rowLength;
+            int offset1 = offset0 + rowLength;
+            int offset2 = offset1 + rowLength;
+            int offset3 = offset2 + rowLength;
+            double sum0 = 0;
+            double sum1 = 0;
+            double sum2 = 0;
+            double sum3 = 0;
+            for (int i = 0; i < length; ++i) {
+                double value = x[xOffset + i];
+                sum0 += value * matrix[offset0 + i];
+                sum1 += value * matrix[offset1 + i];
+                sum2 += value * matrix[offset2 + i];
+                sum3 += value * matrix[offset3 + i];
+            }
+            result[resultOffset + r] = sum0;
+            result[resultOffset + r + 1] = sum1;
+            result[resultOffset + r + 2] = sum2;
+            result[resultOffset + r + 3] = sum3;
+        }
+        for (; r < rows; ++r) {
+            result[resultOffset + r] = dot(x, xOffset, matrix, matrixOffset + r * rowLength, length);
+        }
+    }
+
+    /**
+     * Computes the dot products by blocks of four vectors and two rows, so
+     * that each weight is loaded once for four vectors and each value of the
+     * vectors once for two rows. Each product is still summed in order.
+     */
+    @Override
+    public void dotRowsBatch(double[] x, int xOffset, int xStride, int count,
+            double[] matrix, int matrixOffset, int rowLength, int rows, int length,
+            double[] result, int resultOffset, int resultStride) {
+        int b = 0;
+        for (; b + BATCH_BLOCK <= count; b += BATCH_BLOCK) {
+            int x0 = xOffset + b * xStride;
+            int x1 = x0 + xStride;
+            int x2 = x1 + xStride;
+            int x3 = x2 + xStride;
+            int result0 = resultOffset + b * resultStride;
+            int result1 = result0 + resultStride;
+            int result2 = result1 + resultStride;
+            int result3 = result2 + resultStride;
+            int r = 0;
+            for (; r + 2 <= rows; r += 2) {
+                int offset0 = matrixOffset + r * rowLength;
+                int offset1 = offset0 + rowLength;
+                double sum00 = 0;
+                double sum10 = 0;
+                double sum20 = 0;
+                double sum30 = 0;
+                double sum01 = 0;
+                double sum11 = 0;
+                double sum21 = 0;
+                double sum31 = 0;
+                for (int i = 0; i < length; ++i) {
+                    double weight0 = matrix[offset0 + i];
+                    double weight1 = matrix[offset1 + i];
+                    double value0 = x[x0 + i];
+                    double value1 = x[x1 + i];
+                    double value2 = x[x2 + i];
+                    double value3 = x[x3 + i];
+                    sum00 += value0 * weight0;
+                    sum10 += value1 * weight0;
+                    sum20 += value2 * weight0;
+                    sum30 += value3 * weight0;
+                    sum01 += value0 * weight1;
+                    sum11 += value1 * weight1;
+                    sum21 += value2 * weight1;
+                    sum31 += value3 * weight1;
+                }
+                result[result0 + r] = sum00;
+                result[result1 + r] = sum10;
+                result[result2 + r] = sum20;
+                result[result3 + r] = sum30;
+                result[result0 + r + 1] = sum01;
+                result[result1 + r + 1] = sum11;
+                result[result2 + r + 1] = sum21;
+                result[result3 + r + 1] = sum31;
+            }
+            for (; r < rows; ++r) {
+                int offset = matrixOffset + r * rowLength;
+                result[result0 + r] = dot(x, x0, matrix, offset, length);
+                result[result1 + r] = dot(x, x1, matrix, offset, length);
+                result[result2 + r] = dot(x, x2, matrix, offset, length);
+                result[result3 + r] = dot(x, x3, matrix, offset, length);
+            }
+        }
+        for (; b < count; ++b) {
+            dotRows(x, xOffset + b * xStride, matrix, matrixOffset, rowLength, rows, length,
+                    result, resultOffset + b * resultStride);
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; ++i) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void tanh(double[] values, int offset, int length, double slope) {
+        for (int i = offset; i < offset + length; ++i) {
+            double net = values[i];
+            if (net > 100) {
+                values[i] = 1.0;
+            } else if (net < -100) {
+                values[i] = -1.0;
+            } else {
+                double exp = Math.exp(slope * net);
+                values[i] = (exp - 1d) / (exp + 1d);
+            }
+        }
+    }
+}
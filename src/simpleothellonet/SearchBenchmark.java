@@ -0,0 +1,584 @@
+package simpleothellonet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+import simpleothellonet.MoveOrdering.Feature;
+
+/**
+ * Benchmarks of the game tree searches. They run on a fixed set of positions,
+ * generated from a fixed seed, so that results can be compared from one run
+ * to another.
+ */
+public class SearchBenchmark {
+
+    /**
+     * Seed of the random games generating the standard positions.
+     */
+    private static final long POSITIONS_SEED = 42;
+
+    /**
+     * Scale of the values of BitboardHeuristic.standard for MctsPlayer, about
+     * the value of a corner.
+     */
+    private static final double MCTS_VALUE_SCALE = 100;
+
+    /**
+     * Runs the benchmark given as first argument, with the search depth given
+     * as second argument.
+     *
+     * @param args The benchmark name and the depth.
+     */
+    public static void main(String[] args) {
+        String benchmark = args.length > 0 ? args[0] : "speedup";
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        switch (benchmark) {
+            case "speedup":
+                speedup(depth);
+                break;
+            case "ordering":
+                moveOrdering(depth);
+                break;
+            case "endgame":
+                endgame(args.length > 1 ? depth : 14);
+                break;
+            case "matches":
+                matches(args.length > 1 ? depth : 3);
+                break;
+            case "heuristics":
+                heuristics(args.length > 1 ? depth : 3);
+                break;
+            case "pvs":
+                principalVariation(depth);
+                break;
+            case "mcts":
+                mcts(args.length > 1 ? depth : 3);
+                break;
+            case "book":
+                openingBook(depth);
+                break;
+            default:
+                System.out.println("Unknown benchmark: " + benchmark);
+        }
+    }
+
+    /**
+     * Measures the speedup of the parallel search for 1, 2, 4, ... threads, up
+     * to the number of available processors. Each search starts with an
+     * empty transposition table, and uses a deterministic heuristic.
+     *
+     * @param depth The depth of the searches.
+     */
+    public static void speedup(int depth) {
+        List<ReversiBoard> positions = standardPositions();
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        ToDoubleFunction<Node> heuristic = MinimaxPlayer::positionalHeuristic;
+        double baseTime = 0;
+
+        System.out.println("% threads time(ms) speedup nodes");
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            ParallelMinimax minimax = new ParallelMinimax(threads);
+            TranspositionTable table = new TranspositionTable(64);
+            minimax.setTranspositionTable(table);
+            long start = System.nanoTime();
+            for (ReversiBoard position : positions) {
+                table.clear();
+                minimax.alphaBetaInPlace(position, depth, Double.NEGATIVE_INFINITY,
+                        Double.POSITIVE_INFINITY, true, heuristic);
+            }
+            double time = (System.nanoTime() - start) / 1e6;
+            if (threads == 1) {
+                baseTime = time;
+            }
+            System.out.println(threads + " " + String.format(Locale.ROOT, "%.1f %.2f", time, baseTime / time)
+                    + " " + minimax.getNodeCount());
+            minimax.shutdown();
+        }
+    }
+
+    /**
+     * Counts the nodes searched at equal depth with several move orderings,
+     * from none to all features. The searches use no transposition table,
+     * so that only the effect of the ordering is measured.
+     *
+     * @param depth The depth of the searches.
+     */
+    public static void moveOrdering(int depth) {
+        List<ReversiBoard> positions = standardPositions();
+        MoveOrdering[] orderings = {
+            null,
+            new MoveOrdering(Feature.SquarePriority),
+            new MoveOrdering(Feature.SquarePriority, Feature.Killers),
+            new MoveOrdering(Feature.SquarePriority, Feature.Killers, Feature.History),
+            new MoveOrdering(Feature.SquarePriority, Feature.Killers, Feature.History,
+                    Feature.RootPresort)
+        };
+        String[] names = {"none", "square", "square+killers",
+            "square+killers+history", "all"};
+        long baseNodes = 0;
+
+        System.out.println("% ordering nodes ratio time(ms)");
+        for (int i = 0; i < orderings.length; ++i) {
+            Minimax minimax = new Minimax();
+            minimax.setMoveOrdering(orderings[i]);
+            long start = System.nanoTime();
+            for (ReversiBoard position : positions) {
+                if (orderings[i] != null) {
+                    orderings[i].clear();
+                }
+                minimax.alphaBetaInPlace(position, depth, Double.NEGATIVE_INFINITY,
+                        Double.POSITIVE_INFINITY, true, MinimaxPlayer::positionalHeuristic);
+            }
+            double time = (System.nanoTime() - start) / 1e6;
+            if (i == 0) {
+                baseNodes = minimax.getNodeCount();
+            }
+            System.out.println(names[i] + " " + minimax.getNodeCount() + " "
+                    + String.format(Locale.ROOT, "%.3f %.1f",
+                            (double) minimax.getNodeCount() / baseNodes, time));
+        }
+    }
+
+    /**
+     * Solves exactly a set of endgame positions, and prints the speed of the
+     * solver. The positions are reached by random games from a fixed seed,
+     * stopped at the given number of empty cells.
+     *
+     * @param empties The number of empty cells of the positions.
+     */
+    public static void endgame(int empties) {
+        Random random = new Random(POSITIONS_SEED);
+        EndgameSolver solver = new EndgameSolver(empties);
+        long totalNodes = 0;
+        long totalTime = 0;
+
+        System.out.println("% position score nodes time(ms) nodes/s");
+        for (int position = 0; position < 10; ++position) {
+            ReversiBoard board = randomPosition(60 - empties, random);
+            if (board == null || board.getEmptyCount() != empties) {
+                continue;
+            }
+            solver.resetNodeCount();
+            long start = System.nanoTime();
+            Minimax.Result result = solver.solve(board);
+            long time = System.nanoTime() - start;
+            totalNodes += solver.getNodeCount();
+            totalTime += time;
+            System.out.println(position + " " + (int) result.heuristicValue + " "
+                    + solver.getNodeCount() + " " + String.format(Locale.ROOT, "%.1f %.0f",
+                            time / 1e6, solver.getNodeCount() * 1e9 / time));
+        }
+        System.out.println("% total " + totalNodes + " " + String.format(Locale.ROOT, "%.1f %.0f",
+                totalTime / 1e6, totalNodes * 1e9 / totalTime));
+    }
+
+    /**
+     * Measures the time of a 100 games match between two minimax players for
+     * 1, 2, 4, ... worker threads, up to the number of available processors.
+     *
+     * @param depth The depth of the searches of both players.
+     */
+    public static void matches(int depth) {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        double baseTime = 0;
+
+        System.out.println("% threads time(ms) speedup winrate lower upper");
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            MatchRunner runner = new MatchRunner(threads);
+            long start = System.nanoTime();
+            MatchRunner.Result result = runner.play(
+                    () -> new MinimaxPlayer(depth, MinimaxPlayer::positionalHeuristic),
+                    () -> new MinimaxPlayer(depth, MinimaxPlayer::binkleyHeuristic), 100);
+            double time = (System.nanoTime() - start) / 1e6;
+            if (threads == 1) {
+                baseTime = time;
+            }
+            System.out.println(threads + " " + String.format(Locale.ROOT, "%.1f %.2f", time, baseTime / time)
+                    + " " + result);
+            runner.shutdown();
+        }
+    }
+
+    /**
+     * Measures the number of leaf evaluations per second of the heuristics,
+     * on boards reached by 4 to 56 random moves, including the former grid
+     * implementation of the positional heuristic. Then plays 100 games
+     * between a minimax using all features of BitboardHeuristic and one using
+     * the Binkley heuristic, both with the same noise.
+     *
+     * @param depth The depth of the searches of the match.
+     */
+    public static void heuristics(int depth) {
+        Random random = new Random(POSITIONS_SEED);
+        ReversiBoard[] positions = new ReversiBoard[1000];
+        for (int i = 0; i < positions.length; ++i) {
+            while (positions[i] == null) {
+                positions[i] = randomPosition(4 + random.nextInt(52), random);
+            }
+        }
+        BitboardHeuristic noisyStandard = BitboardHeuristic.standard();
+        noisyStandard.setNoiseStd(10);
+        String[] names = {"grid-positional", "positional", "binkley", "mobility", "standard",
+            "standard+noise"};
+        List<ToDoubleFunction<Node>> heuristics = new ArrayList<>();
+        heuristics.add(SearchBenchmark::gridPositionalHeuristic);
+        heuristics.add(MinimaxPlayer::positionalHeuristic);
+        heuristics.add(MinimaxPlayer::binkleyHeuristic);
+        heuristics.add(node -> BitboardHeuristic.mobility(((ReversiBoard) node).getPlayerBits(),
+                ((ReversiBoard) node).getOpponentBits()));
+        heuristics.add(BitboardHeuristic.standard());
+        heuristics.add(noisyStandard);
+
+        double maxDifference = 0;
+        for (ReversiBoard position : positions) {
+            maxDifference = Math.max(maxDifference, Math.abs(gridPositionalHeuristic(position)
+                    - MinimaxPlayer.positionalHeuristic(position)));
+        }
+        System.out.println("% positional max difference with the grid " + maxDifference);
+
+        int evaluations = 2000000;
+        System.out.println("% heuristic eval/s");
+        for (int h = 0; h < names.length; ++h) {
+            ToDoubleFunction<Node> heuristic = heuristics.get(h);
+            double sum = 0;
+            // Warm up, then measure
+            for (int i = 0; i < evaluations / 10; ++i) {
+                sum += heuristic.applyAsDouble(positions[i % positions.length]);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < evaluations; ++i) {
+                sum += heuristic.applyAsDouble(positions[i % positions.length]);
+            }
+            double rate = evaluations * 1e9 / (System.nanoTime() - start);
+            System.out.println(names[h] + " " + String.format(Locale.ROOT, "%.0f", rate)
+                    + (Double.isNaN(sum) ? " invalid" : ""));
+        }
+
+        MatchRunner runner = new MatchRunner(Runtime.getRuntime().availableProcessors());
+        MatchRunner.Result result = runner.play(() -> new MinimaxPlayer(depth, noisyStandard),
+                () -> new MinimaxPlayer(depth, MinimaxPlayer::binkleyHeuristic), 100);
+        runner.shutdown();
+        System.out.println("% standard against binkley: winrate lower upper");
+        System.out.println(result);
+    }
+
+    /**
+     * Counts the nodes searched by the alpha-beta search and the principal
+     * variation search, at fixed depth and with iterative deepening, with and
+     * without aspiration windows. The best moves and values are compared to
+     * the ones of the alpha-beta search of the same kind, and any difference
+     * is counted. The move ordering is static, since killers and history
+     * depend on the searched tree, and could choose another move among moves
+     * of equal values.
+     *
+     * @param depth The depth of the searches.
+     */
+    public static void principalVariation(int depth) {
+        List<ReversiBoard> positions = standardPositions();
+        String[] names = {"alpha-beta", "pvs", "iterative-alpha-beta", "iterative-pvs",
+            "iterative-pvs+aspiration"};
+        boolean[] pvs = {false, true, false, true, true};
+        boolean[] iterative = {false, false, true, true, true};
+        // A fifth of a corner, in the unit of the positional heuristic. The
+        // value of this heuristic changes a lot from one depth to the next,
+        // and narrower windows fail too often to save nodes
+        double[] aspirationWindows = {0, 0, 0, 0, 20};
+        int[] baseMoves = new int[positions.size()];
+        double[] baseValues = new double[positions.size()];
+        long baseNodes = 0;
+
+        System.out.println("% search nodes ratio time(ms) differences");
+        for (int i = 0; i < names.length; ++i) {
+            Minimax minimax = new Minimax();
+            minimax.setMoveOrdering(new MoveOrdering(Feature.SquarePriority, Feature.RootPresort));
+            minimax.setPrincipalVariationSearch(pvs[i]);
+            int differences = 0;
+            long start = System.nanoTime();
+            for (int p = 0; p < positions.size(); ++p) {
+                Minimax.Result result;
+                if (iterative[i]) {
+                    result = iterativeDeepening(minimax, positions.get(p), depth,
+                            aspirationWindows[i]);
+                } else {
+                    result = minimax.alphaBetaInPlace(positions.get(p), depth,
+                            Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true,
+                            MinimaxPlayer::positionalHeuristic);
+                }
+                if (!pvs[i]) {
+                    baseMoves[p] = minimax.getBestMove();
+                    baseValues[p] = result.heuristicValue;
+                } else if (baseMoves[p] != minimax.getBestMove()
+                        || baseValues[p] != result.heuristicValue) {
+                    differences++;
+                }
+            }
+            double time = (System.nanoTime() - start) / 1e6;
+            if (!pvs[i]) {
+                baseNodes = minimax.getNodeCount();
+            }
+            System.out.println(names[i] + " " + minimax.getNodeCount() + " "
+                    + String.format(Locale.ROOT, "%.3f %.1f",
+                            (double) minimax.getNodeCount() / baseNodes, time)
+                    + " " + differences);
+        }
+    }
+
+    /**
+     * Measures the playouts per second of MctsPlayer for 1, 2, 4, ... threads,
+     * up to the number of available processors, on the standard positions,
+     * then plays it against the minimax search with the heuristic of Kevin J.
+     * Binkley. The value function is BitboardHeuristic.standard, so that the
+     * benchmark does not need a trained network.
+     *
+     * @param depth The depth of the minimax opponent.
+     */
+    public static void mcts(int depth) {
+        List<ReversiBoard> positions = standardPositions();
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int playouts = 20000;
+        double basePlayoutsPerSecond = 0;
+
+        System.out.println("% threads playouts/s speedup");
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            MctsPlayer player = new MctsPlayer(BitboardHeuristic::standard, playouts);
+            player.setValueScale(MCTS_VALUE_SCALE);
+            player.setReuseTree(false);
+            player.setSearchThreads(threads);
+            // Warm up, then measure
+            player.playTurn(positions.get(0));
+            long start = System.nanoTime();
+            for (ReversiBoard position : positions) {
+                player.playTurn(position);
+            }
+            double playoutsPerSecond = playouts * positions.size() * 1e9 / (System.nanoTime() - start);
+            if (threads == 1) {
+                basePlayoutsPerSecond = playoutsPerSecond;
+            }
+            System.out.println(threads + " " + String.format(Locale.ROOT, "%.0f %.2f", playoutsPerSecond,
+                    playoutsPerSecond / basePlayoutsPerSecond));
+            player.shutdown();
+        }
+
+        MatchRunner runner = new MatchRunner(maxThreads);
+        MatchRunner.Result result = runner.play(() -> {
+            MctsPlayer player = new MctsPlayer(BitboardHeuristic::standard, 2000);
+            player.setValueScale(MCTS_VALUE_SCALE);
+            return player;
+        }, () -> new MinimaxPlayer(depth, MinimaxPlayer::binkleyHeuristic), 100);
+        runner.shutdown();
+        System.out.println("% mcts (2000 playouts) against binkley: winrate lower upper");
+        System.out.println(result);
+    }
+
+    /**
+     * Builds an opening book from 400 games between minimax players with a
+     * noisy heuristic, searches the positions reached by at least 8 games,
+     * and measures the time of a book lookup and of a move of MinimaxPlayer
+     * with and without the book, on the book positions of 20 of the games.
+     *
+     * @param depth The depth of the searches of the book and of the player.
+     */
+    public static void openingBook(int depth) {
+        int games = 400;
+        int plies = 12;
+        int minCount = 8;
+        BitboardHeuristic noisy = BitboardHeuristic.standard();
+        noisy.setNoiseStd(20);
+        ReversiPlayer player = new MinimaxPlayer(2, noisy);
+        OpeningBook.Builder builder = new OpeningBook.Builder(plies);
+        long start = System.nanoTime();
+        List<GameHistory> sampleGames = new ArrayList<>();
+        for (int game = 0; game < games; ++game) {
+            GameHistory history = GameHistory.playGame(player, player);
+            builder.addGame(history);
+            if (game < 20) {
+                sampleGames.add(history);
+            }
+        }
+        double gamesTime = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        int searched = builder.searchPositions(minCount, depth, BitboardHeuristic.standard());
+        double searchTime = (System.nanoTime() - start) / 1e6;
+        System.out.println("% games positions searched games_ms search_ms");
+        System.out.println(games + " " + builder.size() + " " + searched + " "
+                + String.format(Locale.ROOT, "%.0f %.0f", gamesTime, searchTime));
+
+        OpeningBook book;
+        try {
+            Path path = Files.createTempFile("othello", ".book");
+            path.toFile().deleteOnExit();
+            builder.write(path, minCount);
+            book = OpeningBook.open(path);
+        } catch (IOException e) {
+            System.out.println("Cannot write the book: " + e.getMessage());
+            return;
+        }
+
+        // The positions of the book met in a few games, as they are seen by
+        // the players
+        List<ReversiBoard> positions = new ArrayList<>();
+        for (GameHistory game : sampleGames) {
+            for (int ply = 0; ply < Math.min(plies, game.size()); ++ply) {
+                Position position = game.getPosition(ply);
+                if (position.getMoves() != 0 && book.lookup(position.getPlayerBits(),
+                        position.getOpponentBits()) != null) {
+                    positions.add(position.toBoard());
+                }
+            }
+        }
+
+        int rounds = 1000;
+        // The moves are summed so that the lookups cannot be optimized away
+        long moveSum = 0;
+        MinimaxPlayer searching = new MinimaxPlayer(depth, BitboardHeuristic.standard());
+        MinimaxPlayer booked = new MinimaxPlayer(depth, BitboardHeuristic.standard());
+        booked.setOpeningBook(book);
+        double lookupTime = 0;
+        double searchMoveTime = 0;
+        double bookMoveTime = 0;
+        // Warm up, then measure
+        for (int pass = 0; pass < 2; ++pass) {
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; ++i) {
+                for (ReversiBoard position : positions) {
+                    moveSum += book.lookup(position.getPlayerBits(), position.getOpponentBits()).move;
+                }
+            }
+            lookupTime = (System.nanoTime() - start) / 1e3 / rounds / positions.size();
+            start = System.nanoTime();
+            for (ReversiBoard position : positions) {
+                searching.playTurn(position);
+            }
+            searchMoveTime = (System.nanoTime() - start) / 1e3 / positions.size();
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; ++i) {
+                for (ReversiBoard position : positions) {
+                    booked.playTurn(position);
+                }
+            }
+            bookMoveTime = (System.nanoTime() - start) / 1e3 / rounds / positions.size();
+        }
+        System.out.println("% book_size positions lookup_us move_search_us move_book_us move_sum");
+        System.out.println(book.size() + " " + positions.size() + " " + String.format(Locale.ROOT,
+                "%.2f %.1f %.2f", lookupTime, searchMoveTime, bookMoveTime) + " " + moveSum);
+    }
+
+    /**
+     * Searches a position at increasing depths like MinimaxPlayer, starting
+     * each search with the best move of the previous one.
+     *
+     * @param minimax The search.
+     * @param position The position.
+     * @param depth The depth of the last search.
+     * @param aspirationWindow The initial half width of the aspiration
+     * windows, or 0 to search with the full window.
+     * @return The result of the last search.
+     */
+    private static Minimax.Result iterativeDeepening(Minimax minimax, ReversiBoard position,
+            int depth, double aspirationWindow) {
+        Minimax.Result result = null;
+        int bestMove = -1;
+        for (int d = 1; d <= depth; ++d) {
+            if (aspirationWindow > 0 && result != null) {
+                result = minimax.aspirationSearch(position, d, result.heuristicValue,
+                        aspirationWindow, true, MinimaxPlayer::positionalHeuristic, bestMove);
+            } else {
+                result = minimax.alphaBetaInPlace(position, d, Double.NEGATIVE_INFINITY,
+                        Double.POSITIVE_INFINITY, true, MinimaxPlayer::positionalHeuristic,
+                        bestMove);
+            }
+            bestMove = minimax.getBestMove();
+        }
+        return result;
+    }
+
+    /**
+     * The former implementation of MinimaxPlayer.positionalHeuristic, walking
+     * the grid cell by cell, kept as a reference for the heuristics benchmark.
+     *
+     * @param node The game board to evaluate
+     * @return The heuristic value.
+     */
+    private static double gridPositionalHeuristic(Node node) {
+        ReversiBoard board = (ReversiBoard) node;
+        int gridSize = ReversiBoard.getGridSize();
+        ReversiBoard.Color turnColor = board.getTurnColor();
+        double[][] weights = {
+            {100, -25, 10, 5, 5, 10, -25, 100},
+            {-25, -25, 2, 2, 2, 2, -25, -25},
+            {10, 2, 5, 1, 1, 5, 2, 10},
+            {5, 2, 1, 2, 2, 1, 2, 5},
+            {5, 2, 1, 2, 2, 1, 2, 5},
+            {10, 2, 5, 1, 1, 5, 2, 10},
+            {-25, -25, 2, 2, 2, 2, -25, -25},
+            {100, -25, 10, 5, 5, 10, -25, 100}
+        };
+        double result = 0;
+        for (int row = 0; row < gridSize; ++row) {
+            for (int col = 0; col < gridSize; ++col) {
+                if (board.getValue(col, row) == turnColor) {
+                    result += weights[row][col];
+                } else if (board.getValue(col, row) == turnColor.getOpposite()) {
+                    result -= weights[row][col];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generates the standard positions: boards reached after 10 to 40 random
+     * moves from the initial board.
+     *
+     * @return The positions, with the player to move as turn color.
+     */
+    static List<ReversiBoard> standardPositions() {
+        Random random = new Random(POSITIONS_SEED);
+        List<ReversiBoard> positions = new ArrayList<>();
+        for (int plies = 10; plies <= 40; plies += 2) {
+            ReversiBoard position = randomPosition(plies, random);
+            if (position != null) {
+                positions.add(position);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Plays random moves from the initial board.
+     *
+     * @param plies The number of moves to play.
+     * @param random The random number generator choosing the moves.
+     * @return The board reached, with moves available to the player whose
+     * turn it is, or null if the game ended before.
+     */
+    static ReversiBoard randomPosition(int plies, Random random) {
+        ReversiBoard board = ReversiBoard.initialBoard();
+        for (int ply = 0; ply < plies; ++ply) {
+            List<Node> children = board.getChildren();
+            if (children.isEmpty()) {
+                // The player has to pass
+                board.swapTurn();
+                children = board.getChildren();
+                if (children.isEmpty()) {
+                    return null;
+                }
+            }
+            board = (ReversiBoard) children.get(random.nextInt(children.size()));
+            board.swapTurn();
+        }
+        if (board.getMoves() == 0) {
+            board.swapTurn();
+        }
+        return board.getMoves() == 0 ? null : board;
+    }
+
+    private static int nextThreadCount(int threads, int maxThreads) {
+        return threads < maxThreads && threads * 2 > maxThreads ? maxThreads : threads * 2;
+    }
+}
@@ -0,0 +1,239 @@
+package simpleothellonet;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size hash table storing the results of previous searches, indexed by
+ * the Zobrist hash of the searched board. Each entry holds the searched depth,
+ * the kind of bound of the value, the value itself and the best move.
+ *
+ * Entries are packed in a flat array of longs in order to avoid any
+ * allocation. A probe returns the packed metadata of an entry, which is read
+ * with the static accessors of this class.
+ *
+ * The table can be shared by several search threads without locking: the key
+ * of each entry is stored combined with its content, so that an entry torn by
+ * concurrent writes is seen as a miss.
+ */
+public class TranspositionTable {
+
+    /**
+     * Kind of value stored in an entry, depending on whether the search of the
+     * board failed low, failed high, or ended inside its window.
+     */
+    public enum Bound {
+        /**
+         * The value is the exact minimax value.
+         */
+        Exact,
+        /**
+         * The minimax value is greater than or equal to the value.
+         */
+        Lower,
+        /**
+         * The minimax value is lower than or equal to the value.
+         */
+        Upper
+    }
+
+    /**
+     * Value returned by probe when the board is not in the table.
+     */
+    public static final long NO_ENTRY = 0;
+
+    /**
+     * Number of longs used by each entry: the checked key, the metadata and
+     * the value.
+     */
+    private static final int ENTRY_LONGS = 3;
+
+    private static final int DEPTH_BITS = 8;
+    private static final int BOUND_BITS = 2;
+    private static final int MOVE_BITS = 7;
+    private static final int BOUND_SHIFT = DEPTH_BITS;
+    private static final int MOVE_SHIFT = BOUND_SHIFT + BOUND_BITS;
+    private static final int GENERATION_SHIFT = MOVE_SHIFT + MOVE_BITS;
+
+    private static final Bound[] BOUNDS = Bound.values();
+
+    /**
+     * The entries, ENTRY_LONGS consecutive longs per entry.
+     */
+    private final long[] entries;
+
+    /**
+     * Mask giving the entry index from a hash. The number of entries is a
+     * power of two.
+     */
+    private final long indexMask;
+
+    /**
+     * Counter of the searches, used to replace entries left by older ones.
+     */
+    private volatile int generation = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder cutoffs = new LongAdder();
+
+    /**
+     * Creates an empty table.
+     *
+     * @param sizeMegabytes The memory used by the table. The number of
+     * entries is the largest power of two fitting in this size.
+     */
+    public TranspositionTable(int sizeMegabytes) {
+        long entryCount = Long.highestOneBit(
+                ((long) sizeMegabytes << 20) / (ENTRY_LONGS * Long.BYTES));
+        if (entryCount == 0 || entryCount * ENTRY_LONGS > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid table size: " + sizeMegabytes + " MB");
+        }
+        entries = new long[(int) entryCount * ENTRY_LONGS];
+        indexMask = entryCount - 1;
+    }
+
+    /**
+     * Looks up a board in the table.
+     *
+     * @param hash The hash of the board.
+     * @return The metadata of the entry, or NO_ENTRY if the board is not in
+     * the table.
+     */
+    public long probe(long hash) {
+        int index = (int) (hash & indexMask) * ENTRY_LONGS;
+        long meta = entries[index + 1];
+        // The key is stored combined with the rest of the entry, so that an
+        // entry written concurrently by another search does not match
+        if (meta != NO_ENTRY && (entries[index] ^ meta ^ entries[index + 2]) == hash) {
+            hits.increment();
+            return meta;
+        }
+        misses.increment();
+        return NO_ENTRY;
+    }
+
+    /**
+     * Returns the value of an entry found by probe.
+     *
+     * @param hash The hash of the board, as given to probe.
+     * @param meta The metadata returned by probe.
+     * @return The stored value, or NaN if the entry has been replaced since
+     * the probe.
+     */
+    public double getValue(long hash, long meta) {
+        int index = (int) (hash & indexMask) * ENTRY_LONGS;
+        long valueBits = entries[index + 2];
+        if ((entries[index] ^ meta ^ valueBits) != hash) {
+            return Double.NaN;
+        }
+        return Double.longBitsToDouble(valueBits);
+    }
+
+    /**
+     * Stores the result of a search. The entry already at this place is only
+     * replaced if it comes from an older search or if it was searched to a
+     * lower or equal depth.
+     *
+     * @param hash The hash of the board.
+     * @param depth The depth of the search.
+     * @param bound The kind of value.
+     * @param value The value.
+     * @param move The best move, or -1 if there is none.
+     */
+    public void store(long hash, int depth, Bound bound, double value, int move) {
+        int index = (int) (hash & indexMask) * ENTRY_LONGS;
+        long oldMeta = entries[index + 1];
+        if (oldMeta != NO_ENTRY && getGeneration(oldMeta) == (generation & 0xff)
+                && getDepth(oldMeta) > depth) {
+            return;
+        }
+        long meta = Math.min(depth, (1 << DEPTH_BITS) - 1)
+                | ((long) (bound.ordinal() + 1) << BOUND_SHIFT)
+                | ((long) (move + 1) << MOVE_SHIFT)
+                | ((long) (generation & 0xff) << GENERATION_SHIFT);
+        long valueBits = Double.doubleToRawLongBits(value);
+        entries[index] = hash ^ meta ^ valueBits;
+        entries[index + 1] = meta;
+        entries[index + 2] = valueBits;
+    }
+
+    /**
+     * Signals the start of a new search, so that the entries of the previous
+     * ones can be replaced regardless of their depth.
+     */
+    public void newSearch() {
+        generation++;
+    }
+
+    /**
+     * Removes all entries and resets the counters.
+     */
+    public void clear() {
+        Arrays.fill(entries, 0);
+        hits.reset();
+        misses.reset();
+        cutoffs.reset();
+    }
+
+    /**
+     * Counts a search cut off thanks to an entry of the table.
+     */
+    public void countCutoff() {
+        cutoffs.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getCutoffs() {
+        return cutoffs.sum();
+    }
+
+    public int getEntryCount() {
+        return (int) (indexMask + 1);
+    }
+
+    /**
+     * Estimates the proportion of used entries, from the first thousand ones.
+     *
+     * @return The fill rate, between 0 and 1.
+     */
+    public double getFillRate() {
+        int sampled = Math.min(1000, getEntryCount());
+        int used = 0;
+        for (int i = 0; i < sampled; ++i) {
+            if (entries[i * ENTRY_LONGS + 1] != NO_ENTRY) {
+                used++;
+            }
+        }
+        return (double) used / sampled;
+    }
+
+    public static int getDepth(long meta) {
+        return (int) (meta & ((1 << DEPTH_BITS) - 1));
+    }
+
+    public static Bound getBound(long meta) {
+        return BOUNDS[(int) ((meta >>> BOUND_SHIFT) & ((1 << BOUND_BITS) - 1)) - 1];
+    }
+
+    /**
+     * Returns the best move of an entry.
+     *
+     * @param meta The metadata returned by probe.
+     * @return The move, or -1 if there is none.
+     */
+    public static int getMove(long meta) {
+        return (int) ((meta >>> MOVE_SHIFT) & ((1 << MOVE_BITS) - 1)) - 1;
+    }
+
+    private static int getGeneration(long meta) {
+        return (int) ((meta >>> GENERATION_SHIFT) & 0xff);
+    }
+}
@@ -0,0 +1,77 @@
+package simpleothellonet;
+
+import java.util.Random;
+import simpleothellonet.ReversiBoard.Color;
+
+/**
+ * Random keys used to compute Zobrist hashes of boards. The hash of a board is
+ * the exclusive or of the keys of all its tokens, and of the turn key if white
+ * is to play. It can thus be updated incrementally when a move is made.
+ */
+public final class Zobrist {
+
+    /**
+     * Key of each cell, for a black token.
+     */
+    private static final long[] BLACK_KEYS = new long[64];
+
+    /**
+     * Key of each cell, for a white token.
+     */
+    private static final long[] WHITE_KEYS = new long[64];
+
+    /**
+     * Key added to the hash when white is to play.
+     */
+    static final long TURN_KEY;
+
+    static {
+        // A fixed seed keeps the hashes identical from one run to another
+        Random random = new Random(0x5eed);
+        for (int square = 0; square < 64; ++square) {
+            BLACK_KEYS[square] = random.nextLong();
+            WHITE_KEYS[square] = random.nextLong();
+        }
+        TURN_KEY = random.nextLong();
+    }
+
+    private Zobrist() {
+    }
+
+    /**
+     * Computes the hash of a board from scratch.
+     *
+     * @param black The black tokens.
+     * @param white The white tokens.
+     * @param turnColor The color of the player whose turn it is.
+     * @return The Zobrist hash.
+     */
+    public static long hash(long black, long white, Color turnColor) {
+        long hash = turnColor == Color.White ? TURN_KEY : 0;
+        for (long bits = black; bits != 0; bits &= bits - 1) {
+            hash ^= BLACK_KEYS[Long.numberOfTrailingZeros(bits)];
+        }
+        for (long bits = white; bits != 0; bits &= bits - 1) {
+            hash ^= WHITE_KEYS[Long.numberOfTrailingZeros(bits)];
+        }
+        return hash;
+    }
+
+    /**
+     * Computes the change of the hash caused by a move. Applying it twice
+     * cancels the move, so that it can be used to take moves back as well.
+     *
+     * @param square The cell where the token is placed.
+     * @param flipped The tokens flipped by the move.
+     * @param color The color of the player making the move.
+     * @return The value to combine with the hash by an exclusive or.
+     */
+    public static long moveDelta(int square, long flipped, Color color) {
+        long delta = color == Color.Black ? BLACK_KEYS[square] : WHITE_KEYS[square];
+        for (long bits = flipped; bits != 0; bits &= bits - 1) {
+            int flippedSquare = Long.numberOfTrailingZeros(bits);
+            delta ^= BLACK_KEYS[flippedSquare] ^ WHITE_KEYS[flippedSquare];
+        }
+        return delta;
+    }
+}